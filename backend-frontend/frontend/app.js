@@ -2220,40 +2220,188 @@ async function createFolder() {
     }
 }
 
+// Uploads go to the plugin in chunks, each with its offset, so a dropped connection only resends from where it stopped
+const UPLOAD_CHUNK_BYTES = 8 * 1024 * 1024;
+const UPLOAD_RETRIES = 3;
+
 async function uploadFiles(files) {
     for (const file of files) {
+        const filePath = currentPath ? `${currentPath}/${file.name}` : file.name;
         try {
-            const reader = new FileReader();
-            
-            reader.onload = async (e) => {
-                const content = e.target.result.split(',')[1]; // Get base64 content
-                const filePath = currentPath ? `${currentPath}/${file.name}` : file.name;
-                
-                try {
-                    const data = await API.post(`/files/content?path=${encodeURIComponent(filePath)}`, {
-                        content: content,
-                        is_base64: true
-                    });
-                    
-                    if (data.error) {
-                        await customAlert(`Error uploading ${file.name}: ${data.error}`);
-                    } else {
-                        addToChangeLog(`Upload /${filePath}`);
-                    }
-                } catch (error) {
-                    console.error('Error uploading file:', error);
-                    await customAlert(`Failed to upload ${file.name}`);
-                }
-            };
-            
-            reader.readAsDataURL(file);
+            await uploadFile(file, filePath);
+            addToChangeLog(`Upload /${filePath}`);
         } catch (error) {
-            console.error('Error reading file:', error);
+            console.error('Error uploading file:', error);
+            if (error.checksumMismatch) {
+                // The plugin has already discarded what it received
+                await customAlert(`Error uploading ${file.name}: ${error.message}`);
+                continue;
+            }
+            const discard = await customConfirm(`Error uploading ${file.name}: ${error.message}. `
+                + 'Discard the part already uploaded? Otherwise uploading the same file again continues where it stopped.');
+            if (discard) {
+                API.delete(`/files/upload?path=${encodeURIComponent(filePath)}`).catch(() => {});
+            }
         }
     }
     
-    // Refresh after a short delay to allow uploads to complete
-    setTimeout(() => loadFiles(currentPath), 1000);
+    await loadFiles(currentPath);
+}
+
+async function uploadFile(file, filePath) {
+    const encodedPath = encodeURIComponent(filePath);
+    // Continue an upload an earlier attempt left unfinished; if that was of a different file, the checksum tells
+    let stored = 0;
+    try {
+        stored = (await API.get(`/files/upload?path=${encodedPath}`)).offset || 0;
+    } catch (error) {
+        console.error('Error getting upload offset:', error);
+    }
+    const resumed = stored > 0 && stored <= file.size;
+    
+    await sendUploadChunks(file, encodedPath, resumed ? stored : 0);
+    const sha256 = await hashFile(file);
+    try {
+        return await completeUpload(encodedPath, sha256);
+    } catch (error) {
+        if (!resumed || !error.checksumMismatch) throw error;
+    }
+    // The plugin discarded the mismatched upload, so send the whole file again
+    await sendUploadChunks(file, encodedPath, 0);
+    return completeUpload(encodedPath, sha256);
+}
+
+async function sendUploadChunks(file, encodedPath, offset) {
+    // Offset 0 makes the plugin start over, even for an empty file
+    let started = offset > 0;
+    let failures = 0;
+    while (offset < file.size || !started) {
+        const chunkStart = offset;
+        try {
+            const response = await fetch(`/api/files/upload?path=${encodedPath}&offset=${offset}`, {
+                method: 'POST',
+                headers: { 'Content-Type': 'application/octet-stream' },
+                body: file.slice(offset, offset + UPLOAD_CHUNK_BYTES)
+            });
+            const data = await response.json();
+            if (!response.ok || data.error) throw new Error(data.error || `HTTP error! status: ${response.status}`);
+            offset = data.offset;
+            started = true;
+            failures = 0;
+        } catch (error) {
+            if (++failures > UPLOAD_RETRIES) throw error;
+            // Continue after what the plugin stored; less than the chunk start means the upload was discarded
+            offset = (await API.get(`/files/upload?path=${encodedPath}`)).offset;
+            if (offset < chunkStart) throw error;
+        }
+    }
+}
+
+async function completeUpload(encodedPath, sha256) {
+    const response = await fetch(`/api/files/upload?path=${encodedPath}&complete=true&sha256=${sha256}`, { method: 'POST' });
+    const data = await response.json();
+    if (!response.ok || data.error) {
+        const error = new Error(data.error || `HTTP error! status: ${response.status}`);
+        error.checksumMismatch = /Checksum mismatch/.test(error.message);
+        throw error;
+    }
+    return data;
+}
+
+// Hashes the file a chunk at a time, so files of any size are verified without holding them in memory.
+// crypto.subtle.digest only takes the whole input at once, hence the hash is computed here.
+async function hashFile(file) {
+    const hash = new Sha256();
+    for (let offset = 0; offset < file.size; offset += UPLOAD_CHUNK_BYTES) {
+        hash.update(new Uint8Array(await file.slice(offset, offset + UPLOAD_CHUNK_BYTES).arrayBuffer()));
+    }
+    return hash.hex();
+}
+
+const SHA256_K = Int32Array.from([
+    0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+    0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+    0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+    0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+    0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+    0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+    0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+    0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+]);
+
+// Incremental SHA-256 (FIPS 180-4): update() with any number of byte arrays, then hex()
+class Sha256 {
+    constructor() {
+        this.state = Int32Array.from([
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+        ]);
+        this.block = new Uint8Array(64);
+        this.blockLength = 0;
+        this.totalLength = 0;
+        this.words = new Int32Array(64);
+    }
+    
+    update(bytes) {
+        this.totalLength += bytes.length;
+        let i = 0;
+        if (this.blockLength > 0) {
+            const taken = Math.min(64 - this.blockLength, bytes.length);
+            this.block.set(bytes.subarray(0, taken), this.blockLength);
+            this.blockLength += taken;
+            i = taken;
+            if (this.blockLength < 64) return;
+            this.compress(this.block, 0);
+            this.blockLength = 0;
+        }
+        for (; i + 64 <= bytes.length; i += 64) {
+            this.compress(bytes, i);
+        }
+        this.block.set(bytes.subarray(i), 0);
+        this.blockLength = bytes.length - i;
+    }
+    
+    hex() {
+        const bits = this.totalLength * 8;
+        const padding = new Uint8Array((this.blockLength < 56 ? 56 : 120) - this.blockLength + 8);
+        padding[0] = 0x80;
+        const view = new DataView(padding.buffer);
+        view.setUint32(padding.length - 8, Math.floor(bits / 0x100000000));
+        view.setUint32(padding.length - 4, bits >>> 0);
+        this.update(padding);
+        return Array.from(this.state, word => (word >>> 0).toString(16).padStart(8, '0')).join('');
+    }
+    
+    compress(bytes, offset) {
+        const w = this.words;
+        for (let t = 0; t < 16; t++) {
+            const p = offset + t * 4;
+            w[t] = (bytes[p] << 24) | (bytes[p + 1] << 16) | (bytes[p + 2] << 8) | bytes[p + 3];
+        }
+        for (let t = 16; t < 64; t++) {
+            const a = w[t - 15];
+            const b = w[t - 2];
+            const s0 = ((a >>> 7) | (a << 25)) ^ ((a >>> 18) | (a << 14)) ^ (a >>> 3);
+            const s1 = ((b >>> 17) | (b << 15)) ^ ((b >>> 19) | (b << 13)) ^ (b >>> 10);
+            w[t] = (w[t - 16] + s0 + w[t - 7] + s1) | 0;
+        }
+        const h = this.state;
+        let a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], k = h[7];
+        for (let t = 0; t < 64; t++) {
+            const s1 = ((e >>> 6) | (e << 26)) ^ ((e >>> 11) | (e << 21)) ^ ((e >>> 25) | (e << 7));
+            const t1 = (k + s1 + ((e & f) ^ (~e & g)) + SHA256_K[t] + w[t]) | 0;
+            const s0 = ((a >>> 2) | (a << 30)) ^ ((a >>> 13) | (a << 19)) ^ ((a >>> 22) | (a << 10));
+            const t2 = (s0 + ((a & b) ^ (a & c) ^ (b & c))) | 0;
+            k = g;
+            g = f;
+            f = e;
+            e = (d + t1) | 0;
+            d = c;
+            c = b;
+            b = a;
+            a = (t1 + t2) | 0;
+        }
+        h[0] += a; h[1] += b; h[2] += c; h[3] += d; h[4] += e; h[5] += f; h[6] += g; h[7] += k;
+    }
 }
 
 function openImageViewer(path) {
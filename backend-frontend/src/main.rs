@@ -1,6 +1,6 @@
 use axum::{
-    extract::State,
-    http::StatusCode,
+    extract::{ConnectInfo, DefaultBodyLimit, RawQuery, State},
+    http::{header, HeaderMap, StatusCode},
     response::{IntoResponse, Json},
     routing::{get, post},
     Router,
@@ -11,6 +11,9 @@ use tokio::sync::RwLock;
 use tower_http::services::ServeDir;
 use tracing::{error, info};
 
+// Largest upload chunk accepted from the browser; the frontend sends 8 MB chunks
+const UPLOAD_CHUNK_LIMIT: usize = 16 * 1024 * 1024;
+
 mod config;
 mod plugin_client;
 
@@ -114,6 +117,9 @@ async fn main() {
         .route("/api/files", post(file_action))
         .route("/api/files", axum::routing::delete(delete_file))
         .route("/api/files/download", get(download_file))
+        .route("/api/files/upload", get(get_upload_offset))
+        .route("/api/files/upload", post(upload_file).layer(DefaultBodyLimit::max(UPLOAD_CHUNK_LIMIT)))
+        .route("/api/files/upload", axum::routing::delete(abort_upload))
         .route("/api/files/changelog", get(get_file_changelog))
         // Serve frontend
         .nest_service("/", ServeDir::new("frontend"))
@@ -125,7 +131,8 @@ async fn main() {
     info!("Open your browser to http://localhost:{}", state.config.backend_port);
 
     let listener = tokio::net::TcpListener::bind(addr).await.unwrap();
-    axum::serve(listener, app).await.unwrap();
+    // The peer address is passed to the plugin as the source of file changes
+    axum::serve(listener, app.into_make_service_with_connect_info::<SocketAddr>()).await.unwrap();
 }
 
 // API handlers
@@ -487,8 +494,17 @@ struct UuidLookupQuery {
 }
 
 async fn uuid_lookup(
+    State(state): State<AppState>,
     axum::extract::Query(query): axum::extract::Query<UuidLookupQuery>,
 ) -> Result<Json<serde_json::Value>, ApiError> {
+    // Players the server already knows are resolved by the plugin without asking Mojang
+    {
+        let client = state.plugin_client.read().await;
+        if let Ok(player) = client.lookup_player(&query.username).await {
+            return Ok(Json(player));
+        }
+    }
+
     // Fetch UUID from Mojang API
     let url = format!("https://api.mojang.com/users/profiles/minecraft/{}", query.username);
     
@@ -742,12 +758,13 @@ struct WriteFileRequest {
 
 async fn write_file_content(
     State(state): State<AppState>,
+    ConnectInfo(peer): ConnectInfo<SocketAddr>,
     axum::extract::Query(query): axum::extract::Query<FileQuery>,
     Json(payload): Json<WriteFileRequest>,
 ) -> Result<Json<serde_json::Value>, ApiError> {
     let client = state.plugin_client.read().await;
     let path = query.path.unwrap_or_default();
-    match client.write_file(&path, &payload.content, payload.is_base64).await {
+    match client.write_file(&path, &payload.content, payload.is_base64, &peer.ip().to_string()).await {
         Ok(result) => Ok(Json(result)),
         Err(e) => {
             error!("Failed to write file: {}", e);
@@ -765,16 +782,18 @@ struct FileActionRequest {
 
 async fn file_action(
     State(state): State<AppState>,
+    ConnectInfo(peer): ConnectInfo<SocketAddr>,
     axum::extract::Query(query): axum::extract::Query<FileQuery>,
     Json(payload): Json<FileActionRequest>,
 ) -> Result<Json<serde_json::Value>, ApiError> {
     let client = state.plugin_client.read().await;
     let path = query.path.unwrap_or_default();
+    let source = peer.ip().to_string();
     
     match payload.action.as_str() {
         "rename" => {
             let new_name = payload.new_name.ok_or_else(|| ApiError::PluginError("newName required for rename action".to_string()))?;
-            match client.rename_file(&path, &new_name).await {
+            match client.rename_file(&path, &new_name, &source).await {
                 Ok(result) => Ok(Json(result)),
                 Err(e) => {
                     error!("Failed to rename file: {}", e);
@@ -783,7 +802,7 @@ async fn file_action(
             }
         },
         "mkdir" => {
-            match client.create_directory(&path).await {
+            match client.create_directory(&path, &source).await {
                 Ok(result) => Ok(Json(result)),
                 Err(e) => {
                     error!("Failed to create directory: {}", e);
@@ -797,11 +816,12 @@ async fn file_action(
 
 async fn delete_file(
     State(state): State<AppState>,
+    ConnectInfo(peer): ConnectInfo<SocketAddr>,
     axum::extract::Query(query): axum::extract::Query<FileQuery>,
 ) -> Result<Json<serde_json::Value>, ApiError> {
     let client = state.plugin_client.read().await;
     let path = query.path.unwrap_or_default();
-    match client.delete_file(&path).await {
+    match client.delete_file(&path, &peer.ip().to_string()).await {
         Ok(result) => Ok(Json(result)),
         Err(e) => {
             error!("Failed to delete file: {}", e);
@@ -810,88 +830,125 @@ async fn delete_file(
     }
 }
 
-async fn download_file(
+async fn get_upload_offset(
     State(state): State<AppState>,
     axum::extract::Query(query): axum::extract::Query<FileQuery>,
-) -> Result<impl IntoResponse, ApiError> {
+) -> Result<Json<serde_json::Value>, ApiError> {
+    let client = state.plugin_client.read().await;
+    let path = query.path.unwrap_or_default();
+    match client.get_upload_offset(&path).await {
+        Ok(result) => Ok(Json(result)),
+        Err(e) => {
+            error!("Failed to get upload offset: {}", e);
+            Err(ApiError::PluginError(e.to_string()))
+        }
+    }
+}
+
+#[derive(Deserialize)]
+struct UploadQuery {
+    path: Option<String>,
+    offset: Option<u64>,
+    #[serde(default)]
+    complete: bool,
+    sha256: Option<String>,
+}
+
+// The body is one chunk of the file, passed on to the plugin as is; complete=true finishes the upload
+async fn upload_file(
+    State(state): State<AppState>,
+    ConnectInfo(peer): ConnectInfo<SocketAddr>,
+    axum::extract::Query(query): axum::extract::Query<UploadQuery>,
+    body: axum::body::Bytes,
+) -> Result<Json<serde_json::Value>, ApiError> {
     let client = state.plugin_client.read().await;
     let path = query.path.unwrap_or_default();
     
-    match client.read_file(&path).await {
-        Ok(file_data) => {
-            // Check for errors
-            if file_data.get("error").is_some() {
-                return Err(ApiError::PluginError(
-                    file_data.get("error")
-                        .and_then(|v| v.as_str())
-                        .unwrap_or("Failed to read file")
-                        .to_string()
-                ));
+    match query.offset {
+        Some(offset) => {
+            let result = client.upload_chunk(&path, offset, body).await.map_err(|e| {
+                error!("Failed to upload chunk: {}", e);
+                ApiError::PluginError(e.to_string())
+            })?;
+            if !query.complete {
+                return Ok(Json(result));
             }
-            
-            // Get file content
-            let content = file_data.get("content")
-                .and_then(|v| v.as_str())
-                .ok_or_else(|| ApiError::PluginError("No content in response".to_string()))?;
-            
-            let is_base64 = file_data.get("encoding")
-                .and_then(|v| v.as_str())
-                .map(|s| s == "base64")
-                .unwrap_or(false);
-            
-            // Decode content
-            let bytes = if is_base64 {
-                use base64::Engine;
-                base64::engine::general_purpose::STANDARD.decode(content)
-                    .map_err(|e| ApiError::PluginError(format!("Failed to decode base64: {}", e)))?
-            } else {
-                content.as_bytes().to_vec()
-            };
-            
-            // Determine filename from path
-            let filename = path.split('/').last().unwrap_or("download").to_string();
-            
-            // Determine content type
-            let content_type = if filename.ends_with(".txt") {
-                "text/plain"
-            } else if filename.ends_with(".json") {
-                "application/json"
-            } else if filename.ends_with(".yml") || filename.ends_with(".yaml") {
-                "text/yaml"
-            } else if filename.ends_with(".properties") {
-                "text/plain"
-            } else if filename.ends_with(".jar") {
-                "application/java-archive"
-            } else if filename.ends_with(".log") {
-                "text/plain"
-            } else {
-                "application/octet-stream"
-            };
-            
-            let content_disposition = format!("attachment; filename=\"{}\"", filename);
-            
-            Ok((
-                StatusCode::OK,
-                [
-                    (axum::http::header::CONTENT_TYPE, content_type.to_string()),
-                    (axum::http::header::CONTENT_DISPOSITION, content_disposition)
-                ],
-                bytes
-            ))
-        },
+        }
+        None if !query.complete => {
+            return Err(ApiError::PluginError("offset required for upload data".to_string()));
+        }
+        None => {}
+    }
+    
+    match client.complete_upload(&path, query.sha256.as_deref(), &peer.ip().to_string()).await {
+        Ok(result) => Ok(Json(result)),
+        Err(e) => {
+            error!("Failed to complete upload: {}", e);
+            Err(ApiError::PluginError(e.to_string()))
+        }
+    }
+}
+
+async fn abort_upload(
+    State(state): State<AppState>,
+    axum::extract::Query(query): axum::extract::Query<FileQuery>,
+) -> Result<Json<serde_json::Value>, ApiError> {
+    let client = state.plugin_client.read().await;
+    let path = query.path.unwrap_or_default();
+    match client.abort_upload(&path).await {
+        Ok(result) => Ok(Json(result)),
         Err(e) => {
-            error!("Failed to download file: {}", e);
+            error!("Failed to abort upload: {}", e);
             Err(ApiError::PluginError(e.to_string()))
         }
     }
 }
 
+// Streams the file from the plugin without buffering it. Range and If-Range go to the plugin, and its status
+// (200, 206, 416 or an error) comes back with the headers a resuming client needs.
+async fn download_file(
+    State(state): State<AppState>,
+    axum::extract::Query(query): axum::extract::Query<FileQuery>,
+    headers: HeaderMap,
+) -> Result<axum::response::Response, ApiError> {
+    let client = state.plugin_client.read().await;
+    let path = query.path.unwrap_or_default();
+    let range = headers.get(header::RANGE).and_then(|v| v.to_str().ok());
+    let if_range = headers.get(header::IF_RANGE).and_then(|v| v.to_str().ok());
+    
+    let response = client.download_file(&path, range, if_range).await.map_err(|e| {
+        error!("Failed to download file: {}", e);
+        ApiError::PluginError(e.to_string())
+    })?;
+    
+    let mut builder = axum::response::Response::builder().status(response.status().as_u16());
+    for name in [
+        header::CONTENT_TYPE,
+        header::CONTENT_LENGTH,
+        header::CONTENT_RANGE,
+        header::CONTENT_DISPOSITION,
+        header::ACCEPT_RANGES,
+        header::ETAG,
+        header::LAST_MODIFIED,
+    ] {
+        // reqwest and axum use different versions of the http crate, so values are copied as bytes
+        if let Some(value) = response.headers().get(name.as_str()) {
+            builder = builder.header(name, value.as_bytes());
+        }
+    }
+    builder
+        .body(axum::body::Body::from_stream(response.bytes_stream()))
+        .map_err(|e| ApiError::PluginError(e.to_string()))
+}
+
+// The query (path, from, to, limit, records) goes to the plugin unchanged
 async fn get_file_changelog(
     State(state): State<AppState>,
+    RawQuery(query): RawQuery,
 ) -> Result<Json<serde_json::Value>, ApiError> {
     let client = state.plugin_client.read().await;
     
-    match client.get_file_changelog().await {
+    match client.get_file_changelog(query.as_deref()).await {
         Ok(data) => Ok(Json(data)),
         Err(e) => {
             error!("Failed to get changelog: {}", e);
@@ -49,10 +49,13 @@ impl PluginClient {
     }
 
     async fn post(&self, endpoint: &str, body: Value) -> Result<Value, Box<dyn Error>> {
+        self.post_from(endpoint, body, None).await
+    }
+
+    // source is the browser's address, passed on as X-Forwarded-For so the plugin's changelog names the client
+    async fn post_from(&self, endpoint: &str, body: Value, source: Option<&str>) -> Result<Value, Box<dyn Error>> {
         let url = format!("{}{}", self.base_url, endpoint);
-        let response = self
-            .client
-            .post(&url)
+        let response = forwarded_for(self.client.post(&url), source)
             .header("Authorization", format!("Bearer {}", self.api_key))
             .json(&body)
             .send()
@@ -66,10 +69,12 @@ impl PluginClient {
     }
 
     async fn delete(&self, endpoint: &str) -> Result<Value, Box<dyn Error>> {
+        self.delete_from(endpoint, None).await
+    }
+
+    async fn delete_from(&self, endpoint: &str, source: Option<&str>) -> Result<Value, Box<dyn Error>> {
         let url = format!("{}{}", self.base_url, endpoint);
-        let response = self
-            .client
-            .delete(&url)
+        let response = forwarded_for(self.client.delete(&url), source)
             .header("Authorization", format!("Bearer {}", self.api_key))
             .send()
             .await?;
@@ -89,6 +94,10 @@ impl PluginClient {
         self.get("/players").await
     }
 
+    pub async fn lookup_player(&self, name: &str) -> Result<Value, Box<dyn Error>> {
+        self.get(&format!("/players/lookup?name={}", urlencoding::encode(name))).await
+    }
+
     pub async fn get_player(&self, uuid: &str) -> Result<Value, Box<dyn Error>> {
         self.get(&format!("/player?uuid={}", uuid)).await
     }
@@ -287,39 +296,112 @@ impl PluginClient {
         self.post(&format!("/files?path={}", encoded_path), body).await
     }
     
-    pub async fn write_file(&self, path: &str, content: &str, is_base64: bool) -> Result<Value, Box<dyn Error>> {
+    // The raw file with its headers, so the caller can stream it; Range and If-Range are passed on for resuming
+    pub async fn download_file(&self, path: &str, range: Option<&str>, if_range: Option<&str>) -> Result<reqwest::Response, Box<dyn Error>> {
+        let url = format!("{}/files?path={}&download=true", self.base_url, urlencoding::encode(path));
+        let mut request = self
+            .client
+            .get(&url)
+            .header("Authorization", format!("Bearer {}", self.api_key));
+        if let Some(range) = range {
+            request = request.header("Range", range);
+        }
+        if let Some(if_range) = if_range {
+            request = request.header("If-Range", if_range);
+        }
+        Ok(request.send().await?)
+    }
+    
+    pub async fn write_file(&self, path: &str, content: &str, is_base64: bool, source: &str) -> Result<Value, Box<dyn Error>> {
         let encoded_path = urlencoding::encode(path);
         let body = serde_json::json!({
             "action": "write",
             "content": content,
             "isBase64": is_base64
         });
-        self.post(&format!("/files?path={}", encoded_path), body).await
+        self.post_from(&format!("/files?path={}", encoded_path), body, Some(source)).await
     }
     
-    pub async fn delete_file(&self, path: &str) -> Result<Value, Box<dyn Error>> {
+    pub async fn delete_file(&self, path: &str, source: &str) -> Result<Value, Box<dyn Error>> {
         let encoded_path = urlencoding::encode(path);
-        self.delete(&format!("/files?path={}", encoded_path)).await
+        self.delete_from(&format!("/files?path={}", encoded_path), Some(source)).await
     }
     
-    pub async fn rename_file(&self, path: &str, new_name: &str) -> Result<Value, Box<dyn Error>> {
+    pub async fn rename_file(&self, path: &str, new_name: &str, source: &str) -> Result<Value, Box<dyn Error>> {
         let encoded_path = urlencoding::encode(path);
         let body = serde_json::json!({
             "action": "rename",
             "newName": new_name
         });
-        self.post(&format!("/files?path={}", encoded_path), body).await
+        self.post_from(&format!("/files?path={}", encoded_path), body, Some(source)).await
     }
     
-    pub async fn create_directory(&self, path: &str) -> Result<Value, Box<dyn Error>> {
+    pub async fn create_directory(&self, path: &str, source: &str) -> Result<Value, Box<dyn Error>> {
         let encoded_path = urlencoding::encode(path);
         let body = serde_json::json!({
             "action": "mkdir"
         });
-        self.post(&format!("/files?path={}", encoded_path), body).await
+        self.post_from(&format!("/files?path={}", encoded_path), body, Some(source)).await
     }
     
-    pub async fn get_file_changelog(&self) -> Result<Value, Box<dyn Error>> {
-        self.get("/files/changelog").await
+    // query is passed on as is: path, from, to, limit and records select changes in a time range
+    pub async fn get_file_changelog(&self, query: Option<&str>) -> Result<Value, Box<dyn Error>> {
+        match query {
+            Some(query) if !query.is_empty() => self.get(&format!("/files/changelog?{}", query)).await,
+            _ => self.get("/files/changelog").await,
+        }
+    }
+    
+    // Resumable upload methods; the file goes over in chunks, each written at its offset
+    pub async fn get_upload_offset(&self, path: &str) -> Result<Value, Box<dyn Error>> {
+        let encoded_path = urlencoding::encode(path);
+        self.get(&format!("/files/upload?path={}", encoded_path)).await
+    }
+    
+    pub async fn upload_chunk(&self, path: &str, offset: u64, chunk: impl Into<reqwest::Body>) -> Result<Value, Box<dyn Error>> {
+        let url = format!("{}/files/upload?path={}&offset={}", self.base_url, urlencoding::encode(path), offset);
+        let request = self
+            .client
+            .post(&url)
+            .header("Content-Type", "application/octet-stream")
+            .body(chunk);
+        self.send_upload(request).await
+    }
+    
+    pub async fn complete_upload(&self, path: &str, sha256: Option<&str>, source: &str) -> Result<Value, Box<dyn Error>> {
+        let mut url = format!("{}/files/upload?path={}&complete=true", self.base_url, urlencoding::encode(path));
+        if let Some(sha256) = sha256 {
+            url.push_str(&format!("&sha256={}", urlencoding::encode(sha256)));
+        }
+        self.send_upload(forwarded_for(self.client.post(&url), Some(source))).await
+    }
+    
+    pub async fn abort_upload(&self, path: &str) -> Result<Value, Box<dyn Error>> {
+        let encoded_path = urlencoding::encode(path);
+        self.delete(&format!("/files/upload?path={}", encoded_path)).await
+    }
+    
+    // Keeps the plugin's error message, e.g. a checksum mismatch or the size limit
+    async fn send_upload(&self, request: reqwest::RequestBuilder) -> Result<Value, Box<dyn Error>> {
+        let response = request
+            .header("Authorization", format!("Bearer {}", self.api_key))
+            .send()
+            .await?;
+        
+        let status = response.status();
+        if !status.is_success() {
+            let body: Value = response.json().await.unwrap_or(Value::Null);
+            let message = body.get("error").and_then(|v| v.as_str()).unwrap_or("");
+            return Err(format!("Request failed: {} {}", status, message).trim_end().to_string().into());
+        }
+        
+        Ok(response.json().await?)
+    }
+}
+
+fn forwarded_for(request: reqwest::RequestBuilder, source: Option<&str>) -> reqwest::RequestBuilder {
+    match source {
+        Some(source) => request.header("X-Forwarded-For", source),
+        None => request,
     }
 }
@@ -21,6 +21,10 @@ public class Main extends JavaPlugin {
     private CustomRecipeManager customRecipeManager;
     private LogManager logManager;
     private FileManager fileManager;
+    private LagSpikeWatchdog lagSpikeWatchdog;
+    private SamplingProfiler samplingProfiler;
+    private FlightRecorderManager flightRecorderManager;
+    private HeapHistogramManager heapHistogramManager;
 
     private APIServer apiServer;
     private Gson gson;
@@ -56,6 +60,11 @@ public class Main extends JavaPlugin {
         customRecipeManager = new CustomRecipeManager(this);
         logManager = new LogManager(this);
         fileManager = new FileManager(this);
+        lagSpikeWatchdog = new LagSpikeWatchdog(this, configManager.getLagSpikeThresholdMs(), configManager.getLagSpikeMaxEntries());
+        lagSpikeWatchdog.start();
+        samplingProfiler = new SamplingProfiler(this);
+        flightRecorderManager = new FlightRecorderManager(this);
+        heapHistogramManager = new HeapHistogramManager(this);
 
         logManager.attachConsoleLogHandler();
 
@@ -68,6 +77,12 @@ public class Main extends JavaPlugin {
 
         if (apiServer != null) apiServer.stop();
         if (metricsCollector != null) metricsCollector.stop();
+        if (lagSpikeWatchdog != null) lagSpikeWatchdog.stop();
+        if (samplingProfiler != null) samplingProfiler.stop();
+        if (flightRecorderManager != null) flightRecorderManager.stopAll();
+        if (playerDataManager != null) playerDataManager.shutdown();
+        if (logManager != null) logManager.close();
+        if (fileManager != null) fileManager.getChangeLogger().close();
 
         getLogger().info(" MC Control Plugin has been disabled!");
 
@@ -110,4 +125,20 @@ public class Main extends JavaPlugin {
     public FileManager getFileManager() {
         return fileManager;
     }
+
+    public LagSpikeWatchdog getLagSpikeWatchdog() {
+        return lagSpikeWatchdog;
+    }
+
+    public SamplingProfiler getSamplingProfiler() {
+        return samplingProfiler;
+    }
+
+    public FlightRecorderManager getFlightRecorderManager() {
+        return flightRecorderManager;
+    }
+
+    public HeapHistogramManager getHeapHistogramManager() {
+        return heapHistogramManager;
+    }
 }
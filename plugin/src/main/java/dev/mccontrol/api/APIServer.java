@@ -1,11 +1,28 @@
 package dev.mccontrol.api;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import dev.mccontrol.Main;
+import dev.mccontrol.logger.FileChangeLogger;
+import dev.mccontrol.manager.FileManager;
+import dev.randombytes.FlightRecorderManager;
+import dev.randombytes.HeapHistogramManager;
+import dev.randombytes.InventoryCache;
+import dev.randombytes.LogBlockStore;
+import dev.randombytes.LogFilter;
+import dev.randombytes.LogRingBuffer;
+import dev.randombytes.LogSearchIndex;
+import dev.randombytes.PlayerIndex;
+import dev.randombytes.SamplingProfiler;
+import dev.randombytes.ServerLogReader;
+import dev.randombytes.SessionStore;
+import dev.randombytes.StatisticsScanner;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.Plugin;
 
@@ -14,18 +31,38 @@ import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import java.io.*;
 import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.KeyPair;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 public class APIServer {
+    private static final int API_THREADS = 4;
     private final Plugin plugin;
     private final int port;
     private String apiKey;
     private KeyPair serverKeyPair;
     private HttpServer server;
+    private ExecutorService executor;
     private final Map<String, SecretKey> sessionKeys;
     
     public APIServer(Plugin plugin, int port) {
@@ -48,7 +85,13 @@ public class APIServer {
             server.createContext("/api/auth", new AuthHandler());
             server.createContext("/api/metrics", new MetricsHandler());
             server.createContext("/api/players", new PlayersHandler());
+            server.createContext("/api/players/search", new PlayerSearchHandler());
+            server.createContext("/api/players/lookup", new PlayerSearchHandler());
+            server.createContext("/api/players/export", new PlayerExportHandler());
             server.createContext("/api/player", new PlayerHandler());
+            server.createContext("/api/inventory-history", new InventoryHistoryHandler());
+            server.createContext("/api/leaderboards", new LeaderboardsHandler());
+            server.createContext("/api/sessions", new SessionsHandler());
             server.createContext("/api/whitelist", new WhitelistHandler());
             server.createContext("/api/blacklist", new BlacklistHandler());
             server.createContext("/api/ops", new OpsHandler());
@@ -64,10 +107,24 @@ public class APIServer {
             server.createContext("/api/recipes", new RecipesHandler());
             server.createContext("/api/recipe", new RecipeHandler());
             server.createContext("/api/logs", new LogsHandler());
+            server.createContext("/api/logs/search", new LogSearchHandler());
+            server.createContext("/api/log-history", new LogHistoryHandler());
             server.createContext("/api/files", new FilesHandler());
             server.createContext("/api/files/changelog", new FileChangelogHandler());
+            server.createContext("/api/files/upload", new FileUploadHandler());
+            server.createContext("/api/spikes", new LagSpikesHandler());
+            server.createContext("/api/profiler", new ProfilerHandler());
+            server.createContext("/api/jfr", new FlightRecorderHandler());
+            server.createContext("/api/heap", new HeapHistogramHandler());
             
-            server.setExecutor(null);
+            // A small pool, so a long download does not hold up every other request
+            AtomicInteger threadNumber = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(API_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "MCControl-API-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            server.setExecutor(executor);
             server.start();
 
             
@@ -80,21 +137,170 @@ public class APIServer {
     public void stop() {
         if (server != null) {
             server.stop(0);
+            executor.shutdownNow();
             plugin.getLogger().info("API Server stopped");
         }
     }
 
 
     private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        sendResponse(exchange, statusCode, "application/json", response);
+    }
+    
+    private void sendResponse(HttpExchange exchange, int statusCode, String contentType, String response) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
         exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-        byte[] bytes = response.getBytes();
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
         exchange.sendResponseHeaders(statusCode, bytes.length);
         OutputStream os = exchange.getResponseBody();
         os.write(bytes);
         os.close();
     }
     
+    private interface JsonBody {
+        void write(JsonWriter json) throws IOException;
+    }
+    
+    // Streams a JSON object with chunked encoding instead of building it in memory first
+    private void sendJsonStream(HttpExchange exchange, JsonBody body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.sendResponseHeaders(200, 0);
+        try (JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 1 << 16))) {
+            json.beginObject();
+            body.write(json);
+            json.endObject();
+        } catch (IOException e) {
+            // Usually the client went away; the status is already sent
+            plugin.getLogger().fine("Response stream aborted: " + e.getMessage());
+        }
+    }
+    
+    private void writeLogRecord(JsonWriter json, LogBlockStore.Line line) throws IOException {
+        json.beginObject();
+        json.name("time").value(line.millis);
+        if (line.source != null) {
+            json.name("source").value(line.source);
+        }
+        json.name("level").value(line.level != null ? line.level.getName() : "INFO");
+        if (line.loggerName != null) {
+            json.name("logger").value(line.loggerName);
+        }
+        if (line.threadName != null) {
+            json.name("thread").value(line.threadName);
+        }
+        json.name("message").value(line.message);
+        if (line.thrown != null) {
+            json.name("thrown").value(line.thrown);
+        }
+        json.endObject();
+    }
+    
+    // Streams a file to the client without loading it into memory. A single "Range: bytes=..." is answered
+    // with 206 and just that part, unless If-Range shows the client's copy is of an older version of the file.
+    private void sendFile(HttpExchange exchange, File file, String contentType) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long lastModified = file.lastModified();
+            String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", contentType);
+            headers.set("Content-Disposition", "attachment; filename=\"" + file.getName() + "\"");
+            headers.set("Access-Control-Allow-Origin", "*");
+            headers.set("Accept-Ranges", "bytes");
+            headers.set("ETag", etag);
+            headers.set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    ZonedDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneOffset.UTC)));
+            
+            int status = 200;
+            long start = 0;
+            long length = size;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null && ifRangeMatches(exchange.getRequestHeaders().getFirst("If-Range"), etag, lastModified)) {
+                long[] bounds = parseRange(range, size);
+                if (bounds != null && bounds.length == 0) {
+                    headers.set("Content-Range", "bytes */" + size);
+                    exchange.sendResponseHeaders(416, -1);
+                    exchange.close();
+                    return;
+                }
+                // Malformed and multi-part ranges are ignored and the whole file is sent
+                if (bounds != null) {
+                    status = 206;
+                    start = bounds[0];
+                    length = bounds[1] - bounds[0] + 1;
+                    headers.set("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+                }
+            }
+            
+            exchange.sendResponseHeaders(status, length > 0 ? length : -1);
+            try (OutputStream os = exchange.getResponseBody()) {
+                WritableByteChannel out = Channels.newChannel(os);
+                long position = start;
+                long end = start + length;
+                while (position < end) {
+                    long sent = channel.transferTo(position, end - position, out);
+                    if (sent <= 0) {
+                        // The file was truncated while being sent
+                        break;
+                    }
+                    position += sent;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Parses a single "bytes=start-end", "bytes=start-" or "bytes=-suffix" range
+     * @return Inclusive start and end clamped to the file, an empty array if the range cannot be satisfied,
+     *         or null if the header is malformed or asks for several ranges
+     */
+    private static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) {
+                    return suffix < 0 ? null : new long[0];
+                }
+                return new long[] {Math.max(0, size - suffix), size - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return null;
+            }
+            return start >= size ? new long[0] : new long[] {start, Math.min(end, size - 1)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    // If-Range holds either the ETag or the Last-Modified date the client's partial copy was fetched with
+    private static boolean ifRangeMatches(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return value.equals(etag);
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond() == lastModified / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+    
     private void sendError(HttpExchange exchange, int statusCode, String message) throws IOException {
         JsonObject error = new JsonObject();
         error.addProperty("error", message);
@@ -112,6 +318,47 @@ public class APIServer {
         return sb.toString();
     }
     
+    private Map<String, String> parseQuery(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        
+        for (String param : query.split("&")) {
+            int eq = param.indexOf('=');
+            String key = eq >= 0 ? param.substring(0, eq) : param;
+            String value = eq >= 0 ? param.substring(eq + 1) : "";
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+    
+    private int parseIntParam(Map<String, String> params, String key, int defaultValue) {
+        try {
+            return params.containsKey(key) ? Integer.parseInt(params.get(key)) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+    
+    // "true" or "false"; anything else (including a missing parameter) means no filter
+    private Boolean parseBooleanParam(Map<String, String> params, String key) {
+        String value = params.get(key);
+        if ("true".equals(value)) {
+            return Boolean.TRUE;
+        }
+        return "false".equals(value) ? Boolean.FALSE : null;
+    }
+    
+    private void applyFlagFilter(PlayerIndex.Query query, Boolean value, int flag) {
+        if (Boolean.TRUE.equals(value)) {
+            query.requiredFlags |= flag;
+        } else if (Boolean.FALSE.equals(value)) {
+            query.excludedFlags |= flag;
+        }
+    }
+    
     private boolean validateAuth(HttpExchange exchange) {
         String authHeader = exchange.getRequestHeaders().getFirst("Authorization");
         if (authHeader == null || !authHeader.startsWith("Bearer ")) {
@@ -122,6 +369,16 @@ public class APIServer {
         return token.equals(apiKey);
     }
     
+    // The client that made a change, for the file changelog; the first forwarded address if behind a proxy
+    private String requestSource(HttpExchange exchange) {
+        String forwarded = exchange.getRequestHeaders().getFirst("X-Forwarded-For");
+        if (forwarded != null && !forwarded.isBlank()) {
+            return forwarded.split(",")[0].trim();
+        }
+        InetSocketAddress remote = exchange.getRemoteAddress();
+        return remote != null && remote.getAddress() != null ? remote.getAddress().getHostAddress() : null;
+    }
+    
     // Handshake handler for key exchange
     private class HandshakeHandler implements HttpHandler {
         @Override
@@ -206,7 +463,14 @@ public class APIServer {
             }
             
             try {
-                JsonObject metrics = Main.getInstance().getMetricsCollector().getMetrics();
+                JsonObject metrics;
+                if ("/api/metrics/threads".equals(exchange.getRequestURI().getPath())) {
+                    metrics = Main.getInstance().getMetricsCollector().getThreadCpu();
+                } else if ("/api/metrics/logs".equals(exchange.getRequestURI().getPath())) {
+                    metrics = Main.getInstance().getLogManager().getLogRates();
+                } else {
+                    metrics = Main.getInstance().getMetricsCollector().getMetrics();
+                }
                 sendResponse(exchange, 200, Main.getInstance().getGson().toJson(metrics));
             } catch (Exception e) {
                 plugin.getLogger().log(Level.SEVERE, "Error getting metrics", e);
@@ -230,8 +494,49 @@ public class APIServer {
             }
             
             try {
-                JsonObject players = Main.getInstance().getPlayerDataManager().getAllPlayersData();
+                Map<String, String> params = parseQuery(exchange);
+                PlayerIndex.Query query = new PlayerIndex.Query();
+                
+                String sort = params.getOrDefault("sort", "name");
+                switch (sort) {
+                    case "name":
+                        query.sort = PlayerIndex.Sort.NAME;
+                        break;
+                    case "lastSeen":
+                        query.sort = PlayerIndex.Sort.LAST_SEEN;
+                        break;
+                    case "playTime":
+                        query.sort = PlayerIndex.Sort.PLAY_TIME;
+                        break;
+                    default:
+                        sendError(exchange, 400, "Unknown sort: " + sort);
+                        return;
+                }
+                // Names ascend by default, times descend so the most recent or active players come first
+                query.descending = params.containsKey("order")
+                        ? "desc".equals(params.get("order")) : query.sort != PlayerIndex.Sort.NAME;
+                
+                // Malformed numbers are rejected like seenFrom and seenTo below, rather than replaced by the default
+                if (params.containsKey("offset")) {
+                    query.offset = Math.max(0, Integer.parseInt(params.get("offset")));
+                }
+                if (params.containsKey("limit")) {
+                    query.limit = Math.max(0, Integer.parseInt(params.get("limit")));
+                }
+                applyFlagFilter(query, parseBooleanParam(params, "banned"), PlayerIndex.FLAG_BANNED);
+                applyFlagFilter(query, parseBooleanParam(params, "op"), PlayerIndex.FLAG_OP);
+                if (params.containsKey("seenFrom")) {
+                    query.seenFrom = Long.parseLong(params.get("seenFrom"));
+                }
+                if (params.containsKey("seenTo")) {
+                    query.seenTo = Long.parseLong(params.get("seenTo"));
+                }
+                
+                JsonObject players = Main.getInstance().getPlayerDataManager()
+                        .getPlayers(query, parseBooleanParam(params, "online"));
                 sendResponse(exchange, 200, Main.getInstance().getGson().toJson(players));
+            } catch (NumberFormatException e) {
+                sendError(exchange, 400, "Invalid number parameter");
             } catch (Exception e) {
                 plugin.getLogger().log(Level.SEVERE, "Error getting players", e);
                 sendError(exchange, 500, "Internal server error");
@@ -239,6 +544,277 @@ public class APIServer {
         }
     }
     
+    // Player name search (?q=) and exact name to UUID lookup (?name=)
+    private class PlayerSearchHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!validateAuth(exchange)) {
+                sendError(exchange, 401, "Unauthorized");
+                return;
+            }
+            
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            
+            try {
+                Map<String, String> params = parseQuery(exchange);
+                if (exchange.getRequestURI().getPath().endsWith("/lookup")) {
+                    String name = params.get("name");
+                    if (name == null || name.isEmpty()) {
+                        sendError(exchange, 400, "Name parameter required");
+                        return;
+                    }
+                    JsonObject player = Main.getInstance().getPlayerDataManager().lookupPlayer(name);
+                    if (player == null) {
+                        sendError(exchange, 404, "Player not found");
+                        return;
+                    }
+                    sendResponse(exchange, 200, Main.getInstance().getGson().toJson(player));
+                    return;
+                }
+                
+                String query = params.get("q");
+                if (query == null || query.trim().isEmpty()) {
+                    sendError(exchange, 400, "Query parameter required");
+                    return;
+                }
+                int limit = Math.min(Math.max(1, parseIntParam(params, "limit", 10)), 100);
+                JsonObject results = Main.getInstance().getPlayerDataManager().searchPlayers(query, limit);
+                sendResponse(exchange, 200, Main.getInstance().getGson().toJson(results));
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Error searching players", e);
+                sendError(exchange, 500, "Internal server error");
+            }
+        }
+    }
+    
+    /**
+     * Handler for inventory history: the timeline, the inventory at a time, or the changes between two times
+     */
+    private class InventoryHistoryHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!validateAuth(exchange)) {
+                sendError(exchange, 401, "Unauthorized");
+                return;
+            }
+            
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            
+            try {
+                Map<String, String> params = parseQuery(exchange);
+                if (!params.containsKey("uuid")) {
+                    sendError(exchange, 400, "UUID parameter required");
+                    return;
+                }
+                UUID uuid = UUID.fromString(params.get("uuid"));
+                InventoryCache inventories = Main.getInstance().getPlayerDataManager().getInventoryCache();
+                int limit = Math.min(Math.max(1, parseIntParam(params, "limit", 100)), 1000);
+                
+                JsonObject result;
+                if (params.containsKey("at")) {
+                    result = inventories.loadAt(uuid, Long.parseLong(params.get("at")));
+                } else if (params.containsKey("from") || params.containsKey("to")) {
+                    long from = params.containsKey("from") ? Long.parseLong(params.get("from")) : 0;
+                    long to = params.containsKey("to") ? Long.parseLong(params.get("to")) : System.currentTimeMillis();
+                    result = inventories.changesBetween(uuid, from, to, limit);
+                } else {
+                    result = inventories.timeline(uuid, limit);
+                }
+                
+                if (result == null) {
+                    sendError(exchange, 404, "No inventory recorded");
+                    return;
+                }
+                sendResponse(exchange, 200, Main.getInstance().getGson().toJson(result));
+            } catch (IllegalArgumentException e) {
+                // Also covers NumberFormatException
+                sendError(exchange, 400, "Invalid UUID or timestamp");
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Error getting inventory history", e);
+                sendError(exchange, 500, "Internal server error");
+            }
+        }
+    }
+    
+    /**
+     * Handler for statistic leaderboards built from the stats and advancements files
+     */
+    private class LeaderboardsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!validateAuth(exchange)) {
+                sendError(exchange, 401, "Unauthorized");
+                return;
+            }
+            
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            
+            try {
+                Map<String, String> params = parseQuery(exchange);
+                int limit = Math.min(Math.max(1, parseIntParam(params, "limit", 10)), StatisticsScanner.TOP_SIZE);
+                JsonObject result = Main.getInstance().getPlayerDataManager().getLeaderboards(params.get("stat"), limit);
+                if (result == null) {
+                    sendError(exchange, 400, "Unknown statistic");
+                    return;
+                }
+                sendResponse(exchange, 200, Main.getInstance().getGson().toJson(result));
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Error getting leaderboards", e);
+                sendError(exchange, 500, "Internal server error");
+            }
+        }
+    }
+    
+    /**
+     * Handler for session history and its aggregates; the range defaults to the last 7 days
+     */
+    private class SessionsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!validateAuth(exchange)) {
+                sendError(exchange, 401, "Unauthorized");
+                return;
+            }
+            
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            
+            try {
+                Map<String, String> params = parseQuery(exchange);
+                SessionStore sessions = Main.getInstance().getPlayerDataManager().getSessionStore();
+                long now = System.currentTimeMillis();
+                long to = params.containsKey("to") ? Math.min(Long.parseLong(params.get("to")), now) : now;
+                long from = params.containsKey("from") ? Long.parseLong(params.get("from")) : to - 7L * 24 * 60 * 60 * 1000;
+                if (from > to) {
+                    sendError(exchange, 400, "Invalid range");
+                    return;
+                }
+                
+                JsonObject result;
+                String view = params.getOrDefault("view", "sessions");
+                switch (view) {
+                    case "concurrency":
+                        result = sessions.concurrency(from, to);
+                        break;
+                    case "peak-hours":
+                        result = sessions.peakHours(from, to);
+                        break;
+                    case "daily":
+                        result = sessions.dailyActives(from, to);
+                        break;
+                    case "retention":
+                        result = sessions.retention(Math.min(Math.max(1, parseIntParam(params, "weeks", 12)), 520));
+                        break;
+                    case "sessions":
+                        UUID player = params.containsKey("uuid") ? UUID.fromString(params.get("uuid")) : null;
+                        int limit = Math.min(Math.max(1, parseIntParam(params, "limit", 100)), 10000);
+                        result = sessions.sessions(from, to, player, limit);
+                        break;
+                    default:
+                        sendError(exchange, 400, "Unknown view");
+                        return;
+                }
+                sendResponse(exchange, 200, Main.getInstance().getGson().toJson(result));
+            } catch (IllegalArgumentException e) {
+                // Also covers NumberFormatException
+                sendError(exchange, 400, "Invalid UUID or timestamp");
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Error getting session history", e);
+                sendError(exchange, 500, "Internal server error");
+            }
+        }
+    }
+    
+    // Column order of the CSV export
+    private static final String[] EXPORT_COLUMNS = {"uuid", "name", "online", "banned", "op", "whitelisted",
+            "lastSeen", "playTime", "inventoryItems", "inventoryTypes"};
+    
+    /**
+     * Handler for the bulk player export; rows are written as they are read, so memory use does not grow
+     * with the number of players
+     */
+    private class PlayerExportHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!validateAuth(exchange)) {
+                sendError(exchange, 401, "Unauthorized");
+                return;
+            }
+            
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            
+            Map<String, String> params = parseQuery(exchange);
+            String format = params.getOrDefault("format", "ndjson");
+            if (!"ndjson".equals(format) && !"csv".equals(format)) {
+                sendError(exchange, 400, "Unknown format: " + format);
+                return;
+            }
+            boolean csv = "csv".equals(format);
+            boolean includeInventory = !Boolean.FALSE.equals(parseBooleanParam(params, "inventory"));
+            
+            exchange.getResponseHeaders().set("Content-Type", csv ? "text/csv; charset=utf-8" : "application/x-ndjson");
+            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"players." + format + "\"");
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            // Length 0 selects chunked encoding; errors after this point can only cut the stream short
+            exchange.sendResponseHeaders(200, 0);
+            
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 1 << 16)) {
+                if (csv) {
+                    writer.write(String.join(",", EXPORT_COLUMNS));
+                    writer.write("\n");
+                }
+                Main.getInstance().getPlayerDataManager().exportPlayers(includeInventory, row -> {
+                    if (csv) {
+                        writeCsvRow(writer, row);
+                    } else {
+                        writer.write(row.toString());
+                        writer.write("\n");
+                    }
+                });
+            } catch (IOException e) {
+                // Usually the client went away
+                plugin.getLogger().fine("Player export aborted: " + e.getMessage());
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Error exporting players", e);
+            }
+        }
+        
+        private void writeCsvRow(Writer writer, JsonObject row) throws IOException {
+            for (int i = 0; i < EXPORT_COLUMNS.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                JsonElement value = row.get(EXPORT_COLUMNS[i]);
+                if (value == null || value.isJsonNull()) {
+                    continue;
+                }
+                String text = value.getAsString();
+                if (text.indexOf(',') >= 0 || text.indexOf('"') >= 0 || text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0) {
+                    writer.write('"');
+                    writer.write(text.replace("\"", "\"\""));
+                    writer.write('"');
+                } else {
+                    writer.write(text);
+                }
+            }
+            writer.write("\n");
+        }
+    }
+    
     // Individual player handler
     private class PlayerHandler implements HttpHandler {
         @Override
@@ -537,8 +1113,30 @@ public class APIServer {
             }
             
             try {
-                JsonObject logs = Main.getInstance().getPlayerDataManager().getConsoleLogs();
-                sendResponse(exchange, 200, Main.getInstance().getGson().toJson(logs));
+                Map<String, String> params = parseQuery(exchange);
+                LogFilter filter = LogFilter.fromParams(params);
+                // Matching lines are collected before streaming, so the page size is bounded like /api/logs/search
+                int limit = Math.max(1, Math.min(parseIntParam(params, "limit", 1000), 20000));
+                boolean records = Boolean.TRUE.equals(parseBooleanParam(params, "records"));
+                LogRingBuffer buffer = Main.getInstance().getPlayerDataManager().getConsoleLogBuffer();
+                List<LogBlockStore.Line> lines = Main.getInstance().getLogManager().getLogs(LogBlockStore.View.CONSOLE, filter, limit);
+                
+                sendJsonStream(exchange, json -> {
+                    json.name("logs").beginArray();
+                    for (LogBlockStore.Line line : lines) {
+                        if (records) {
+                            writeLogRecord(json, line);
+                        } else {
+                            json.value(line.consoleText());
+                        }
+                    }
+                    json.endArray();
+                    json.name("count").value(lines.size());
+                    json.name("dropped").value(buffer.getDropped());
+                });
+            } catch (IllegalArgumentException e) {
+                // Also covers NumberFormatException
+                sendError(exchange, 400, "Invalid filter: " + e.getMessage());
             } catch (Exception e) {
                 plugin.getLogger().log(Level.SEVERE, "Error getting console logs", e);
                 sendError(exchange, 500, "Internal server error");
@@ -881,8 +1479,28 @@ public class APIServer {
             }
             
             try {
-                JsonObject logs = Main.getInstance().getLogManager().getAllLogs();
-                sendResponse(exchange, 200, Main.getInstance().getGson().toJson(logs));
+                Map<String, String> params = parseQuery(exchange);
+                LogFilter filter = LogFilter.fromParams(params);
+                // Matching lines are collected before streaming, so the page size is bounded like /api/logs/search
+                int limit = Math.max(1, Math.min(parseIntParam(params, "limit", 5000), 20000));
+                boolean records = Boolean.TRUE.equals(parseBooleanParam(params, "records"));
+                List<LogBlockStore.Line> lines = Main.getInstance().getLogManager().getLogs(LogBlockStore.View.COMBINED, filter, limit);
+                
+                sendJsonStream(exchange, json -> {
+                    json.name("logs").beginArray();
+                    for (LogBlockStore.Line line : lines) {
+                        if (records) {
+                            writeLogRecord(json, line);
+                        } else {
+                            json.value(line.combinedText());
+                        }
+                    }
+                    json.endArray();
+                    json.name("count").value(lines.size());
+                });
+            } catch (IllegalArgumentException e) {
+                // Also covers NumberFormatException
+                sendError(exchange, 400, "Invalid filter: " + e.getMessage());
             } catch (Exception e) {
                 plugin.getLogger().log(Level.SEVERE, "Error getting logs", e);
                 sendError(exchange, 500, "Internal server error");
@@ -890,6 +1508,116 @@ public class APIServer {
         }
     }
     
+    // Search over all combined log segments, not just the lines kept in memory
+    private class LogSearchHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!validateAuth(exchange)) {
+                sendError(exchange, 401, "Unauthorized");
+                return;
+            }
+            
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            
+            try {
+                Map<String, String> params = parseQuery(exchange);
+                String query = params.getOrDefault("q", "");
+                long from = params.containsKey("from") ? Long.parseLong(params.get("from")) : Long.MIN_VALUE;
+                long to = params.containsKey("to") ? Long.parseLong(params.get("to")) : Long.MAX_VALUE;
+                if (from > to) {
+                    sendError(exchange, 400, "from must not be after to");
+                    return;
+                }
+                int limit = Math.max(1, Math.min(parseIntParam(params, "limit", 1000), 100000));
+                LogSearchIndex index = Main.getInstance().getLogManager().getSearchIndex();
+                
+                // Matches are written as they are found
+                sendJsonStream(exchange, json -> {
+                    json.name("matches").beginArray();
+                    LogSearchIndex.SearchStats stats = index.search(query, from, to, limit, json::value);
+                    json.endArray();
+                    json.name("count").value(stats.matches);
+                    json.name("truncated").value(stats.truncated);
+                    json.name("segmentsScanned").value(stats.segmentsScanned);
+                    json.name("segmentsSkipped").value(stats.segmentsSkipped);
+                });
+            } catch (IllegalArgumentException e) {
+                // Also covers NumberFormatException
+                sendError(exchange, 400, "Invalid timestamp");
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Error searching logs", e);
+                sendError(exchange, 500, "Internal server error");
+            }
+        }
+    }
+    
+    // Pages through the server's logs directory: latest.log backwards by byte offset, archives by line number
+    private class LogHistoryHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!validateAuth(exchange)) {
+                sendError(exchange, 401, "Unauthorized");
+                return;
+            }
+            
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            
+            try {
+                Map<String, String> params = parseQuery(exchange);
+                ServerLogReader reader = Main.getInstance().getLogManager().getServerLogReader();
+                
+                if (Boolean.TRUE.equals(parseBooleanParam(params, "list"))) {
+                    JsonArray files = new JsonArray();
+                    for (File file : reader.list()) {
+                        JsonObject entry = new JsonObject();
+                        entry.addProperty("name", file.getName());
+                        entry.addProperty("size", file.length());
+                        entry.addProperty("modified", file.lastModified());
+                        entry.addProperty("compressed", file.getName().endsWith(".gz"));
+                        files.add(entry);
+                    }
+                    JsonObject result = new JsonObject();
+                    result.add("files", files);
+                    sendResponse(exchange, 200, Main.getInstance().getGson().toJson(result));
+                    return;
+                }
+                
+                File file = reader.resolve(params.getOrDefault("file", "latest.log"));
+                if (!file.isFile()) {
+                    sendError(exchange, 404, "Log file not found");
+                    return;
+                }
+                long before = params.containsKey("before") ? Long.parseLong(params.get("before")) : -1;
+                int lines = Math.max(1, Math.min(parseIntParam(params, "lines", 200), 5000));
+                ServerLogReader.Page page = reader.read(file, before, lines);
+                
+                sendJsonStream(exchange, json -> {
+                    json.name("file").value(file.getName());
+                    json.name("lines").beginArray();
+                    for (String line : page.lines) {
+                        json.value(line);
+                    }
+                    json.endArray();
+                    json.name("offset").value(page.offset);
+                    json.name("hasMore").value(page.hasMore);
+                    json.name(file.getName().endsWith(".gz") ? "totalLines" : "size").value(page.size);
+                });
+            } catch (IllegalArgumentException e) {
+                // Also covers NumberFormatException
+                sendError(exchange, 400, e.getMessage());
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Error reading log history", e);
+                sendError(exchange, 500, "Internal server error");
+            }
+        }
+    }
+    
     // Files handler for file manager operations
     private class FilesHandler implements HttpHandler {
         @Override
@@ -935,14 +1663,14 @@ public class APIServer {
                         case "create":
                             String content = request.get("content").getAsString();
                             boolean isBase64 = request.has("isBase64") && request.get("isBase64").getAsBoolean();
-                            result = Main.getInstance().getFileManager().writeFile(path, content, isBase64);
+                            result = Main.getInstance().getFileManager().writeFile(path, content, isBase64, requestSource(exchange));
                             break;
                         case "rename":
                             String newName = request.get("newName").getAsString();
-                            result = Main.getInstance().getFileManager().renameFile(path, newName);
+                            result = Main.getInstance().getFileManager().renameFile(path, newName, requestSource(exchange));
                             break;
                         case "mkdir":
-                            result = Main.getInstance().getFileManager().createDirectory(path);
+                            result = Main.getInstance().getFileManager().createDirectory(path, requestSource(exchange));
                             break;
                         case "read":
                             result = Main.getInstance().getFileManager().readFile(path);
@@ -954,7 +1682,7 @@ public class APIServer {
                     
                     sendResponse(exchange, 200, Main.getInstance().getGson().toJson(result));
                 } else if ("DELETE".equals(method)) {
-                    JsonObject result = Main.getInstance().getFileManager().deleteFile(path);
+                    JsonObject result = Main.getInstance().getFileManager().deleteFile(path, requestSource(exchange));
                     sendResponse(exchange, 200, Main.getInstance().getGson().toJson(result));
                 } else {
                     sendError(exchange, 405, "Method not allowed");
@@ -967,35 +1695,14 @@ public class APIServer {
         
         private void handleFileDownload(HttpExchange exchange, String path) throws IOException {
             try {
-                JsonObject fileData = Main.getInstance().getFileManager().readFile(path);
-                
-                if (fileData.has("error")) {
-                    sendError(exchange, 404, fileData.get("error").getAsString());
+                Path file = Main.getInstance().getFileManager().resolveFile(path);
+                if (file == null) {
+                    sendError(exchange, 404, "File does not exist");
                     return;
                 }
                 
-                // Get file content
-                String content = fileData.get("content").getAsString();
-                boolean isBase64 = fileData.has("encoding") && 
-                                   fileData.get("encoding").getAsString().equals("base64");
-                
-                byte[] bytes;
-                if (isBase64) {
-                    bytes = Base64.getDecoder().decode(content);
-                } else {
-                    bytes = content.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-                }
-                
-                // Determine filename
-                String filename = path;
-                if (filename.contains("/")) {
-                    filename = filename.substring(filename.lastIndexOf("/") + 1);
-                }
-                if (filename.isEmpty()) {
-                    filename = "download";
-                }
-                
                 // Determine content type based on file extension
+                String filename = file.getFileName().toString();
                 String contentType = "application/octet-stream";
                 if (filename.endsWith(".txt")) {
                     contentType = "text/plain";
@@ -1011,17 +1718,18 @@ public class APIServer {
                     contentType = "text/plain";
                 }
                 
-                // Set headers
-                exchange.getResponseHeaders().set("Content-Type", contentType);
-                exchange.getResponseHeaders().set("Content-Disposition", 
-                    "attachment; filename=\"" + filename + "\"");
-                exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-                
-                // Send response
-                exchange.sendResponseHeaders(200, bytes.length);
-                OutputStream os = exchange.getResponseBody();
-                os.write(bytes);
-                os.close();
+                sendFile(exchange, file.toFile(), contentType);
+            } catch (SecurityException e) {
+                plugin.getLogger().warning("Security violation in download: " + e.getMessage());
+                sendError(exchange, 403, "Access denied: " + e.getMessage());
+            } catch (IOException e) {
+                if (exchange.getResponseCode() != -1) {
+                    // The client went away mid-transfer, which resumable downloads expect to happen
+                    exchange.close();
+                    return;
+                }
+                plugin.getLogger().log(Level.SEVERE, "Error downloading file", e);
+                sendError(exchange, 500, "Failed to download file");
             } catch (Exception e) {
                 plugin.getLogger().log(Level.SEVERE, "Error downloading file", e);
                 sendError(exchange, 500, "Failed to download file");
@@ -1029,23 +1737,137 @@ public class APIServer {
         }
     }
     
+    /**
+     * Handler for resumable uploads. POST /api/files/upload?path=...&offset=N streams the raw body into a
+     * temporary file; GET returns how many bytes have arrived so an interrupted upload can continue from there;
+     * POST with complete=true (and optionally sha256=...) verifies the file and moves it into place, after
+     * receiving the body first if an offset is given; DELETE discards the upload.
+     */
+    private class FileUploadHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!validateAuth(exchange)) {
+                sendError(exchange, 401, "Unauthorized");
+                return;
+            }
+            
+            Map<String, String> params = parseQuery(exchange);
+            String path = params.get("path");
+            if (path == null || path.isEmpty()) {
+                sendError(exchange, 400, "Missing path");
+                return;
+            }
+            FileManager fileManager = Main.getInstance().getFileManager();
+            
+            try {
+                JsonObject response;
+                switch (exchange.getRequestMethod()) {
+                    case "GET":
+                        response = new JsonObject();
+                        response.addProperty("offset", fileManager.getUploadOffset(path));
+                        break;
+                    case "POST":
+                        boolean complete = Boolean.TRUE.equals(parseBooleanParam(params, "complete"));
+                        // Data always needs an explicit offset, since receiving at 0 would discard what arrived
+                        if (!params.containsKey("offset") && !complete) {
+                            sendError(exchange, 400, "Missing offset");
+                            return;
+                        }
+                        long received = -1;
+                        if (params.containsKey("offset")) {
+                            try (InputStream body = exchange.getRequestBody()) {
+                                received = fileManager.receiveUpload(path, Long.parseLong(params.get("offset")), body);
+                            }
+                        }
+                        if (complete) {
+                            response = fileManager.completeUpload(path, params.get("sha256"), requestSource(exchange));
+                        } else {
+                            response = new JsonObject();
+                            response.addProperty("offset", received);
+                        }
+                        break;
+                    case "DELETE":
+                        response = new JsonObject();
+                        response.addProperty("success", fileManager.abortUpload(path));
+                        break;
+                    default:
+                        sendError(exchange, 405, "Method not allowed");
+                        return;
+                }
+                sendResponse(exchange, 200, Main.getInstance().getGson().toJson(response));
+            } catch (SecurityException e) {
+                plugin.getLogger().warning("Security violation in upload: " + e.getMessage());
+                sendError(exchange, 403, "Access denied: " + e.getMessage());
+            } catch (IllegalStateException e) {
+                // The client is ahead of what arrived; tell it where to continue
+                JsonObject error = new JsonObject();
+                error.addProperty("error", e.getMessage());
+                try {
+                    error.addProperty("offset", fileManager.getUploadOffset(path));
+                } catch (IOException offsetError) {
+                    // The client can still ask for the offset with GET
+                    plugin.getLogger().warning("Failed to read upload offset of " + path + ": " + offsetError.getMessage());
+                }
+                sendResponse(exchange, 409, Main.getInstance().getGson().toJson(error));
+            } catch (IllegalArgumentException e) {
+                // Also covers NumberFormatException
+                sendError(exchange, 400, e.getMessage());
+            } catch (IOException e) {
+                // Usually a dropped connection; what arrived is kept for the client to resume
+                plugin.getLogger().warning("Upload of " + path + " interrupted: " + e.getMessage());
+                sendError(exchange, 500, "Upload interrupted: " + e.getMessage());
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Error handling upload", e);
+                sendError(exchange, 500, "Internal server error");
+            }
+        }
+    }
+    
     /**
      * Handler for file changelog endpoint
      */
     private class FileChangelogHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
+            if (!validateAuth(exchange)) {
+                sendError(exchange, 401, "Unauthorized");
+                return;
+            }
+            
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            
             try {
-                if (!"GET".equals(exchange.getRequestMethod())) {
-                    sendError(exchange, 405, "Method not allowed");
-                    return;
-                }
-                
-                JsonArray entries = Main.getInstance().getFileManager().getChangeLogger().getEntries();
+                Map<String, String> params = parseQuery(exchange);
                 JsonObject response = new JsonObject();
-                response.add("entries", entries);
+                
+                // ?path=plugins&from=...&to=...&records=true answers what changed under a directory in a time range
+                if (params.containsKey("path") || params.containsKey("from") || params.containsKey("to")
+                        || Boolean.TRUE.equals(parseBooleanParam(params, "records"))) {
+                    long from = params.containsKey("from") ? Long.parseLong(params.get("from")) : Long.MIN_VALUE;
+                    long to = params.containsKey("to") ? Long.parseLong(params.get("to")) : Long.MAX_VALUE;
+                    int limit = Math.min(parseIntParam(params, "limit", 300), 5000);
+                    List<FileChangeLogger.Change> changes = Main.getInstance().getFileManager().getChangeLogger()
+                            .query(params.getOrDefault("path", ""), from, to, limit);
+                    
+                    JsonArray records = new JsonArray();
+                    JsonArray entries = new JsonArray();
+                    for (FileChangeLogger.Change change : changes) {
+                        records.add(change.toJson());
+                        entries.add(change.describe());
+                    }
+                    response.add("records", records);
+                    response.add("entries", entries);
+                } else {
+                    response.add("entries", Main.getInstance().getFileManager().getChangeLogger().getEntries());
+                }
                 
                 sendResponse(exchange, 200, Main.getInstance().getGson().toJson(response));
+            } catch (IllegalArgumentException e) {
+                // Also covers NumberFormatException
+                sendError(exchange, 400, e.getMessage());
             } catch (Exception e) {
                 plugin.getLogger().log(Level.SEVERE, "Error in FileChangelogHandler", e);
                 sendError(exchange, 500, "Internal server error");
@@ -1053,6 +1875,234 @@ public class APIServer {
         }
     }
 
+    /**
+     * Handler for captured lag spikes
+     */
+    private class LagSpikesHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!validateAuth(exchange)) {
+                sendError(exchange, 401, "Unauthorized");
+                return;
+            }
+            
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            
+            try {
+                Map<String, String> params = parseQuery(exchange);
+                
+                if (params.containsKey("id")) {
+                    JsonObject spike = Main.getInstance().getLagSpikeWatchdog().getSpike(Long.parseLong(params.get("id")));
+                    if (spike == null) {
+                        sendError(exchange, 404, "Spike not found");
+                        return;
+                    }
+                    sendResponse(exchange, 200, Main.getInstance().getGson().toJson(spike));
+                } else {
+                    int limit = parseIntParam(params, "limit", 50);
+                    JsonObject spikes = Main.getInstance().getLagSpikeWatchdog().getSpikes(limit);
+                    sendResponse(exchange, 200, Main.getInstance().getGson().toJson(spikes));
+                }
+            } catch (NumberFormatException e) {
+                sendError(exchange, 400, "Invalid spike ID");
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Error getting lag spikes", e);
+                sendError(exchange, 500, "Internal server error");
+            }
+        }
+    }
+
+    /**
+     * Handler for the sampling profiler
+     */
+    private class ProfilerHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!validateAuth(exchange)) {
+                sendError(exchange, 401, "Unauthorized");
+                return;
+            }
+            
+            try {
+                SamplingProfiler profiler = Main.getInstance().getSamplingProfiler();
+                String method = exchange.getRequestMethod();
+                
+                if ("GET".equals(method)) {
+                    Map<String, String> params = parseQuery(exchange);
+                    String format = params.getOrDefault("format", "status");
+                    
+                    switch (format) {
+                        case "folded":
+                            sendResponse(exchange, 200, "text/plain; charset=utf-8", profiler.exportFolded());
+                            break;
+                        case "tree":
+                            JsonObject tree = profiler.exportTree(parseIntParam(params, "minSamples", 1));
+                            sendResponse(exchange, 200, Main.getInstance().getGson().toJson(tree));
+                            break;
+                        default:
+                            sendResponse(exchange, 200, Main.getInstance().getGson().toJson(profiler.getStatus()));
+                    }
+                } else if ("POST".equals(method)) {
+                    String body = readRequestBody(exchange);
+                    JsonObject request = Main.getInstance().getGson().fromJson(body, JsonObject.class);
+                    String action = request.get("action").getAsString();
+                    
+                    if ("start".equals(action)) {
+                        int intervalMs = request.has("intervalMs") ? request.get("intervalMs").getAsInt() : 10;
+                        int durationSeconds = request.has("durationSeconds") ? request.get("durationSeconds").getAsInt() : 60;
+                        boolean allThreads = request.has("allThreads") && request.get("allThreads").getAsBoolean();
+                        
+                        if (!profiler.start(intervalMs, durationSeconds, allThreads)) {
+                            sendError(exchange, 409, "Profiler is already running");
+                            return;
+                        }
+                    } else if ("stop".equals(action)) {
+                        profiler.stop();
+                    } else {
+                        sendError(exchange, 400, "Unknown action: " + action);
+                        return;
+                    }
+                    
+                    sendResponse(exchange, 200, Main.getInstance().getGson().toJson(profiler.getStatus()));
+                } else {
+                    sendError(exchange, 405, "Method not allowed");
+                }
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Error handling profiler request", e);
+                sendError(exchange, 500, "Internal server error");
+            }
+        }
+    }
+
+    /**
+     * Handler for Java Flight Recorder recordings
+     */
+    private class FlightRecorderHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!validateAuth(exchange)) {
+                sendError(exchange, 401, "Unauthorized");
+                return;
+            }
+            
+            try {
+                FlightRecorderManager recorder = Main.getInstance().getFlightRecorderManager();
+                Map<String, String> params = parseQuery(exchange);
+                String method = exchange.getRequestMethod();
+                
+                if ("GET".equals(method)) {
+                    if (!params.containsKey("file")) {
+                        sendResponse(exchange, 200, Main.getInstance().getGson().toJson(recorder.listRecordings()));
+                        return;
+                    }
+                    
+                    File file = recorder.getRecordingFile(params.get("file"));
+                    if (file == null) {
+                        sendError(exchange, 404, "Recording not found");
+                        return;
+                    }
+                    
+                    if ("true".equals(params.get("summary"))) {
+                        sendResponse(exchange, 200, Main.getInstance().getGson().toJson(recorder.getSummary(file)));
+                    } else {
+                        sendFile(exchange, file, "application/octet-stream");
+                    }
+                } else if ("POST".equals(method)) {
+                    String body = readRequestBody(exchange);
+                    JsonObject request = Main.getInstance().getGson().fromJson(body, JsonObject.class);
+                    String action = request.get("action").getAsString();
+                    
+                    JsonObject result;
+                    if ("start".equals(action)) {
+                        String profile = request.has("profile") ? request.get("profile").getAsString() : "default";
+                        int durationSeconds = request.has("durationSeconds") ? request.get("durationSeconds").getAsInt() : 60;
+                        long maxSizeMb = request.has("maxSizeMb") ? request.get("maxSizeMb").getAsLong() : 0;
+                        result = recorder.startRecording(profile, durationSeconds, maxSizeMb);
+                    } else if ("stop".equals(action)) {
+                        result = recorder.stopRecording(request.get("id").getAsLong());
+                    } else {
+                        sendError(exchange, 400, "Unknown action: " + action);
+                        return;
+                    }
+                    
+                    sendResponse(exchange, result.has("error") ? 400 : 200, Main.getInstance().getGson().toJson(result));
+                } else if ("DELETE".equals(method)) {
+                    if (!recorder.deleteRecording(params.get("file"))) {
+                        sendError(exchange, 404, "Recording not found");
+                        return;
+                    }
+                    JsonObject response = new JsonObject();
+                    response.addProperty("success", true);
+                    sendResponse(exchange, 200, Main.getInstance().getGson().toJson(response));
+                } else {
+                    sendError(exchange, 405, "Method not allowed");
+                }
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Error handling JFR request", e);
+                sendError(exchange, 500, "Internal server error");
+            }
+        }
+    }
+
+    /**
+     * Handler for class histogram captures and heap growth diffs
+     */
+    private class HeapHistogramHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!validateAuth(exchange)) {
+                sendError(exchange, 401, "Unauthorized");
+                return;
+            }
+            
+            try {
+                HeapHistogramManager histograms = Main.getInstance().getHeapHistogramManager();
+                String method = exchange.getRequestMethod();
+                
+                if ("GET".equals(method)) {
+                    Map<String, String> params = parseQuery(exchange);
+                    if (!params.containsKey("from") && !params.containsKey("to")) {
+                        sendResponse(exchange, 200, Main.getInstance().getGson().toJson(histograms.listCaptures()));
+                        return;
+                    }
+                    
+                    // Missing ids default to the two newest captures
+                    long[] latest = histograms.latestPair();
+                    long from = params.containsKey("from") ? Long.parseLong(params.get("from")) : (latest != null ? latest[0] : -1);
+                    long to = params.containsKey("to") ? Long.parseLong(params.get("to")) : (latest != null ? latest[1] : -1);
+                    boolean byInstances = "instances".equals(params.get("sort"));
+                    
+                    JsonObject diff = histograms.diff(from, to, parseIntParam(params, "limit", 25), byInstances);
+                    if (diff == null) {
+                        sendError(exchange, 404, "Capture not found");
+                        return;
+                    }
+                    sendResponse(exchange, 200, Main.getInstance().getGson().toJson(diff));
+                } else if ("POST".equals(method)) {
+                    // The heap walk pauses the whole JVM, tick loop included, after a full GC so only live objects count;
+                    // ?live=false skips the GC but counts garbage too
+                    boolean live = !Boolean.FALSE.equals(parseBooleanParam(parseQuery(exchange), "live"));
+                    JsonObject capture = histograms.capture(live);
+                    sendResponse(exchange, 200, Main.getInstance().getGson().toJson(capture));
+                } else {
+                    sendError(exchange, 405, "Method not allowed");
+                }
+            } catch (NumberFormatException e) {
+                sendError(exchange, 400, "Invalid capture ID");
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+            } catch (IllegalStateException e) {
+                sendError(exchange, 429, e.getMessage());
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Error handling heap histogram request", e);
+                sendError(exchange, 500, "Internal server error");
+            }
+        }
+    }
+
     public void setApiKey(String apiKey) {
         this.apiKey = apiKey;
     }
@@ -1,116 +1,558 @@
 package dev.mccontrol.logger;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
-import dev.mccontrol.Main;
 import org.bukkit.plugin.Plugin;
 
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
- * Manages file operation logging with persistent storage
+ * Append-only journal of file operations. Each operation is one JSON line (time, action, path, size, hash,
+ * source) appended to the current segment in file-changelog/; segments roll over at 4 MB and the oldest are
+ * deleted once there are more than 16. An in-memory index maps every path to the time and position of its
+ * records, so a query for a directory and time range only reads the records it returns.
  */
 public class FileChangeLogger {
-    private final Plugin plugin;
-    private final File logFile;
-    private final LinkedList<String> logEntries;
     private static final int MAX_ENTRIES = 300;
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("dd/MM/yyyy HH:mm");
-    
+    private static final long SEGMENT_BYTES = 4L * 1024 * 1024;
+    private static final int MAX_SEGMENTS = 16;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("changes-(\\d+)\\.jsonl");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+
+    private final Plugin plugin;
+    private final File directory;
+    // Path to its records in append order; positions are segment number << 40 | byte offset
+    private final TreeMap<String, PathHistory> index = new TreeMap<>();
+    private final ArrayDeque<Integer> segments = new ArrayDeque<>();
+    private FileChannel current;
+    private long currentSize;
+    // Not reset by clear(), so a position taken by a running query never points into a newer segment
+    private int nextSegment;
+
     public FileChangeLogger(Plugin plugin) {
         this.plugin = plugin;
-        this.logFile = new File(plugin.getDataFolder(), "file-changelog.json");
-        this.logEntries = new LinkedList<>();
+        this.directory = new File(plugin.getDataFolder(), "file-changelog");
         loadLog();
     }
-    
+
     /**
-     * Loads the log from disk
+     * Indexes the existing segments and migrates the old file-changelog.json
      */
-    private void loadLog() {
-        if (!logFile.exists()) {
-            return;
-        }
-        
-        try (FileReader reader = new FileReader(logFile)) {
-            JsonArray array = Main.getInstance().getGson().fromJson(reader, JsonArray.class);
-            if (array != null) {
-                for (int i = 0; i < array.size() && i < MAX_ENTRIES; i++) {
-                    logEntries.add(array.get(i).getAsString());
+    private synchronized void loadLog() {
+        directory.mkdirs();
+        File[] files = directory.listFiles((dir, name) -> SEGMENT_NAME.matcher(name).matches());
+        List<Integer> numbers = new ArrayList<>();
+        for (File file : files != null ? files : new File[0]) {
+            Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+            matcher.matches();
+            numbers.add(Integer.parseInt(matcher.group(1)));
+        }
+        numbers.sort(null);
+
+        for (int i = 0; i < numbers.size(); i++) {
+            segments.addLast(numbers.get(i));
+            nextSegment = numbers.get(i) + 1;
+            try {
+                long validLength = indexSegment(numbers.get(i));
+                if (i == numbers.size() - 1) {
+                    openCurrent(numbers.get(i), validLength);
                 }
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to read file changelog segment " + numbers.get(i), e);
+            }
+        }
+
+        File legacyFile = new File(plugin.getDataFolder(), "file-changelog.json");
+        if (legacyFile.isFile() && segments.isEmpty()) {
+            migrate(legacyFile);
+        }
+    }
+
+    // Returns the length up to the last complete record
+    private long indexSegment(int number) throws IOException {
+        byte[] data = Files.readAllBytes(segmentFile(number).toPath());
+        int lineStart = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            try {
+                Change change = Change.fromJson(JsonParser.parseString(
+                        new String(data, lineStart, i - lineStart, StandardCharsets.UTF_8)).getAsJsonObject());
+                addToIndex(change, position(number, lineStart));
+            } catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+                plugin.getLogger().warning("Skipping malformed file changelog record in segment " + number);
+            }
+            lineStart = i + 1;
+        }
+        return lineStart;
+    }
+
+    // The old log was a JSON array of "[dd/MM/yyyy HH:mm] Action /path" strings, newest first
+    private void migrate(File legacyFile) {
+        try (FileReader reader = new FileReader(legacyFile)) {
+            JsonArray array = JsonParser.parseReader(reader).getAsJsonArray();
+            for (int i = array.size() - 1; i >= 0; i--) {
+                append(parseLegacy(array.get(i).getAsString()));
             }
+            Files.move(legacyFile.toPath(), new File(plugin.getDataFolder(), "file-changelog.json.migrated").toPath());
+            plugin.getLogger().info("Migrated " + array.size() + " file changelog entries");
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to migrate file changelog", e);
+        }
+    }
+
+    private static Change parseLegacy(String entry) {
+        long millis = 0;
+        String action = entry;
+        int close = entry.indexOf("] ");
+        if (entry.startsWith("[") && close > 0) {
+            try {
+                millis = LocalDateTime.parse(entry.substring(1, close), DATE_FORMAT)
+                        .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                action = entry.substring(close + 2);
+            } catch (DateTimeParseException e) {
+                // Keep the whole entry as the description
+            }
+        }
+
+        String[][] prefixes = {{"Write /", "write"}, {"Delete /", "delete"}, {"Create folder /", "mkdir"}, {"Upload /", "upload"}};
+        for (String[] prefix : prefixes) {
+            if (action.startsWith(prefix[0])) {
+                return new Change(millis, prefix[1], normalise(action.substring(prefix[0].length())), null, -1, null, null);
+            }
+        }
+        int to = action.lastIndexOf(" to ");
+        if (action.startsWith("Rename /") && to > 0) {
+            String path = normalise(action.substring("Rename /".length(), to));
+            int slash = path.lastIndexOf('/');
+            String target = (slash >= 0 ? path.substring(0, slash + 1) : "") + action.substring(to + 4);
+            return new Change(millis, "rename", path, target, -1, null, null);
+        }
+        return new Change(millis, "other", normalise(action), null, -1, null, null);
+    }
+
+    /**
+     * Appends a record of a file operation
+     * @param action write, upload, delete, rename or mkdir
+     * @param path Path relative to the server root
+     * @param target New path of a rename, otherwise null
+     * @param size Size in bytes, or -1 if not known
+     * @param sha256 Hex SHA-256 of the written content, or null
+     * @param source Who made the change, e.g. the client address
+     */
+    public void record(String action, String path, String target, long size, String sha256, String source) {
+        Change change = new Change(System.currentTimeMillis(), action, normalise(path),
+                target != null ? normalise(target) : null, size, sha256, source);
+        try {
+            append(change);
         } catch (IOException e) {
-            plugin.getLogger().log(Level.WARNING, "Failed to load file changelog", e);
+            plugin.getLogger().log(Level.SEVERE, "Failed to write file changelog", e);
         }
     }
-    
+
+    private synchronized void append(Change change) throws IOException {
+        if (current == null) {
+            int number = nextSegment++;
+            segments.addLast(number);
+            openCurrent(number, 0);
+        }
+        ByteBuffer line = ByteBuffer.wrap((change.toJson().toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        long offset = currentSize;
+        while (line.hasRemaining()) {
+            current.write(line);
+        }
+        currentSize += line.limit();
+        addToIndex(change, position(segments.peekLast(), offset));
+
+        if (currentSize >= SEGMENT_BYTES) {
+            rotate();
+        }
+    }
+
+    private void rotate() throws IOException {
+        current.close();
+        current = null;
+        while (segments.size() >= MAX_SEGMENTS) {
+            int oldest = segments.pollFirst();
+            Files.deleteIfExists(segmentFile(oldest).toPath());
+            pruneIndex(segments.peekFirst());
+        }
+        // The next segment is created on the next append
+    }
+
+    // Opens a segment for appending, cutting off a record torn by a crash
+    private void openCurrent(int number, long validLength) throws IOException {
+        current = FileChannel.open(segmentFile(number).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (current.size() > validLength) {
+            current.truncate(validLength);
+        }
+        current.position(validLength);
+        currentSize = validLength;
+    }
+
+    private void addToIndex(Change change, long position) {
+        index.computeIfAbsent(change.path, path -> new PathHistory()).add(change.millis, position);
+        if (change.target != null && !change.target.equals(change.path)) {
+            index.computeIfAbsent(change.target, path -> new PathHistory()).add(change.millis, position);
+        }
+    }
+
+    // Drops index entries of deleted segments; they are the oldest, so always at the start of each history
+    private void pruneIndex(int oldestSegment) {
+        long firstKept = position(oldestSegment, 0);
+        Iterator<PathHistory> iterator = index.values().iterator();
+        while (iterator.hasNext()) {
+            PathHistory history = iterator.next();
+            history.dropBefore(firstKept);
+            if (history.count == 0) {
+                iterator.remove();
+            }
+        }
+    }
+
     /**
-     * Saves the log to disk
+     * Gets the newest changes to a path or anything under it within a time range. Only the matching histories
+     * are taken under the lock; merging them and reading the records happens outside it.
+     * @param pathPrefix A file or directory relative to the server root; empty for everything
+     * @param limit Maximum number of changes
+     * @return Changes, newest first
      */
-    private synchronized void saveLog() {
+    public List<Change> query(String pathPrefix, long from, long to, int limit) throws IOException {
+        String prefix = normalise(pathPrefix);
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>();
+        synchronized (this) {
+            Collection<PathHistory> histories;
+            if (prefix.isEmpty()) {
+                histories = index.values();
+            } else {
+                histories = new ArrayList<>(index.subMap(prefix + "/", true, prefix + "0", false).values());
+                if (index.containsKey(prefix)) {
+                    histories.add(index.get(prefix));
+                }
+            }
+            for (PathHistory history : histories) {
+                if (history.count > 0) {
+                    cursors.add(new Cursor(history));
+                }
+            }
+        }
+
+        List<Change> result = new ArrayList<>();
+        Map<Integer, FileChannel> channels = new HashMap<>();
+        Set<Integer> deletedSegments = new HashSet<>();
         try {
-            // Ensure data folder exists
-            if (!plugin.getDataFolder().exists()) {
-                plugin.getDataFolder().mkdirs();
+            long previous = -1;
+            // Each history is in append order, so merging from their ends yields records newest first
+            while (!cursors.isEmpty() && result.size() < limit) {
+                Cursor cursor = cursors.poll();
+                long position = cursor.position();
+                long millis = cursor.millis();
+                if (cursor.previous()) {
+                    cursors.add(cursor);
+                }
+                // A rename under the prefix is indexed under both of its paths
+                if (position == previous || millis < from || millis > to) {
+                    continue;
+                }
+                previous = position;
+                int segment = (int) (position >>> 40);
+                FileChannel channel = channels.get(segment);
+                if (channel == null && !deletedSegments.contains(segment)) {
+                    try {
+                        channel = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.READ);
+                        channels.put(segment, channel);
+                    } catch (NoSuchFileException e) {
+                        // Rotated away or cleared since the snapshot
+                        deletedSegments.add(segment);
+                    }
+                }
+                if (channel != null) {
+                    result.add(readRecord(channel, position & ((1L << 40) - 1)));
+                }
+            }
+        } finally {
+            for (FileChannel channel : channels.values()) {
+                channel.close();
+            }
+        }
+        return result;
+    }
+
+    private static Change readRecord(FileChannel channel, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        long at = offset;
+        while (true) {
+            int read = channel.read(buffer, at);
+            int end = -1;
+            for (int i = 0; i < buffer.position(); i++) {
+                if (buffer.get(i) == '\n') {
+                    end = i;
+                    break;
+                }
             }
-            
-            JsonArray array = new JsonArray();
-            for (String entry : logEntries) {
-                array.add(new JsonPrimitive(entry));
+            if (end >= 0 || read < 0) {
+                int length = end >= 0 ? end : buffer.position();
+                return Change.fromJson(JsonParser.parseString(
+                        new String(buffer.array(), 0, length, StandardCharsets.UTF_8)).getAsJsonObject());
             }
-            
-            try (FileWriter writer = new FileWriter(logFile)) {
-                Main.getInstance().getGson().toJson(array, writer);
+            at += read;
+            if (!buffer.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
             }
-        } catch (IOException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to save file changelog", e);
         }
     }
-    
-    /**
-     * Adds a log entry
-     * @param action The action description (e.g., "Upload /plugins/test.jar")
-     */
-    public synchronized void addEntry(String action) {
-        String timestamp = DATE_FORMAT.format(new Date());
-        String entry = String.format("[%s] %s", timestamp, action);
-        
-        // Add to beginning of list (newest first)
-        logEntries.addFirst(entry);
-        
-        // Keep only last MAX_ENTRIES entries
-        while (logEntries.size() > MAX_ENTRIES) {
-            logEntries.removeLast();
-        }
-        
-        // Save to disk
-        saveLog();
-    }
-    
+
     /**
-     * Gets all log entries
-     * @return JsonArray of log entries
+     * Gets the newest log entries as "[dd/MM/yyyy HH:mm] Action /path" lines
+     * @return JsonArray of log entries, newest first
      */
-    public synchronized JsonArray getEntries() {
+    public JsonArray getEntries() {
         JsonArray array = new JsonArray();
-        for (String entry : logEntries) {
-            array.add(new JsonPrimitive(entry));
+        try {
+            for (Change change : query("", Long.MIN_VALUE, Long.MAX_VALUE, MAX_ENTRIES)) {
+                array.add(new JsonPrimitive(change.describe()));
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to read file changelog", e);
         }
         return array;
     }
-    
+
     /**
      * Clears all log entries
      */
     public synchronized void clear() {
-        logEntries.clear();
-        saveLog();
+        try {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            for (int number : segments) {
+                Files.deleteIfExists(segmentFile(number).toPath());
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to clear file changelog", e);
+        }
+        segments.clear();
+        index.clear();
+    }
+
+    public synchronized void close() {
+        try {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to close file changelog", e);
+        }
+    }
+
+    private File segmentFile(int number) {
+        return new File(directory, "changes-" + number + ".jsonl");
+    }
+
+    private static long position(int segment, long offset) {
+        return ((long) segment << 40) | offset;
+    }
+
+    private static String normalise(String path) {
+        if (path == null) {
+            return "";
+        }
+        String result = path.replace('\\', '/');
+        int start = 0;
+        int end = result.length();
+        while (start < end && result.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && result.charAt(end - 1) == '/') {
+            end--;
+        }
+        return result.substring(start, end);
+    }
+
+    // Walks one history backwards from the records it held when the query started
+    private static class Cursor implements Comparable<Cursor> {
+        // Appending never writes below count, and growing or pruning replaces the arrays, so these stay valid
+        private final long[] millis;
+        private final long[] positions;
+        private int at;
+
+        Cursor(PathHistory history) {
+            this.millis = history.millis;
+            this.positions = history.positions;
+            this.at = history.count - 1;
+        }
+
+        long position() {
+            return positions[at];
+        }
+
+        long millis() {
+            return millis[at];
+        }
+
+        boolean previous() {
+            return --at >= 0;
+        }
+
+        // Newest position first
+        @Override
+        public int compareTo(Cursor other) {
+            return Long.compare(other.position(), position());
+        }
+    }
+
+    private static class PathHistory {
+        long[] millis = new long[4];
+        long[] positions = new long[4];
+        int count;
+
+        void add(long time, long position) {
+            if (count == millis.length) {
+                millis = Arrays.copyOf(millis, count * 2);
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            millis[count] = time;
+            positions[count] = position;
+            count++;
+        }
+
+        void dropBefore(long position) {
+            int keepFrom = 0;
+            while (keepFrom < count && positions[keepFrom] < position) {
+                keepFrom++;
+            }
+            if (keepFrom > 0) {
+                millis = Arrays.copyOfRange(millis, keepFrom, Math.max(keepFrom + 4, count));
+                positions = Arrays.copyOfRange(positions, keepFrom, Math.max(keepFrom + 4, count));
+                count -= keepFrom;
+            }
+        }
+    }
+
+    /**
+     * One recorded file operation. Paths are relative to the server root; size is -1 and the hash and source
+     * are null when not known.
+     */
+    public static class Change {
+        public final long millis;
+        public final String action;
+        public final String path;
+        public final String target;
+        public final long size;
+        public final String sha256;
+        public final String source;
+
+        Change(long millis, String action, String path, String target, long size, String sha256, String source) {
+            this.millis = millis;
+            this.action = action;
+            this.path = path;
+            this.target = target;
+            this.size = size;
+            this.sha256 = sha256;
+            this.source = source;
+        }
+
+        /**
+         * The entry as the old changelog showed it, e.g. "[01/05/2024 18:30] Write /plugins/test.yml"
+         */
+        public String describe() {
+            String description;
+            switch (action) {
+                case "write":
+                    description = "Write /" + path;
+                    break;
+                case "upload":
+                    description = "Upload /" + path;
+                    break;
+                case "delete":
+                    description = "Delete /" + path;
+                    break;
+                case "mkdir":
+                    description = "Create folder /" + path;
+                    break;
+                case "rename":
+                    description = "Rename /" + path + " to " + (target != null ? target.substring(target.lastIndexOf('/') + 1) : "?");
+                    break;
+                default:
+                    description = path;
+            }
+            if (millis == 0) {
+                return description;
+            }
+            return "[" + DATE_FORMAT.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault())) + "] " + description;
+        }
+
+        public JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("time", millis);
+            json.addProperty("action", action);
+            json.addProperty("path", path);
+            if (target != null) {
+                json.addProperty("target", target);
+            }
+            if (size >= 0) {
+                json.addProperty("size", size);
+            }
+            if (sha256 != null) {
+                json.addProperty("sha256", sha256);
+            }
+            if (source != null) {
+                json.addProperty("source", source);
+            }
+            return json;
+        }
+
+        static Change fromJson(JsonObject json) {
+            if (!json.has("time") || !json.has("action") || !json.has("path")) {
+                throw new JsonParseException("Incomplete file changelog record");
+            }
+            return new Change(json.get("time").getAsLong(), json.get("action").getAsString(), json.get("path").getAsString(),
+                    string(json, "target"), json.has("size") ? json.get("size").getAsLong() : -1,
+                    string(json, "sha256"), string(json, "source"));
+        }
+
+        private static String string(JsonObject json, String key) {
+            JsonElement element = json.get(key);
+            return element != null && !element.isJsonNull() ? element.getAsString() : null;
+        }
     }
 }
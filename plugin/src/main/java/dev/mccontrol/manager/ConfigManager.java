@@ -18,6 +18,15 @@ import java.util.logging.Level;
 public class ConfigManager {
 
     private int pluginPort;
+    private long lagSpikeThresholdMs;
+    private int lagSpikeMaxEntries;
+    private boolean binaryInventoryStore;
+    private int inventoryHistoryDays;
+    private int logSegmentSizeMb;
+    private int logRetentionDays;
+    private int logMemoryLines;
+    private int logRepeatWindowSeconds;
+    private int maxUploadSizeMb;
     private final Plugin plugin;
     File pluginConfig;
 
@@ -31,6 +40,15 @@ public class ConfigManager {
         if(!pluginConfig.exists()){
             Properties props = new Properties();
             props.setProperty("port", "25575");
+            props.setProperty("lag-spike-threshold-ms", "150");
+            props.setProperty("lag-spike-max-entries", "200");
+            props.setProperty("inventory-store-format", "json");
+            props.setProperty("inventory-history-days", "30");
+            props.setProperty("log-segment-size-mb", "8");
+            props.setProperty("log-retention-days", "14");
+            props.setProperty("log-memory-lines", "100000");
+            props.setProperty("log-repeat-window-seconds", "5");
+            props.setProperty("max-upload-size-mb", "4096");
 
             try (FileOutputStream out = new FileOutputStream(pluginConfig)){
                 props.store(out,"MC Control Plugin Configuration");
@@ -40,6 +58,14 @@ public class ConfigManager {
             }
 
             pluginPort = 25575;
+            lagSpikeThresholdMs = 150;
+            lagSpikeMaxEntries = 200;
+            inventoryHistoryDays = 30;
+            logSegmentSizeMb = 8;
+            logRetentionDays = 14;
+            logMemoryLines = 100000;
+            logRepeatWindowSeconds = 5;
+            maxUploadSizeMb = 4096;
         }else {
 
             Properties props = new Properties();
@@ -50,6 +76,18 @@ public class ConfigManager {
                 plugin.getLogger().log(Level.SEVERE, "Failed to load configuration file", e);
                 pluginPort = 25575;
             }
+            lagSpikeThresholdMs = readLong(props, "lag-spike-threshold-ms", 150);
+            lagSpikeMaxEntries = (int) readLong(props, "lag-spike-max-entries", 200);
+            // "binary" stores inventory snapshots in a compact binary encoding instead of JSON
+            binaryInventoryStore = "binary".equalsIgnoreCase(props.getProperty("inventory-store-format", "json").trim());
+            inventoryHistoryDays = (int) readLong(props, "inventory-history-days", 30);
+            logSegmentSizeMb = (int) readLong(props, "log-segment-size-mb", 8);
+            logRetentionDays = (int) readLong(props, "log-retention-days", 14);
+            logMemoryLines = (int) readLong(props, "log-memory-lines", 100000);
+            // Identical console messages within this many seconds are collapsed into one line; 0 turns it off
+            logRepeatWindowSeconds = (int) readLong(props, "log-repeat-window-seconds", 5);
+            // Largest file accepted by resumable uploads; 0 removes the limit
+            maxUploadSizeMb = (int) readLong(props, "max-upload-size-mb", 4096);
         }
     }
 
@@ -105,9 +143,59 @@ public class ConfigManager {
 
 
 
+    // Optional settings fall back to their default when missing or malformed
+    private long readLong(Properties props, String key, long defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            plugin.getLogger().warning("Invalid value for " + key + " in plugin.config, using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
     public int getPluginPort() {
         return pluginPort;
     }
 
+    public long getLagSpikeThresholdMs() {
+        return lagSpikeThresholdMs;
+    }
+
+    public int getLagSpikeMaxEntries() {
+        return lagSpikeMaxEntries;
+    }
+
+    public boolean isBinaryInventoryStore() {
+        return binaryInventoryStore;
+    }
+
+    public int getInventoryHistoryDays() {
+        return inventoryHistoryDays;
+    }
+
+    public int getLogSegmentSizeMb() {
+        return logSegmentSizeMb;
+    }
+
+    public int getLogRetentionDays() {
+        return logRetentionDays;
+    }
+
+    public int getLogMemoryLines() {
+        return logMemoryLines;
+    }
+
+    public int getLogRepeatWindowSeconds() {
+        return logRepeatWindowSeconds;
+    }
+
+    public int getMaxUploadSizeMb() {
+        return maxUploadSizeMb;
+    }
+
 
 }
@@ -2,18 +2,28 @@ package dev.mccontrol.manager;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import dev.mccontrol.Main;
 import dev.mccontrol.logger.FileChangeLogger;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.Plugin;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.Base64;
 import java.util.Date;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 /**
@@ -25,6 +35,15 @@ public class FileManager {
     private final FileChangeLogger changeLogger;
     private static final long MAX_FILE_SIZE = 100 * 1024 * 1024; // 100MB
     private static final int CHUNK_SIZE = 8192;
+    private static final long UPLOAD_TRANSFER_BYTES = 1024 * 1024;
+    // Unfinished uploads are kept this long for the client to resume them
+    private static final long STALE_UPLOAD_MS = 7L * 24 * 60 * 60 * 1000;
+    // Uploads stop before the disk gets this full, so the server can still save worlds
+    private static final long UPLOAD_MIN_FREE_BYTES = 512L * 1024 * 1024;
+    private final Path uploadDir;
+    private final long maxUploadBytes;
+    // Held while an upload's part file is touched; complete and abort remove the entry
+    private final Map<String, Object> uploadLocks = new ConcurrentHashMap<>();
     
     // File extensions for text editing
     private static final Set<String> EDITABLE_EXTENSIONS = Set.of(
@@ -37,6 +56,10 @@ public class FileManager {
         // Bukkit.getWorldContainer() returns the directory where worlds are stored, which is the server root
         this.serverRoot = Bukkit.getWorldContainer().toPath().toAbsolutePath().normalize();
         this.changeLogger = new FileChangeLogger(plugin);
+        this.uploadDir = plugin.getDataFolder().toPath().resolve("uploads");
+        int maxUploadSizeMb = Main.getInstance().getConfigManager().getMaxUploadSizeMb();
+        this.maxUploadBytes = maxUploadSizeMb > 0 ? maxUploadSizeMb * 1024L * 1024L : Long.MAX_VALUE;
+        removeStaleUploads();
         
         plugin.getLogger().info("File Manager initialised with root: " + serverRoot.toString());
     }
@@ -80,6 +103,17 @@ public class FileManager {
         }
     }
     
+    /**
+     * Resolves a regular file for streaming, without the size limit of readFile
+     * @param requestedPath The path to the file (relative to server root)
+     * @return The file, or null if it does not exist or is a directory
+     * @throws SecurityException if path attempts to escape server directory
+     */
+    public Path resolveFile(String requestedPath) throws SecurityException {
+        Path targetPath = validatePath(requestedPath);
+        return Files.isRegularFile(targetPath) ? targetPath : null;
+    }
+    
     /**
      * Lists files and directories at the given path
      * @param requestedPath The path to list (relative to server root)
@@ -221,9 +255,10 @@ public class FileManager {
      * @param requestedPath The path to the file (relative to server root)
      * @param content The content to write
      * @param isBase64 Whether the content is base64 encoded
+     * @param source Who made the change, for the changelog
      * @return JsonObject indicating success or failure
      */
-    public JsonObject writeFile(String requestedPath, String content, boolean isBase64) {
+    public JsonObject writeFile(String requestedPath, String content, boolean isBase64, String source) {
         JsonObject response = new JsonObject();
         
         try {
@@ -259,7 +294,7 @@ public class FileManager {
             response.addProperty("message", "File written successfully");
             
             // Log the operation
-            changeLogger.addEntry("Write /" + requestedPath);
+            changeLogger.record("write", relativePath(targetPath), null, bytes.length, sha256(bytes), source);
             
         } catch (SecurityException e) {
             plugin.getLogger().warning("Security violation in writeFile: " + e.getMessage());
@@ -275,9 +310,10 @@ public class FileManager {
     /**
      * Deletes a file or directory
      * @param requestedPath The path to delete (relative to server root)
+     * @param source Who made the change, for the changelog
      * @return JsonObject indicating success or failure
      */
-    public JsonObject deleteFile(String requestedPath) {
+    public JsonObject deleteFile(String requestedPath, String source) {
         JsonObject response = new JsonObject();
         
         try {
@@ -295,6 +331,7 @@ public class FileManager {
             }
             
             // Delete file or directory
+            long size = Files.isRegularFile(targetPath) ? Files.size(targetPath) : -1;
             if (Files.isDirectory(targetPath)) {
                 // Delete directory recursively
                 deleteDirectoryRecursively(targetPath);
@@ -306,7 +343,7 @@ public class FileManager {
             response.addProperty("message", "Deleted successfully");
             
             // Log the operation
-            changeLogger.addEntry("Delete /" + requestedPath);
+            changeLogger.record("delete", relativePath(targetPath), null, size, null, source);
             
         } catch (SecurityException e) {
             plugin.getLogger().warning("Security violation in deleteFile: " + e.getMessage());
@@ -323,9 +360,10 @@ public class FileManager {
      * Renames a file or directory
      * @param requestedPath The current path (relative to server root)
      * @param newName The new name (just the name, not full path)
+     * @param source Who made the change, for the changelog
      * @return JsonObject indicating success or failure
      */
-    public JsonObject renameFile(String requestedPath, String newName) {
+    public JsonObject renameFile(String requestedPath, String newName, String source) {
         JsonObject response = new JsonObject();
         
         try {
@@ -365,7 +403,8 @@ public class FileManager {
             response.addProperty("newPath", serverRoot.relativize(newPath).toString().replace("\\", "/"));
             
             // Log the operation
-            changeLogger.addEntry("Rename /" + requestedPath + " to " + newName);
+            changeLogger.record("rename", relativePath(targetPath), relativePath(newPath),
+                    Files.isRegularFile(newPath) ? Files.size(newPath) : -1, null, source);
             
         } catch (SecurityException e) {
             plugin.getLogger().warning("Security violation in renameFile: " + e.getMessage());
@@ -381,9 +420,10 @@ public class FileManager {
     /**
      * Creates a new directory
      * @param requestedPath The path where to create the directory (relative to server root)
+     * @param source Who made the change, for the changelog
      * @return JsonObject indicating success or failure
      */
-    public JsonObject createDirectory(String requestedPath) {
+    public JsonObject createDirectory(String requestedPath, String source) {
         JsonObject response = new JsonObject();
         
         try {
@@ -400,7 +440,7 @@ public class FileManager {
             response.addProperty("message", "Directory created successfully");
             
             // Log the operation
-            changeLogger.addEntry("Create folder /" + requestedPath);
+            changeLogger.record("mkdir", relativePath(targetPath), null, -1, null, source);
             
         } catch (SecurityException e) {
             plugin.getLogger().warning("Security violation in createDirectory: " + e.getMessage());
@@ -413,8 +453,230 @@ public class FileManager {
         return response;
     }
     
+    /**
+     * Bytes of an unfinished upload received so far, 0 if there is none
+     * @throws SecurityException if path attempts to escape server directory
+     */
+    public long getUploadOffset(String requestedPath) throws IOException {
+        Path part = uploadPart(validatePath(requestedPath));
+        return Files.exists(part) ? Files.size(part) : 0;
+    }
+    
+    /**
+     * Streams a chunk of an upload into its temporary file. A chunk may start anywhere up to the bytes received
+     * so far; anything after its offset is replaced, and offset 0 starts the upload over.
+     * @param requestedPath The path the file will be moved to (relative to server root)
+     * @param offset Where the chunk starts in the file
+     * @param body The raw chunk
+     * @return Bytes received so far, including this chunk
+     * @throws IllegalStateException if offset is past the bytes received so far
+     * @throws IllegalArgumentException if the upload grows past the configured maximum, in which case it is discarded
+     * @throws IOException if the disk is nearly full; what arrived before is kept
+     * @throws SecurityException if path attempts to escape server directory
+     */
+    public long receiveUpload(String requestedPath, long offset, InputStream body) throws IOException {
+        Path targetPath = validatePath(requestedPath);
+        if (Files.isDirectory(targetPath)) {
+            throw new IllegalArgumentException("Path is a directory");
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Negative offset");
+        }
+        Path part = uploadPart(targetPath);
+        return withUploadLock(part, false, () -> {
+            Files.createDirectories(uploadDir);
+            FileStore store = Files.getFileStore(uploadDir);
+            boolean tooLarge = false;
+            long position = offset;
+            try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                if (offset > channel.size()) {
+                    throw new IllegalStateException("Upload has " + channel.size() + " bytes, cannot continue at " + offset);
+                }
+                channel.truncate(offset);
+                
+                // Bytes of a chunk cut off by a dropped connection stay, so the client can resume after them
+                ReadableByteChannel in = Channels.newChannel(body);
+                while (true) {
+                    long room = maxUploadBytes - position;
+                    if (room < 0) {
+                        tooLarge = true;
+                        break;
+                    }
+                    if (store.getUsableSpace() < UPLOAD_MIN_FREE_BYTES + UPLOAD_TRANSFER_BYTES) {
+                        throw new IOException("Not enough free disk space");
+                    }
+                    // One byte past the limit is enough to tell that the upload is too large
+                    long transferred = channel.transferFrom(in, position, room < UPLOAD_TRANSFER_BYTES ? room + 1 : UPLOAD_TRANSFER_BYTES);
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    position += transferred;
+                }
+            }
+            if (tooLarge) {
+                Files.delete(part);
+                throw new IllegalArgumentException("Upload exceeds the maximum of " + maxUploadBytes / (1024 * 1024) + " MB, upload discarded");
+            }
+            return position;
+        });
+    }
+    
+    /**
+     * Verifies a finished upload and moves it into place, backing up a file it replaces
+     * @param requestedPath The path to move the file to (relative to server root)
+     * @param expectedSha256 Hex SHA-256 of the whole file, or null to skip the check
+     * @param source Who made the change, for the changelog
+     * @return JsonObject with the path, size and SHA-256 of the stored file
+     * @throws IllegalArgumentException if there is no such upload, or its checksum does not match, in which case it is discarded
+     * @throws SecurityException if path attempts to escape server directory
+     */
+    public JsonObject completeUpload(String requestedPath, String expectedSha256, String source) throws IOException {
+        Path targetPath = validatePath(requestedPath);
+        Path part = uploadPart(targetPath);
+        return withUploadLock(part, true, () -> {
+            if (!Files.exists(part)) {
+                throw new IllegalArgumentException("No upload in progress for /" + relativePath(targetPath));
+            }
+            String sha256 = sha256(part);
+            if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(sha256)) {
+                Files.delete(part);
+                throw new IllegalArgumentException("Checksum mismatch, upload discarded (received " + sha256 + ")");
+            }
+            long size = Files.size(part);
+            try (FileChannel channel = FileChannel.open(part, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            
+            Path parent = targetPath.getParent();
+            if (parent != null && !Files.exists(parent)) {
+                Files.createDirectories(parent);
+            }
+            if (Files.isRegularFile(targetPath)) {
+                createBackup(targetPath);
+            }
+            moveIntoPlace(part, targetPath);
+            changeLogger.record("upload", relativePath(targetPath), null, size, sha256, source);
+            
+            JsonObject response = new JsonObject();
+            response.addProperty("success", true);
+            response.addProperty("path", relativePath(targetPath));
+            response.addProperty("size", size);
+            response.addProperty("sha256", sha256);
+            return response;
+        });
+    }
+    
+    /**
+     * Discards an unfinished upload
+     * @return Whether there was one
+     * @throws SecurityException if path attempts to escape server directory
+     */
+    public boolean abortUpload(String requestedPath) throws IOException {
+        Path part = uploadPart(validatePath(requestedPath));
+        return withUploadLock(part, true, () -> Files.deleteIfExists(part));
+    }
+    
     // Helper methods
     
+    // Named after the target path, so a resumed upload finds the bytes received so far
+    private Path uploadPart(Path targetPath) {
+        return uploadDir.resolve(sha256(relativePath(targetPath).getBytes(StandardCharsets.UTF_8)) + ".part");
+    }
+    
+    /**
+     * Runs an action holding the lock of an upload
+     * @param release Whether the upload is finished afterwards, so its lock entry can go
+     */
+    private <T> T withUploadLock(Path part, boolean release, UploadAction<T> action) throws IOException {
+        String key = part.getFileName().toString();
+        while (true) {
+            Object lock = uploadLocks.computeIfAbsent(key, name -> new Object());
+            synchronized (lock) {
+                // Released by a complete or abort while this request waited; a newer lock guards the upload now
+                if (uploadLocks.get(key) != lock) {
+                    continue;
+                }
+                try {
+                    return action.run();
+                } finally {
+                    if (release) {
+                        uploadLocks.remove(key, lock);
+                    }
+                }
+            }
+        }
+    }
+    
+    private interface UploadAction<T> {
+        T run() throws IOException;
+    }
+    
+    // Atomic when the upload directory and the target share a file system; otherwise the file is first copied next to the target
+    private void moveIntoPlace(Path part, Path targetPath) throws IOException {
+        try {
+            Files.move(part, targetPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Path sibling = targetPath.resolveSibling("." + targetPath.getFileName() + ".upload");
+            Files.copy(part, sibling, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(sibling, targetPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(part);
+        }
+    }
+    
+    private void removeStaleUploads() {
+        if (!Files.isDirectory(uploadDir)) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - STALE_UPLOAD_MS;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(uploadDir, "*.part")) {
+            for (Path part : stream) {
+                if (Files.getLastModifiedTime(part).toMillis() < cutoff) {
+                    Files.delete(part);
+                }
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to remove stale uploads: " + e.getMessage());
+        }
+    }
+    
+    private String relativePath(Path path) {
+        return serverRoot.relativize(path).toString().replace("\\", "/");
+    }
+    
+    private static String sha256(byte[] bytes) {
+        return toHex(newSha256().digest(bytes));
+    }
+    
+    private static String sha256(Path file) throws IOException {
+        MessageDigest digest = newSha256();
+        ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return toHex(digest.digest());
+    }
+    
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+    
     private void createBackup(Path file) {
         try {
             String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
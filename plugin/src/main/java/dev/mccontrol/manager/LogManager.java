@@ -1,103 +1,137 @@
 package dev.mccontrol.manager;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
 import dev.mccontrol.Main;
+import com.google.gson.JsonObject;
+import dev.randombytes.CombinedLogWriter;
+import dev.randombytes.ConsoleSpamFilter;
+import dev.randombytes.LogBlockStore;
+import dev.randombytes.LogFilter;
+import dev.randombytes.LogRingBuffer;
+import dev.randombytes.LogSearchIndex;
+import dev.randombytes.PlayerDataManager;
+import dev.randombytes.ServerLogReader;
 import org.bukkit.plugin.Plugin;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.util.Date;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.logging.Level;
 
 public class LogManager {
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     private final Plugin plugin;
-    private final File logsFile;
-    private final ConcurrentLinkedDeque<String> logs;
-    private static final int MAX_LOGS = 5000;
+    private final CombinedLogWriter writer;
+    private final LogSearchIndex searchIndex;
+    private final ServerLogReader serverLogReader;
+    // Console, chat and combined lines, each stored once
+    private final LogBlockStore store;
+    private final int memoryLines;
+    // Collapses repeated console messages and counts lines per logger
+    private final ConsoleSpamFilter spamFilter;
     
     public LogManager(Plugin plugin) {
         this.plugin = plugin;
-        this.logsFile = new File(plugin.getDataFolder(), "combined-logs.txt");
-        this.logs = new ConcurrentLinkedDeque<>();
+        ConfigManager config = Main.getInstance().getConfigManager();
+        this.writer = new CombinedLogWriter(plugin, new File(plugin.getDataFolder(), "combined-logs"),
+                config.getLogSegmentSizeMb() * 1024L * 1024L, config.getLogRetentionDays());
+        // A repeat summary is written up to one repeat window after its stamp, then waits for the next drain
+        // (250 ms); the rest covers main thread stalls and the writer queue
+        this.searchIndex = new LogSearchIndex(plugin, writer, config.getLogRepeatWindowSeconds() * 1000L + 250L + 5000L);
+        this.serverLogReader = new ServerLogReader(new File(org.bukkit.Bukkit.getWorldContainer(), "logs"));
+        this.memoryLines = config.getLogMemoryLines();
+        this.store = new LogBlockStore(memoryLines);
+        this.spamFilter = new ConsoleSpamFilter(config.getLogRepeatWindowSeconds() * 1000L);
         
         loadLogs();
+        writer.start();
+        
+        // Index segments sealed by rotation so searches can skip them
+        org.bukkit.Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, searchIndex::indexSealed, 200L, 6000L);
     }
     
     private void loadLogs() {
-        if (!logsFile.exists()) {
-            saveLogs();
-            return;
-        }
-        
-        try {
-            List<String> lines = Files.readAllLines(logsFile.toPath());
-            logs.clear();
-            // Keep only last 5000 lines
-            int start = Math.max(0, lines.size() - MAX_LOGS);
-            for (int i = start; i < lines.size(); i++) {
-                logs.add(lines.get(i));
-            }
-            plugin.getLogger().info("Loaded " + logs.size() + " log lines");
-        } catch (IOException e) {
-            plugin.getLogger().log(Level.WARNING, "Failed to load logs", e);
+        writer.migrate(new File(plugin.getDataFolder(), "combined-logs.txt"));
+        List<String> lines = writer.recoverTail(memoryLines);
+        for (String line : lines) {
+            store.add(parseCombinedLine(line));
         }
+        plugin.getLogger().info("Loaded " + lines.size() + " log lines");
     }
     
-    private void saveLogs() {
-        try {
-            // Ensure parent directory exists
-            logsFile.getParentFile().mkdirs();
-            
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(logsFile))) {
-                for (String log : logs) {
-                    writer.write(log);
-                    writer.newLine();
-                }
-            }
-        } catch (IOException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to save logs", e);
+    /**
+     * Adds a line such as "CHAT: ..."; the part before the first colon becomes the source
+     */
+    public void addLog(String logLine) {
+        long now = System.currentTimeMillis();
+        int colon = logLine.indexOf(": ");
+        if (colon > 0 && logLine.lastIndexOf(' ', colon - 1) < 0) {
+            add(new LogBlockStore.Line(now, logLine.substring(0, colon), null, null, null, logLine.substring(colon + 2), null));
+        } else {
+            add(new LogBlockStore.Line(now, null, null, null, null, logLine, null));
         }
     }
     
-    public void addLog(String logLine) {
-        // Add timestamp if not already present
-        String timestamp = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
-        String formattedLog = "[" + timestamp + "] " + logLine;
-        
-        logs.add(formattedLog);
-        
-        // Remove oldest log if we exceed max
-        if (logs.size() > MAX_LOGS) {
-            logs.removeFirst();
+    private void addConsoleRecord(LogRingBuffer.Entry entry) {
+        if (entry.threadName == null) {
+            // Pre-formatted lines (join/quit notices) duplicate the server's own messages, so they stay out of the combined log
+            store.add(new LogBlockStore.Line(entry.millis, LogBlockStore.NOTICE, null, null, null, entry.formatMessage(), null));
+            return;
         }
-        
-        // Save to file asynchronously
-        org.bukkit.Bukkit.getScheduler().runTaskAsynchronously(plugin, this::saveLogs);
+        add(new LogBlockStore.Line(entry.millis, LogBlockStore.CONSOLE, entry.level != null ? entry.level.getName() : null,
+                entry.loggerName, entry.threadName, entry.formatMessage(), entry.thrownText()));
     }
     
-    public JsonObject getAllLogs() {
-        JsonObject result = new JsonObject();
-        JsonArray logsArray = new JsonArray();
-        
-        for (String log : logs) {
-            logsArray.add(log);
-        }
-        
-        result.add("logs", logsArray);
-        result.addProperty("count", logs.size());
+    // The summary goes through the ring like any record, so it is stored and written in order with the rest
+    private static void publishRepeat(PlayerDataManager playerDataManager, ConsoleSpamFilter.Repeat repeat) {
+        java.util.logging.LogRecord last = repeat.last;
+        playerDataManager.getConsoleLogBuffer().publish(last.getMillis(), last.getLevel(), last.getLoggerName(),
+                repeat.summaryMessage(), last.getParameters(), null, repeat.threadName);
+    }
+    
+    private void add(LogBlockStore.Line line) {
+        store.add(line);
         
-        return result;
+        // Written in batches by the writer thread
+        writer.append(line.combinedText());
     }
-
+    
+    /**
+     * Gets the newest lines of a view matching the filter
+     * @param limit Maximum number of lines
+     * @return Matching lines, oldest first
+     */
+    public List<LogBlockStore.Line> getLogs(LogBlockStore.View view, LogFilter filter, int limit) {
+        return store.query(view, filter, limit);
+    }
+    
+    /**
+     * Console line and byte rates per logger, plus records lost before reaching the store or the log file
+     */
+    public JsonObject getLogRates() {
+        JsonObject rates = spamFilter.getRates();
+        PlayerDataManager playerDataManager = Main.getInstance().getPlayerDataManager();
+        rates.addProperty("consoleDropped", playerDataManager != null ? playerDataManager.getConsoleLogBuffer().getDropped() : 0);
+        rates.addProperty("writerDropped", writer.getDropped());
+        return rates;
+    }
+    
+    public LogSearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+    
+    public ServerLogReader getServerLogReader() {
+        return serverLogReader;
+    }
+    
     public void clear() {
-        logs.clear();
-        saveLogs();
+        store.clear();
+        writer.clear();
+    }
+    
+    public void close() {
+        writer.close();
     }
 
     public void attachConsoleLogHandler() {
@@ -105,17 +139,15 @@ public class LogManager {
         rootLogger.addHandler(new java.util.logging.Handler() {
             @Override
             public void publish(java.util.logging.LogRecord record) {
-                if (Main.getInstance().getPlayerDataManager() != null) {
-                    String timestamp = new java.text.SimpleDateFormat("HH:mm:ss").format(new java.util.Date(record.getMillis()));
-                    String threadName = record.getLoggerName().contains("Server") ? "Server thread" : Thread.currentThread().getName();
-                    String level = record.getLevel().getName();
-                    String message = record.getMessage();
-
-                    String formattedLog = String.format("[%s] [%s/%s]: %s",
-                            timestamp, threadName, level, message);
-
-                    Main.getInstance().getPlayerDataManager().addConsoleLog(formattedLog);
-                    addLog("CONSOLE: " + formattedLog);
+                PlayerDataManager playerDataManager = Main.getInstance().getPlayerDataManager();
+                if (playerDataManager != null) {
+                    // Only the raw record is kept here; formatting happens when the console is read or drained
+                    String threadName = record.getLoggerName() != null && record.getLoggerName().contains("Server")
+                            ? "Server thread" : Thread.currentThread().getName();
+                    // Repeats are collapsed before the ring, so a flood cannot push other records out of it
+                    if (spamFilter.offer(record, threadName, repeat -> publishRepeat(playerDataManager, repeat))) {
+                        playerDataManager.addConsoleRecord(record, threadName);
+                    }
                 }
             }
 
@@ -128,7 +160,50 @@ public class LogManager {
             public void close() throws SecurityException {
 
             }
-        })
-    ;}
+        });
+
+        // Copy console records into the log store off the logging thread; often, since the console view reads the store
+        org.bukkit.Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::drainConsoleLogs, 5L, 5L);
+    }
+
+    private void drainConsoleLogs() {
+        PlayerDataManager playerDataManager = Main.getInstance().getPlayerDataManager();
+        if (playerDataManager == null) {
+            return;
+        }
+        // Summaries of floods that have stopped are published first, so this drain stores them
+        spamFilter.flush(System.currentTimeMillis(), repeat -> publishRepeat(playerDataManager, repeat));
+        playerDataManager.getConsoleLogBuffer().drain(this::addConsoleRecord);
+    }
+
+    // "[yyyy-MM-dd HH:mm:ss] SOURCE: message", where CONSOLE messages are "[HH:mm:ss] [thread/LEVEL]: message"
+    private static LogBlockStore.Line parseCombinedLine(String text) {
+        if (text.length() < 22 || text.charAt(0) != '[' || text.charAt(20) != ']') {
+            return new LogBlockStore.Line(0, null, null, null, null, text, null);
+        }
+        long millis;
+        try {
+            millis = LocalDateTime.parse(text.substring(1, 20), TIMESTAMP_FORMAT)
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return new LogBlockStore.Line(0, null, null, null, null, text, null);
+        }
+        String rest = text.substring(22);
+        int colon = rest.indexOf(": ");
+        if (colon <= 0 || rest.lastIndexOf(' ', colon - 1) >= 0) {
+            return new LogBlockStore.Line(millis, null, null, null, null, rest, null);
+        }
+        String source = rest.substring(0, colon);
+        String message = rest.substring(colon + 2);
+        int headerEnd = message.indexOf("]: ");
+        int threadStart = message.indexOf("] [");
+        int slash = headerEnd > 0 ? message.lastIndexOf('/', headerEnd) : -1;
+        if (!LogBlockStore.CONSOLE.equals(source) || threadStart < 0 || slash < threadStart) {
+            return new LogBlockStore.Line(millis, source, null, null, null, message, null);
+        }
+        // The logger name is not part of the text, so it is unknown for recovered lines
+        return new LogBlockStore.Line(millis, source, message.substring(slash + 1, headerEnd), null,
+                message.substring(threadStart + 3, slash), message.substring(headerEnd + 3), null);
+    }
 
 }
@@ -0,0 +1,369 @@
+package dev.randombytes;
+
+import org.bukkit.plugin.Plugin;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Appends combined log lines to rotating segment files (combined-YYYY-MM-DD-N.log) from one background thread.
+ * Callers only enqueue; the writer takes everything queued at once, writes it as one batch and flushes when
+ * enough bytes are pending or a second has passed. Segments roll over at midnight and at a size limit and are
+ * deleted after the retention period.
+ */
+public class CombinedLogWriter {
+    private static final String PREFIX = "combined-";
+    private static final String SUFFIX = ".log";
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final int MAX_QUEUED_LINES = 100_000;
+    private static final int MAX_BATCH_LINES = 4096;
+    private static final int FLUSH_BYTES = 1 << 16;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    private final Plugin plugin;
+    private final File dir;
+    private final long maxSegmentBytes;
+    private final int retentionDays;
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>(MAX_QUEUED_LINES);
+    private final LongAdder dropped = new LongAdder();
+    private final Object fileLock = new Object();
+    private volatile boolean running;
+    private Thread writerThread;
+
+    // Guarded by fileLock
+    private OutputStream out;
+    private Segment current;
+    private long currentBytes;
+    private long pendingBytes;
+    private long lastFlush;
+
+    public CombinedLogWriter(Plugin plugin, File dir, long maxSegmentBytes, int retentionDays) {
+        this.plugin = plugin;
+        this.dir = dir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.retentionDays = retentionDays;
+    }
+
+    /**
+     * Moves the single file older versions rewrote in full into the segment directory, unless segments exist
+     */
+    public void migrate(File legacyFile) {
+        if (!legacyFile.isFile() || !segments().isEmpty()) {
+            return;
+        }
+        dir.mkdirs();
+        LocalDate day = LocalDate.ofInstant(Instant.ofEpochMilli(legacyFile.lastModified()), ZoneId.systemDefault());
+        try {
+            Files.move(legacyFile.toPath(), new File(dir, new Segment(day, 0).fileName()).toPath());
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to move " + legacyFile.getName() + " into " + dir.getName(), e);
+        }
+    }
+
+    /**
+     * Reads up to maxLines of the newest lines, oldest first, going back through older segments if needed
+     */
+    public List<String> recoverTail(int maxLines) {
+        List<File> files = segments();
+        List<String> result = new ArrayList<>();
+        for (int i = files.size() - 1; i >= 0 && result.size() < maxLines; i--) {
+            try {
+                List<String> lines = tailLines(files.get(i), maxLines - result.size());
+                lines.addAll(result);
+                result = lines;
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to read log segment " + files.get(i).getName(), e);
+            }
+        }
+        return result;
+    }
+
+    public void start() {
+        running = true;
+        writerThread = new Thread(this::writeLoop, "MCControl-LogWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues a line; never blocks. Lines are dropped and counted if the writer is far behind.
+     */
+    public void append(String line) {
+        if (!queue.offer(line)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Writes everything still queued and closes the current segment
+     */
+    public void close() {
+        running = false;
+        if (writerThread != null) {
+            writerThread.interrupt();
+            try {
+                writerThread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (fileLock) {
+            List<String> rest = new ArrayList<>();
+            queue.drainTo(rest);
+            try {
+                write(rest);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to write combined log", e);
+            }
+            closeSegment();
+        }
+    }
+
+    /**
+     * Deletes all segments and anything not written yet
+     */
+    public void clear() {
+        synchronized (fileLock) {
+            queue.clear();
+            closeSegment();
+            for (File file : segments()) {
+                if (!file.delete()) {
+                    plugin.getLogger().warning("Could not delete log segment " + file.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Segment files, oldest first
+     */
+    public List<File> segments() {
+        File[] files = dir.listFiles((d, name) -> Segment.parse(name) != null);
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        List<File> result = new ArrayList<>(Arrays.asList(files));
+        result.sort(Comparator.comparing(file -> Segment.parse(file.getName())));
+        return result;
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>(MAX_BATCH_LINES);
+        while (running || !queue.isEmpty()) {
+            try {
+                String first = queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH_LINES - 1);
+                }
+            } catch (InterruptedException e) {
+                // close() interrupts to stop waiting; the loop ends once the queue is empty
+            }
+            synchronized (fileLock) {
+                try {
+                    write(batch);
+                    long now = System.currentTimeMillis();
+                    if (out != null && pendingBytes > 0
+                            && (pendingBytes >= FLUSH_BYTES || now - lastFlush >= FLUSH_INTERVAL_MS)) {
+                        out.flush();
+                        pendingBytes = 0;
+                        lastFlush = now;
+                    }
+                } catch (IOException e) {
+                    plugin.getLogger().log(Level.WARNING, "Failed to write combined log", e);
+                    // Reopen on the next batch rather than keep writing to a broken stream
+                    closeSegment();
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void write(List<String> lines) throws IOException {
+        if (lines.isEmpty()) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        for (String line : lines) {
+            if (out == null || !today.equals(current.day) || currentBytes >= maxSegmentBytes) {
+                roll(today);
+            }
+            byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            out.write(bytes);
+            currentBytes += bytes.length;
+            pendingBytes += bytes.length;
+        }
+    }
+
+    private void roll(LocalDate today) throws IOException {
+        dir.mkdirs();
+        Segment next;
+        if (out != null) {
+            closeSegment();
+            next = today.equals(current.day) ? new Segment(today, current.index + 1) : new Segment(today, 0);
+        } else {
+            // First write since start: continue the newest segment if it is still today's and has room
+            List<File> files = segments();
+            File latest = files.isEmpty() ? null : files.get(files.size() - 1);
+            Segment latestSegment = latest != null ? Segment.parse(latest.getName()) : null;
+            if (latestSegment != null && latestSegment.day.equals(today) && latest.length() < maxSegmentBytes) {
+                next = latestSegment;
+            } else if (latestSegment != null && latestSegment.day.equals(today)) {
+                next = new Segment(today, latestSegment.index + 1);
+            } else {
+                next = new Segment(today, 0);
+            }
+        }
+
+        File file = new File(dir, next.fileName());
+        boolean tornTail = endsWithoutNewline(file);
+        out = new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16);
+        current = next;
+        currentBytes = file.length();
+        if (tornTail) {
+            // A crash mid-line left a partial line; end it so the next line starts clean
+            out.write('\n');
+            currentBytes++;
+        }
+        lastFlush = System.currentTimeMillis();
+        deleteExpired(today);
+    }
+
+    private void closeSegment() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to close log segment", e);
+        }
+        out = null;
+        pendingBytes = 0;
+    }
+
+    private void deleteExpired(LocalDate today) {
+        if (retentionDays <= 0) {
+            return;
+        }
+        LocalDate cutoff = today.minusDays(retentionDays);
+        for (File file : segments()) {
+            Segment segment = Segment.parse(file.getName());
+            if (segment.day.isBefore(cutoff) && !file.delete()) {
+                plugin.getLogger().warning("Could not delete expired log segment " + file.getName());
+            }
+        }
+    }
+
+    private static boolean endsWithoutNewline(File file) throws IOException {
+        if (!file.isFile() || file.length() == 0) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(raf.length() - 1);
+            return raf.read() != '\n';
+        }
+    }
+
+    // Finds where the last maxLines lines start by scanning backwards, then reads only that part
+    private static List<String> tailLines(File file, int maxLines) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long end = raf.length();
+            long start = 0;
+            long position = end;
+            int newlines = 0;
+            byte[] buffer = new byte[1 << 16];
+            scan:
+            while (position > 0) {
+                int n = (int) Math.min(buffer.length, position);
+                position -= n;
+                raf.seek(position);
+                raf.readFully(buffer, 0, n);
+                for (int i = n - 1; i >= 0; i--) {
+                    // The newline ending the last line does not separate it from anything
+                    if (buffer[i] == '\n' && position + i != end - 1 && ++newlines == maxLines) {
+                        start = position + i + 1;
+                        break scan;
+                    }
+                }
+            }
+            byte[] data = new byte[(int) (end - start)];
+            raf.seek(start);
+            raf.readFully(data);
+            String text = new String(data, StandardCharsets.UTF_8);
+            int lineStart = 0;
+            while (lineStart < text.length()) {
+                int lineEnd = text.indexOf('\n', lineStart);
+                if (lineEnd < 0) {
+                    lineEnd = text.length();
+                }
+                lines.add(text.substring(lineStart, lineEnd));
+                lineStart = lineEnd + 1;
+            }
+        }
+        return lines;
+    }
+
+    private static class Segment implements Comparable<Segment> {
+        final LocalDate day;
+        final int index;
+
+        Segment(LocalDate day, int index) {
+            this.day = day;
+            this.index = index;
+        }
+
+        String fileName() {
+            return PREFIX + DAY_FORMAT.format(day) + "-" + index + SUFFIX;
+        }
+
+        // combined-2024-05-01-3.log; null for anything else
+        static Segment parse(String name) {
+            if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+                return null;
+            }
+            String body = name.substring(PREFIX.length(), name.length() - SUFFIX.length());
+            int dash = body.lastIndexOf('-');
+            if (dash != 10) {
+                return null;
+            }
+            try {
+                return new Segment(LocalDate.parse(body.substring(0, dash), DAY_FORMAT),
+                        Integer.parseInt(body.substring(dash + 1)));
+            } catch (DateTimeParseException | NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public int compareTo(Segment other) {
+            int byDay = day.compareTo(other.day);
+            return byDay != 0 ? byDay : Integer.compare(index, other.index);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package dev.randombytes;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Collapses console spam and accounts log volume per logger. A record repeating the previous message of its
+ * logger (same level, message, parameters and exception type) within the repeat window is only counted; when
+ * the window ends or the logger says something else, one summary record carries the repeat count. Lines and
+ * bytes are counted per logger, repeats included, in one-second buckets over the last minute.
+ * <p>
+ * offer() runs on the logging threads before a record reaches the console ring, so a flood neither fills the
+ * ring nor gets formatted; it compares the raw message and parameters and counts the UTF-8 bytes of the raw
+ * message. Each logger's state has its own lock, so offer(), flush() and getRates() may run on any thread.
+ * A logging thread never waits for that lock: when another thread holds it, the record is only counted and
+ * passes through uncollapsed, so a busy logger (or the shared bucket of surplus loggers) cannot serialise
+ * every thread that logs through it.
+ */
+public class ConsoleSpamFilter {
+    private static final int RATE_SECONDS = 60;
+    // Loggers beyond this are accounted together, so generated logger names cannot grow the map without bound
+    private static final int MAX_LOGGERS = 512;
+    private static final String OTHER_LOGGERS = "(other)";
+
+    private final long windowMillis;
+    private final Map<String, LoggerState> loggers = new ConcurrentHashMap<>();
+
+    /**
+     * @param windowMillis How long repeats of a message are collapsed; 0 disables collapsing
+     */
+    public ConsoleSpamFilter(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Accounts a record and decides whether it is stored
+     * @param threadName The thread the record is attributed to
+     * @param repeats Receives the summary of earlier repeats this record ends
+     * @return false if the record repeats the previous message of its logger and was collapsed
+     */
+    public boolean offer(LogRecord record, String threadName, Consumer<Repeat> repeats) {
+        LoggerState state = stateFor(record.getLoggerName() != null ? record.getLoggerName() : "");
+        String message = record.getMessage() != null ? record.getMessage() : "";
+        Object[] parameters = record.getParameters();
+        String thrownType = record.getThrown() != null ? record.getThrown().getClass().getName() : null;
+        long millis = record.getMillis();
+        int bytes = utf8Length(message);
+        if (!state.lock.tryLock()) {
+            state.missedLines.increment();
+            state.missedBytes.add(bytes);
+            return true;
+        }
+        try {
+            state.account(millis, bytes);
+            if (windowMillis <= 0) {
+                return true;
+            }
+            if (message.equals(state.message) && Arrays.equals(parameters, state.parameters) && record.getLevel() == state.level
+                    && Objects.equals(thrownType, state.thrownType) && millis - state.windowStart < windowMillis) {
+                state.repeats++;
+                state.collapsed++;
+                state.lastRepeat = record;
+                state.lastThread = threadName;
+                return false;
+            }
+            Repeat summary = state.takeRepeats();
+            state.message = message;
+            state.parameters = parameters;
+            state.level = record.getLevel();
+            state.thrownType = thrownType;
+            state.windowStart = millis;
+            if (summary != null) {
+                repeats.accept(summary);
+            }
+            return true;
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    /**
+     * Emits the summaries of repeat windows that have ended, so a flood that stops is still reported
+     */
+    public void flush(long now, Consumer<Repeat> repeats) {
+        for (LoggerState state : loggers.values()) {
+            Repeat summary;
+            state.lock.lock();
+            try {
+                if (state.repeats == 0 || now - state.windowStart < windowMillis) {
+                    continue;
+                }
+                summary = state.takeRepeats();
+                // The next occurrence starts a new window and is stored again
+                state.message = null;
+                state.parameters = null;
+            } finally {
+                state.lock.unlock();
+            }
+            repeats.accept(summary);
+        }
+    }
+
+    /**
+     * Per-logger totals and rates over the last minute, busiest first by bytes per second
+     */
+    public JsonObject getRates() {
+        long nowSecond = System.currentTimeMillis() / 1000;
+        List<JsonObject> rows = new ArrayList<>();
+        for (Map.Entry<String, LoggerState> entry : loggers.entrySet()) {
+            LoggerState state = entry.getValue();
+            JsonObject row = new JsonObject();
+            state.lock.lock();
+            try {
+                state.drainMissed(nowSecond * 1000);
+                long recentLines = 0;
+                long recentBytes = 0;
+                for (int i = 0; i < RATE_SECONDS; i++) {
+                    if (state.bucketSecond[i] > nowSecond - RATE_SECONDS && state.bucketSecond[i] <= nowSecond) {
+                        recentLines += state.bucketLines[i];
+                        recentBytes += state.bucketBytes[i];
+                    }
+                }
+                row.addProperty("logger", entry.getKey());
+                row.addProperty("linesPerSecond", recentLines / (double) RATE_SECONDS);
+                row.addProperty("bytesPerSecond", recentBytes / (double) RATE_SECONDS);
+                row.addProperty("lines", state.lines);
+                row.addProperty("bytes", state.bytes);
+                row.addProperty("collapsed", state.collapsed);
+            } finally {
+                state.lock.unlock();
+            }
+            rows.add(row);
+        }
+        rows.sort((a, b) -> Double.compare(b.get("bytesPerSecond").getAsDouble(), a.get("bytesPerSecond").getAsDouble()));
+
+        JsonArray array = new JsonArray();
+        rows.forEach(array::add);
+        JsonObject result = new JsonObject();
+        result.addProperty("rateWindowSeconds", RATE_SECONDS);
+        result.addProperty("repeatWindowMs", windowMillis);
+        result.add("loggers", array);
+        return result;
+    }
+
+    private LoggerState stateFor(String loggerName) {
+        LoggerState state = loggers.get(loggerName);
+        if (state != null) {
+            return state;
+        }
+        if (loggers.size() >= MAX_LOGGERS) {
+            return loggers.computeIfAbsent(OTHER_LOGGERS, name -> new LoggerState());
+        }
+        return loggers.computeIfAbsent(loggerName, name -> new LoggerState());
+    }
+
+    /**
+     * Length of the string encoded as UTF-8, without encoding it
+     */
+    private static int utf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Repeats of a message collapsed within one window
+     */
+    public static class Repeat {
+        // The last collapsed record, for its time, level, logger, message and parameters
+        public final LogRecord last;
+        public final String threadName;
+        public final int count;
+        public final long sinceMillis;
+
+        Repeat(LogRecord last, String threadName, int count, long sinceMillis) {
+            this.last = last;
+            this.threadName = threadName;
+            this.count = count;
+            this.sinceMillis = sinceMillis;
+        }
+
+        /**
+         * The raw message followed by how often it was repeated, e.g. "message (repeated 1200 times in 5s)".
+         * The suffix holds no format characters, so the record's parameters still fill in the message.
+         */
+        public String summaryMessage() {
+            long seconds = Math.max(1, (last.getMillis() - sinceMillis + 999) / 1000);
+            String message = last.getMessage() != null ? last.getMessage() : "";
+            return message + " (repeated " + count + (count == 1 ? " time" : " times") + " in " + seconds + "s)";
+        }
+    }
+
+    private static class LoggerState {
+        final ReentrantLock lock = new ReentrantLock();
+        // Records that found the lock taken, folded into the totals by the next holder
+        final LongAdder missedLines = new LongAdder();
+        final LongAdder missedBytes = new LongAdder();
+
+        String message;
+        Object[] parameters;
+        Level level;
+        String thrownType;
+        long windowStart;
+        int repeats;
+        LogRecord lastRepeat;
+        String lastThread;
+
+        long lines;
+        long bytes;
+        long collapsed;
+        final long[] bucketSecond = new long[RATE_SECONDS];
+        final long[] bucketLines = new long[RATE_SECONDS];
+        final long[] bucketBytes = new long[RATE_SECONDS];
+
+        void account(long millis, int length) {
+            drainMissed(millis);
+            add(millis, 1, length);
+        }
+
+        void drainMissed(long millis) {
+            long missed = missedLines.sumThenReset();
+            if (missed > 0) {
+                add(millis, missed, missedBytes.sumThenReset());
+            }
+        }
+
+        private void add(long millis, long count, long length) {
+            lines += count;
+            bytes += length;
+            long second = millis / 1000;
+            int slot = (int) Math.floorMod(second, (long) RATE_SECONDS);
+            if (bucketSecond[slot] != second) {
+                bucketSecond[slot] = second;
+                bucketLines[slot] = 0;
+                bucketBytes[slot] = 0;
+            }
+            bucketLines[slot] += count;
+            bucketBytes[slot] += length;
+        }
+
+        Repeat takeRepeats() {
+            if (repeats == 0) {
+                return null;
+            }
+            Repeat summary = new Repeat(lastRepeat, lastThread, repeats, windowStart);
+            repeats = 0;
+            lastRepeat = null;
+            lastThread = null;
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package dev.randombytes;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Controls Java Flight Recorder recordings and summarises finished recordings
+ */
+public class FlightRecorderManager {
+    private static final int MAX_RECORDINGS_ON_DISK = 10;
+    private static final int MAX_DURATION_SECONDS = 3600;
+    private static final long DEFAULT_MAX_SIZE_MB = 256;
+    private static final int TOP_N = 20;
+
+    private final Plugin plugin;
+    private final File recordingsDir;
+    private final Map<Long, Recording> activeRecordings;
+    private final Map<String, CachedSummary> summaryCache;
+
+    public FlightRecorderManager(Plugin plugin) {
+        this.plugin = plugin;
+        this.recordingsDir = new File(plugin.getDataFolder(), "jfr");
+        this.activeRecordings = new ConcurrentHashMap<>();
+        this.summaryCache = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Starts a recording that is written to the plugin's jfr folder when it stops
+     * @param profile JFR configuration name ("default" or "profile")
+     * @param durationSeconds Recording length; the recording stops and dumps itself afterwards
+     * @param maxSizeMb Upper bound for the on-disk recording size
+     * @return JsonObject describing the recording or containing an error
+     */
+    public JsonObject startRecording(String profile, int durationSeconds, long maxSizeMb) {
+        JsonObject response = new JsonObject();
+
+        try {
+            Configuration configuration = Configuration.getConfiguration(profile);
+
+            if (!recordingsDir.exists()) {
+                recordingsDir.mkdirs();
+            }
+            pruneOldRecordings();
+
+            String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+            Recording recording = new Recording(configuration);
+            // The recording id keeps names unique even for recordings started in the same millisecond
+            Path destination = new File(recordingsDir,
+                    "recording-" + timestamp + "-" + recording.getId() + "-" + profile + ".jfr").toPath();
+
+            recording.setName("MC Control " + timestamp);
+            recording.setToDisk(true);
+            recording.setDuration(Duration.ofSeconds(Math.min(Math.max(1, durationSeconds), MAX_DURATION_SECONDS)));
+            recording.setMaxSize(Math.max(1, maxSizeMb > 0 ? maxSizeMb : DEFAULT_MAX_SIZE_MB) * 1024 * 1024);
+            recording.setDestination(destination);
+            recording.start();
+
+            activeRecordings.put(recording.getId(), recording);
+            plugin.getLogger().info("Started JFR recording " + recording.getId() + " (" + profile + ") -> " + destination.getFileName());
+
+            response.addProperty("success", true);
+            response.add("recording", describe(recording));
+        } catch (ParseException e) {
+            response.addProperty("error", "Invalid JFR profile: " + profile);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to start JFR recording", e);
+            response.addProperty("error", "Failed to start recording: " + e.getMessage());
+        } catch (IllegalStateException | SecurityException e) {
+            response.addProperty("error", "Flight Recorder is not available: " + e.getMessage());
+        }
+
+        return response;
+    }
+
+    /**
+     * Stops a running recording, which writes it to its destination file
+     */
+    public JsonObject stopRecording(long id) {
+        JsonObject response = new JsonObject();
+        Recording recording = activeRecordings.remove(id);
+
+        if (recording == null) {
+            response.addProperty("error", "Recording not found");
+            return response;
+        }
+
+        try {
+            if (recording.getState() == RecordingState.RUNNING) {
+                recording.stop();
+            }
+            response.addProperty("success", true);
+            response.add("recording", describe(recording));
+        } finally {
+            recording.close();
+        }
+        return response;
+    }
+
+    public void stopAll() {
+        for (Long id : new ArrayList<>(activeRecordings.keySet())) {
+            stopRecording(id);
+        }
+    }
+
+    public JsonObject listRecordings() {
+        JsonObject result = new JsonObject();
+
+        // Recordings that hit their duration have already been dumped; forget them
+        JsonArray active = new JsonArray();
+        for (Recording recording : new ArrayList<>(activeRecordings.values())) {
+            if (recording.getState() == RecordingState.CLOSED || recording.getState() == RecordingState.STOPPED) {
+                activeRecordings.remove(recording.getId());
+                recording.close();
+                continue;
+            }
+            active.add(describe(recording));
+        }
+
+        JsonArray files = new JsonArray();
+        for (File file : listRecordingFiles()) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty("name", file.getName());
+            entry.addProperty("size", file.length());
+            entry.addProperty("modified", file.lastModified());
+            files.add(entry);
+        }
+
+        result.add("active", active);
+        result.add("files", files);
+        return result;
+    }
+
+    /**
+     * Resolves a recording file by name, rejecting anything outside the jfr folder
+     * @return The file, or null if it does not exist or the name is not a plain .jfr file name
+     */
+    public File getRecordingFile(String name) {
+        if (name == null || !name.endsWith(".jfr") || name.contains("/") || name.contains("\\") || name.contains("..")) {
+            return null;
+        }
+        File file = new File(recordingsDir, name);
+        return file.isFile() ? file : null;
+    }
+
+    public boolean deleteRecording(String name) {
+        File file = getRecordingFile(name);
+        if (file == null) {
+            return false;
+        }
+        summaryCache.remove(name);
+        return file.delete();
+    }
+
+    /**
+     * Summarises a finished recording: hottest methods, top allocation sites and GC pauses.
+     * Events are read one at a time, so memory depends on the number of distinct methods, not the file size.
+     */
+    public JsonObject getSummary(File file) throws IOException {
+        CachedSummary cached = summaryCache.get(file.getName());
+        if (cached != null && cached.modified == file.lastModified()) {
+            return cached.summary;
+        }
+
+        Map<String, Long> hotMethods = new HashMap<>();
+        Map<String, Long> sampledSites = new HashMap<>();
+        Map<String, Long> tlabSites = new HashMap<>();
+        List<long[]> gcPauses = new ArrayList<>();
+        Map<Long, String> gcNames = new HashMap<>();
+        long executionSamples = 0;
+        long sampledWeight = 0;
+        long tlabWeight = 0;
+        long gcCount = 0;
+        long gcTotalPauseNanos = 0;
+
+        try (RecordingFile recordingFile = new RecordingFile(file.toPath())) {
+            while (recordingFile.hasMoreEvents()) {
+                RecordedEvent event = recordingFile.readEvent();
+                String type = event.getEventType().getName();
+
+                switch (type) {
+                    case "jdk.ExecutionSample": {
+                        String method = topFrame(event.getStackTrace());
+                        if (method != null) {
+                            hotMethods.merge(method, 1L, Long::sum);
+                            executionSamples++;
+                        }
+                        break;
+                    }
+                    case "jdk.ObjectAllocationSample":
+                    case "jdk.ObjectAllocationInNewTLAB":
+                    case "jdk.ObjectAllocationOutsideTLAB": {
+                        // Both event families may be enabled; they are kept apart to avoid double counting
+                        boolean sampled = type.equals("jdk.ObjectAllocationSample");
+                        String method = topFrame(event.getStackTrace());
+                        long weight = sampled ? event.getLong("weight") : event.getLong("allocationSize");
+                        RecordedClass objectClass = event.getClass("objectClass");
+                        String site = (objectClass != null ? objectClass.getName() : "?") + " @ " + (method != null ? method : "?");
+                        (sampled ? sampledSites : tlabSites).merge(site, weight, Long::sum);
+                        if (sampled) {
+                            sampledWeight += weight;
+                        } else {
+                            tlabWeight += weight;
+                        }
+                        break;
+                    }
+                    case "jdk.GarbageCollection": {
+                        long pause = event.getDuration("longestPause").toNanos();
+                        long gcId = event.getLong("gcId");
+                        gcCount++;
+                        gcTotalPauseNanos += event.getDuration("sumOfPauses").toNanos();
+                        gcNames.put(gcId, event.getString("name"));
+                        gcPauses.add(new long[]{gcId, pause, event.getStartTime().toEpochMilli()});
+                        // Keep only the longest pauses
+                        if (gcPauses.size() > TOP_N * 4) {
+                            gcPauses.sort(Comparator.comparingLong((long[] p) -> p[1]).reversed());
+                            for (int i = gcPauses.size() - 1; i >= TOP_N; i--) {
+                                gcNames.remove(gcPauses.remove(i)[0]);
+                            }
+                        }
+                        break;
+                    }
+                    default:
+                        break;
+                }
+            }
+        }
+
+        JsonObject summary = new JsonObject();
+        summary.addProperty("file", file.getName());
+        summary.addProperty("size", file.length());
+        summary.addProperty("executionSamples", executionSamples);
+        summary.add("hotMethods", topEntries(hotMethods, "method", "samples"));
+        boolean useSampled = !sampledSites.isEmpty();
+        summary.addProperty("allocationBytes", useSampled ? sampledWeight : tlabWeight);
+        summary.add("allocationSites", topEntries(useSampled ? sampledSites : tlabSites, "site", "bytes"));
+
+        JsonObject gc = new JsonObject();
+        gc.addProperty("count", gcCount);
+        gc.addProperty("totalPauseMs", gcTotalPauseNanos / 1_000_000.0);
+        gcPauses.sort(Comparator.comparingLong((long[] p) -> p[1]).reversed());
+        JsonArray longest = new JsonArray();
+        for (int i = 0; i < Math.min(TOP_N, gcPauses.size()); i++) {
+            long[] pause = gcPauses.get(i);
+            JsonObject entry = new JsonObject();
+            entry.addProperty("gcId", pause[0]);
+            entry.addProperty("name", gcNames.get(pause[0]));
+            entry.addProperty("pauseMs", pause[1] / 1_000_000.0);
+            entry.addProperty("timestamp", pause[2]);
+            longest.add(entry);
+        }
+        gc.add("longestPauses", longest);
+        summary.add("gc", gc);
+
+        summaryCache.put(file.getName(), new CachedSummary(file.lastModified(), summary));
+        return summary;
+    }
+
+    private String topFrame(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return null;
+        }
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            if (frame.isJavaFrame() && frame.getMethod() != null) {
+                return frame.getMethod().getType().getName() + "." + frame.getMethod().getName();
+            }
+        }
+        return null;
+    }
+
+    private JsonArray topEntries(Map<String, Long> counts, String keyName, String valueName) {
+        JsonArray array = new JsonArray();
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(TOP_N)
+                .forEach(entry -> {
+                    JsonObject obj = new JsonObject();
+                    obj.addProperty(keyName, entry.getKey());
+                    obj.addProperty(valueName, entry.getValue());
+                    array.add(obj);
+                });
+        return array;
+    }
+
+    private JsonObject describe(Recording recording) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("id", recording.getId());
+        obj.addProperty("name", recording.getName());
+        obj.addProperty("state", recording.getState().name());
+        obj.addProperty("maxSize", recording.getMaxSize());
+        if (recording.getStartTime() != null) {
+            obj.addProperty("startTime", recording.getStartTime().toEpochMilli());
+        }
+        if (recording.getDuration() != null) {
+            obj.addProperty("durationSeconds", recording.getDuration().getSeconds());
+        }
+        Path destination = recording.getDestination();
+        if (destination != null) {
+            obj.addProperty("file", destination.getFileName().toString());
+        }
+        return obj;
+    }
+
+    private List<File> listRecordingFiles() {
+        File[] files = recordingsDir.listFiles((dir, name) -> name.endsWith(".jfr"));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        List<File> list = new ArrayList<>(Arrays.asList(files));
+        list.sort(Comparator.comparingLong(File::lastModified).reversed());
+        return list;
+    }
+
+    private void pruneOldRecordings() {
+        List<File> files = listRecordingFiles();
+        for (int i = MAX_RECORDINGS_ON_DISK - 1; i < files.size(); i++) {
+            try {
+                Files.deleteIfExists(files.get(i).toPath());
+                summaryCache.remove(files.get(i).getName());
+            } catch (IOException e) {
+                plugin.getLogger().warning("Failed to delete old JFR recording: " + e.getMessage());
+            }
+        }
+    }
+
+    private static class CachedSummary {
+        final long modified;
+        final JsonObject summary;
+
+        CachedSummary(long modified, JsonObject summary) {
+            this.modified = modified;
+            this.summary = summary;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package dev.randombytes;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.bukkit.plugin.Plugin;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Captures class histograms through the DiagnosticCommand MBean and diffs them to find growing classes
+ */
+public class HeapHistogramManager {
+    private static final int MAX_CAPTURES = 5;
+    private static final int MAX_CLASSES_PER_CAPTURE = 5000;
+    private static final int MAX_TOP_N = 500;
+    // Every capture pauses the whole JVM, main thread included, so they are spaced out
+    private static final long MIN_CAPTURE_INTERVAL_MS = 60_000;
+
+    private final Plugin plugin;
+    private final Deque<Histogram> captures;
+    private long nextId = 1;
+    private long lastCaptureMillis;
+    private boolean capturing;
+
+    public HeapHistogramManager(Plugin plugin) {
+        this.plugin = plugin;
+        this.captures = new ArrayDeque<>();
+    }
+
+    /**
+     * Captures a class histogram. Walking the heap happens at a safepoint, so the main thread stops for the
+     * duration wherever this is called from; with live set it also forces a stop-the-world full GC first,
+     * which on a large heap can take seconds. Without it unreachable objects are counted too.
+     * @param live Count only live objects, at the cost of a full GC
+     * @return Summary of the new capture
+     * @throws IllegalStateException if a capture is running or the previous one succeeded less than a minute ago
+     */
+    public JsonObject capture(boolean live) throws JMException, IOException {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (capturing) {
+                throw new IllegalStateException("A capture is already running");
+            }
+            if (now - lastCaptureMillis < MIN_CAPTURE_INTERVAL_MS) {
+                throw new IllegalStateException("Wait " + (MIN_CAPTURE_INTERVAL_MS - (now - lastCaptureMillis) + 999) / 1000
+                        + "s before the next capture");
+            }
+            capturing = true;
+        }
+
+        Histogram histogram;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName diagnostics = new ObjectName("com.sun.management:type=DiagnosticCommand");
+            // "-all" inspects every object instead of collecting garbage first
+            String[] arguments = live ? new String[0] : new String[]{"-all"};
+            String output = (String) server.invoke(diagnostics, "gcClassHistogram",
+                    new Object[]{arguments}, new String[]{String[].class.getName()});
+            histogram = parse(output);
+        } finally {
+            synchronized (this) {
+                capturing = false;
+            }
+        }
+
+        histogram.live = live;
+        synchronized (this) {
+            // Only a capture that succeeded starts the waiting period
+            lastCaptureMillis = System.currentTimeMillis();
+            histogram.id = nextId++;
+            captures.addLast(histogram);
+            while (captures.size() > MAX_CAPTURES) {
+                captures.removeFirst();
+            }
+        }
+
+        plugin.getLogger().info("Captured class histogram " + histogram.id + " (" + histogram.totalBytes / (1024 * 1024) + " MB" + (live ? " live" : "") + ")");
+        return histogram.summary();
+    }
+
+    // Lines look like "   1:   123456   9876543  [B (java.base@21)"; only the largest classes are kept
+    private Histogram parse(String output) throws IOException {
+        PriorityQueue<Object[]> largest = new PriorityQueue<>((a, b) -> Long.compare((long) a[2], (long) b[2]));
+        Histogram histogram = new Histogram();
+        histogram.timestamp = System.currentTimeMillis();
+
+        try (BufferedReader reader = new BufferedReader(new StringReader(output))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.startsWith("Total")) {
+                    String[] parts = trimmed.split("\\s+");
+                    if (parts.length >= 3) {
+                        histogram.totalInstances = Long.parseLong(parts[1]);
+                        histogram.totalBytes = Long.parseLong(parts[2]);
+                    }
+                    continue;
+                }
+
+                int colon = trimmed.indexOf(':');
+                if (colon <= 0 || !Character.isDigit(trimmed.charAt(0))) {
+                    continue;
+                }
+                String[] parts = trimmed.substring(colon + 1).trim().split("\\s+", 3);
+                if (parts.length < 3) {
+                    continue;
+                }
+                try {
+                    long instances = Long.parseLong(parts[0]);
+                    long bytes = Long.parseLong(parts[1]);
+                    // Drop the "(module@version)" suffix so captures from the same run line up
+                    String className = parts[2];
+                    int space = className.indexOf(' ');
+                    if (space > 0) {
+                        className = className.substring(0, space);
+                    }
+                    histogram.classCount++;
+                    largest.add(new Object[]{className, instances, bytes});
+                    if (largest.size() > MAX_CLASSES_PER_CAPTURE) {
+                        largest.poll();
+                    }
+                } catch (NumberFormatException e) {
+                    // Not a histogram row
+                }
+            }
+        }
+
+        int size = largest.size();
+        histogram.classNames = new String[size];
+        histogram.instances = new long[size];
+        histogram.bytes = new long[size];
+        for (int i = size - 1; i >= 0; i--) {
+            Object[] row = largest.poll();
+            histogram.classNames[i] = (String) row[0];
+            histogram.instances[i] = (long) row[1];
+            histogram.bytes[i] = (long) row[2];
+        }
+        return histogram;
+    }
+
+    public synchronized JsonObject listCaptures() {
+        JsonObject result = new JsonObject();
+        JsonArray array = new JsonArray();
+        for (Histogram histogram : captures) {
+            array.add(histogram.summary());
+        }
+        result.add("captures", array);
+        return result;
+    }
+
+    /**
+     * Compares two captures and returns the classes that grew the most
+     * @param fromId The older capture
+     * @param toId The newer capture
+     * @param limit Number of classes to return
+     * @param byInstances Rank by instance growth instead of byte growth
+     * @return The diff, or null if either capture is no longer retained
+     * @throws IllegalArgumentException if one capture counted only live objects and the other all objects
+     */
+    public JsonObject diff(long fromId, long toId, int limit, boolean byInstances) {
+        Histogram from;
+        Histogram to;
+        synchronized (this) {
+            from = find(fromId);
+            to = find(toId);
+        }
+        if (from == null || to == null) {
+            return null;
+        }
+        // Garbage counted by only one side would show up as growth or shrinkage
+        if (from.live != to.live) {
+            throw new IllegalArgumentException("Captures " + fromId + " and " + toId + " differ in mode (live and all objects)");
+        }
+
+        Map<String, Integer> fromIndex = new HashMap<>(from.classNames.length * 2);
+        for (int i = 0; i < from.classNames.length; i++) {
+            fromIndex.put(from.classNames[i], i);
+        }
+
+        // Keep the top N growers in a min-heap of indexes into the newer capture
+        int topN = Math.min(Math.max(1, limit), MAX_TOP_N);
+        long[] growth = new long[to.classNames.length];
+        PriorityQueue<Integer> top = new PriorityQueue<>((a, b) -> Long.compare(growth[a], growth[b]));
+        for (int i = 0; i < to.classNames.length; i++) {
+            Integer previous = fromIndex.get(to.classNames[i]);
+            long before = previous == null ? 0 : (byInstances ? from.instances[previous] : from.bytes[previous]);
+            growth[i] = (byInstances ? to.instances[i] : to.bytes[i]) - before;
+            if (growth[i] <= 0) {
+                continue;
+            }
+            top.add(i);
+            if (top.size() > topN) {
+                top.poll();
+            }
+        }
+
+        List<Integer> ranked = new ArrayList<>(top);
+        ranked.sort((a, b) -> Long.compare(growth[b], growth[a]));
+
+        JsonArray classes = new JsonArray();
+        for (int i : ranked) {
+            Integer previous = fromIndex.get(to.classNames[i]);
+            JsonObject entry = new JsonObject();
+            entry.addProperty("class", to.classNames[i]);
+            entry.addProperty("instances", to.instances[i]);
+            entry.addProperty("bytes", to.bytes[i]);
+            entry.addProperty("instanceGrowth", to.instances[i] - (previous == null ? 0 : from.instances[previous]));
+            entry.addProperty("byteGrowth", to.bytes[i] - (previous == null ? 0 : from.bytes[previous]));
+            // Also true for classes that were below the older capture's retention cutoff
+            entry.addProperty("absentBefore", previous == null);
+            classes.add(entry);
+        }
+
+        JsonObject result = new JsonObject();
+        result.add("from", from.summary());
+        result.add("to", to.summary());
+        result.addProperty("totalByteGrowth", to.totalBytes - from.totalBytes);
+        result.addProperty("totalInstanceGrowth", to.totalInstances - from.totalInstances);
+        result.addProperty("sort", byInstances ? "instances" : "bytes");
+        result.add("classes", classes);
+        return result;
+    }
+
+    /**
+     * Gets the id of the newest capture and the newest one before it taken in the same mode, or null if there is none
+     */
+    public synchronized long[] latestPair() {
+        Histogram[] array = captures.toArray(new Histogram[0]);
+        if (array.length < 2) {
+            return null;
+        }
+        Histogram newest = array[array.length - 1];
+        for (int i = array.length - 2; i >= 0; i--) {
+            if (array[i].live == newest.live) {
+                return new long[]{array[i].id, newest.id};
+            }
+        }
+        return null;
+    }
+
+    private Histogram find(long id) {
+        for (Histogram histogram : captures) {
+            if (histogram.id == id) {
+                return histogram;
+            }
+        }
+        return null;
+    }
+
+    private static class Histogram {
+        long id;
+        long timestamp;
+        boolean live;
+        long totalInstances;
+        long totalBytes;
+        int classCount;
+        // Sorted by bytes, largest first
+        String[] classNames;
+        long[] instances;
+        long[] bytes;
+
+        JsonObject summary() {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("id", id);
+            obj.addProperty("timestamp", timestamp);
+            obj.addProperty("live", live);
+            obj.addProperty("totalInstances", totalInstances);
+            obj.addProperty("totalBytes", totalBytes);
+            obj.addProperty("classCount", classCount);
+            obj.addProperty("retainedClasses", classNames.length);
+            if (classNames.length > 0) {
+                obj.addProperty("largestClass", classNames[0]);
+            }
+            return obj;
+        }
+    }
+}
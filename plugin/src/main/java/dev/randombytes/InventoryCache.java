@@ -0,0 +1,335 @@
+package dev.randombytes;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import dev.mccontrol.Main;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Caches online players' inventories so they can be shown while the player is offline.
+ * Only players whose inventory may have changed are captured; the main thread copies item types and amounts,
+ * and a background writer appends the latest capture per player to the {@link InventoryStore}, which keeps
+ * each player's inventory history.
+ */
+public class InventoryCache {
+    private static final long CAPTURE_INTERVAL_TICKS = 100L;
+    // Changes made without an event (commands, other plugins) are picked up by a periodic full sweep
+    private static final long SWEEP_INTERVAL_TICKS = 6000L;
+    private static final long COMPACTION_INTERVAL_TICKS = 12000L;
+
+    private final Plugin plugin;
+    private final InventoryStore store;
+    // Per-player JSON files written by earlier versions; imported into the store once
+    private final File legacyCacheDir;
+    private final Set<UUID> dirty = ConcurrentHashMap.newKeySet();
+    // Captures waiting to be written; a newer capture replaces an unwritten older one
+    private final Map<UUID, Snapshot> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean writerScheduled = new AtomicBoolean();
+    private final Object writeLock = new Object();
+    // Stays false if the store could not be opened; nothing is captured or written then
+    private volatile boolean enabled;
+
+    public InventoryCache(Plugin plugin) {
+        this.plugin = plugin;
+        this.store = new InventoryStore(plugin, new File(plugin.getDataFolder(), "inventories"),
+                Main.getInstance().getConfigManager().isBinaryInventoryStore(),
+                Main.getInstance().getConfigManager().getInventoryHistoryDays());
+        this.legacyCacheDir = new File(plugin.getDataFolder().getParentFile().getParentFile(), "cache/inventories");
+    }
+
+    public void start() {
+        try {
+            store.open();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to open inventory store, inventory history is disabled", e);
+            return;
+        }
+        enabled = true;
+        if (legacyCacheDir.isDirectory()) {
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, this::importLegacyCache);
+        }
+
+        Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, () -> {
+            try {
+                store.compactIfNeeded();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to compact inventory store", e);
+            }
+        }, COMPACTION_INTERVAL_TICKS, COMPACTION_INTERVAL_TICKS);
+
+        Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, this::captureDirty, CAPTURE_INTERVAL_TICKS, CAPTURE_INTERVAL_TICKS);
+        Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, () -> {
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                dirty.add(player.getUniqueId());
+            }
+        }, SWEEP_INTERVAL_TICKS, SWEEP_INTERVAL_TICKS);
+    }
+
+    public void markDirty(UUID uuid) {
+        if (!enabled) {
+            return;
+        }
+        dirty.add(uuid);
+    }
+
+    /**
+     * Captures a player right away, e.g. when they leave. Must be called on the main thread.
+     */
+    public void captureNow(Player player) {
+        if (!enabled) {
+            return;
+        }
+        dirty.remove(player.getUniqueId());
+        pending.put(player.getUniqueId(), capture(player));
+        scheduleWriter();
+    }
+
+    /**
+     * Captures every online player, writes all pending captures on the calling thread and closes the store
+     */
+    public void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            pending.put(player.getUniqueId(), capture(player));
+        }
+        dirty.clear();
+        writePending();
+        store.close();
+    }
+
+    private void importLegacyCache() {
+        File[] files = legacyCacheDir.listFiles((dir, name) -> name.endsWith(".json"));
+        if (files == null) {
+            return;
+        }
+
+        int imported = 0;
+        for (File file : files) {
+            try (FileReader reader = new FileReader(file)) {
+                JsonObject cached = Main.getInstance().getGson().fromJson(reader, JsonObject.class);
+                UUID uuid = UUID.fromString(cached.get("uuid").getAsString());
+                String name = cached.has("name") && !cached.get("name").isJsonNull() ? cached.get("name").getAsString() : null;
+                long timestamp = cached.has("timestamp") ? cached.get("timestamp").getAsLong() : file.lastModified();
+                Map<String, Integer> counts = new TreeMap<>();
+                for (JsonElement element : cached.getAsJsonArray("inventory")) {
+                    JsonObject item = element.getAsJsonObject();
+                    counts.put(item.get("id").getAsString(), item.get("count").getAsInt());
+                }
+                // Skipped by the store if a capture made since startup is already newer
+                store.append(uuid, name, timestamp, counts);
+                imported++;
+            } catch (IOException | RuntimeException e) {
+                plugin.getLogger().fine("Could not import cached inventory " + file.getName() + ": " + e.getMessage());
+                continue;
+            }
+            if (!file.delete()) {
+                plugin.getLogger().fine("Could not delete imported inventory file " + file.getName());
+            }
+        }
+
+        legacyCacheDir.delete();
+        plugin.getLogger().info("Imported " + imported + " cached inventories into the inventory store");
+    }
+
+    private void captureDirty() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        for (UUID uuid : dirty) {
+            dirty.remove(uuid);
+            Player player = Bukkit.getPlayer(uuid);
+            if (player != null) {
+                pending.put(uuid, capture(player));
+            }
+        }
+        scheduleWriter();
+    }
+
+    /**
+     * Copies the item types and amounts of a player's inventory. Must be called on the main thread.
+     */
+    public static Snapshot capture(Player player) {
+        ItemStack[] contents = player.getInventory().getContents();
+        Material[] types = new Material[contents.length];
+        int[] amounts = new int[contents.length];
+        int count = 0;
+        for (ItemStack item : contents) {
+            if (item != null && item.getType() != Material.AIR) {
+                types[count] = item.getType();
+                amounts[count++] = item.getAmount();
+            }
+        }
+        return new Snapshot(player.getUniqueId(), player.getName(), System.currentTimeMillis(),
+                Arrays.copyOf(types, count), Arrays.copyOf(amounts, count));
+    }
+
+    private void scheduleWriter() {
+        if (!pending.isEmpty() && writerScheduled.compareAndSet(false, true)) {
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, this::writePending);
+        }
+    }
+
+    private void writePending() {
+        writerScheduled.set(false);
+        // One writer at a time, so an older capture can never overwrite a newer one
+        synchronized (writeLock) {
+            for (UUID uuid : pending.keySet()) {
+                Snapshot snapshot = pending.remove(uuid);
+                if (snapshot != null) {
+                    write(snapshot);
+                }
+            }
+        }
+    }
+
+    private void write(Snapshot snapshot) {
+        try {
+            // The store compares with the player's latest state and skips unchanged inventories (e.g. from the periodic sweep)
+            store.append(snapshot.uuid, snapshot.name, snapshot.timestamp, snapshot.itemCounts());
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to cache inventory for " + snapshot.name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the last cached inventory of a player, including a capture that has not been written yet
+     * @return The inventory, or null if none is cached
+     */
+    public JsonArray load(UUID uuid) {
+        Map<String, Integer> counts = loadCounts(uuid);
+        return counts != null ? toJson(counts) : null;
+    }
+
+    /**
+     * Same as {@link #load(UUID)} but returns the amount per item id
+     */
+    public Map<String, Integer> loadCounts(UUID uuid) {
+        Snapshot snapshot = pending.get(uuid);
+        if (snapshot != null) {
+            return snapshot.itemCounts();
+        }
+
+        try {
+            InventoryStore.StoredInventory stored = store.read(uuid);
+            return stored != null ? stored.itemCounts : null;
+        } catch (IOException e) {
+            plugin.getLogger().fine("Could not load cached inventory for " + uuid + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reconstructs a player's inventory at the given time
+     * @return The inventory with the time it was recorded, or null if nothing was recorded before then
+     */
+    public JsonObject loadAt(UUID uuid, long timestamp) throws IOException {
+        writePendingFor(uuid);
+        InventoryStore.StoredInventory stored = store.readAt(uuid, timestamp);
+        if (stored == null) {
+            return null;
+        }
+        JsonObject result = new JsonObject();
+        result.addProperty("uuid", uuid.toString());
+        result.addProperty("name", stored.name);
+        result.addProperty("recordedAt", stored.timestamp);
+        result.add("inventory", toJson(stored.itemCounts));
+        return result;
+    }
+
+    /**
+     * Lists the changes of a player's inventory between two times
+     * @return The changes, or null if the player has no inventory history
+     */
+    public JsonObject changesBetween(UUID uuid, long from, long to, int limit) throws IOException {
+        writePendingFor(uuid);
+        return store.changesBetween(uuid, from, to, limit);
+    }
+
+    /**
+     * Lists when a player's inventory was recorded
+     * @return The records, or null if the player has no inventory history
+     */
+    public JsonObject timeline(UUID uuid, int limit) {
+        writePendingFor(uuid);
+        return store.timeline(uuid, limit);
+    }
+
+    // History queries should include a capture that is still waiting for the writer
+    private void writePendingFor(UUID uuid) {
+        synchronized (writeLock) {
+            Snapshot snapshot = pending.remove(uuid);
+            if (snapshot != null) {
+                write(snapshot);
+            }
+        }
+    }
+
+    public static JsonArray toJson(Map<String, Integer> itemCounts) {
+        JsonArray inventory = new JsonArray();
+        for (Map.Entry<String, Integer> entry : itemCounts.entrySet()) {
+            JsonObject itemObj = new JsonObject();
+            itemObj.addProperty("id", entry.getKey());
+            itemObj.addProperty("name", formatItemName(entry.getKey()));
+            itemObj.addProperty("count", entry.getValue());
+            inventory.add(itemObj);
+        }
+        return inventory;
+    }
+
+    static String formatItemName(String itemId) {
+        String name = itemId.substring(itemId.indexOf(':') + 1);
+        return Arrays.stream(name.split("_"))
+            .map(word -> word.substring(0, 1).toUpperCase() + word.substring(1).toLowerCase())
+            .collect(Collectors.joining(" "));
+    }
+
+    /**
+     * Item types and amounts of one inventory at one point in time
+     */
+    public static class Snapshot {
+        final UUID uuid;
+        final String name;
+        final long timestamp;
+        final Material[] types;
+        final int[] amounts;
+
+        Snapshot(UUID uuid, String name, long timestamp, Material[] types, int[] amounts) {
+            this.uuid = uuid;
+            this.name = name;
+            this.timestamp = timestamp;
+            this.types = types;
+            this.amounts = amounts;
+        }
+
+        /**
+         * Total amount per namespaced item id, sorted by id
+         */
+        public Map<String, Integer> itemCounts() {
+            Map<String, Integer> counts = new TreeMap<>();
+            for (int i = 0; i < types.length; i++) {
+                counts.merge(types[i].getKey().toString(), amounts[i], Integer::sum);
+            }
+            return counts;
+        }
+    }
+}
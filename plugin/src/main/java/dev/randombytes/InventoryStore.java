@@ -0,0 +1,709 @@
+package dev.randombytes;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.bukkit.plugin.Plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured store for inventory history. Every change of a player's inventory is appended to a segment file,
+ * either as a full keyframe or as a delta against the previous record, and an in-memory index keeps each player's
+ * records in time order; the index is rebuilt from the segments on startup.
+ * History older than the retention period is dropped by background compaction.
+ *
+ * Segment layout: magic (int), version (int), then records of
+ * length (int), format (byte), uuid (2 longs), timestamp (long), payload, crc32 (int)
+ * where length covers everything after itself.
+ */
+public class InventoryStore {
+    public static final byte FORMAT_JSON = 0;
+    public static final byte FORMAT_BINARY = 1;
+    // Set in the format byte of delta records; a delta holds the new amount of each changed item, 0 if it is gone
+    private static final byte FLAG_DELTA = 2;
+
+    private static final int MAGIC = 0x4D43494E; // "MCIN"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    // format + uuid + timestamp + crc
+    private static final int RECORD_OVERHEAD = 1 + 16 + 8 + 4;
+    private static final long MAX_SEGMENT_SIZE = 8L * 1024 * 1024;
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+    private static final double COMPACTION_GARBAGE_RATIO = 0.5;
+    // Bounds how many records one reconstruction has to read
+    private static final int MAX_DELTAS_PER_KEYFRAME = 32;
+    private static final int MAX_CACHED_STATES = 1000;
+
+    private final Plugin plugin;
+    private final File directory;
+    private final byte writeFormat;
+    private final long retentionMillis;
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<UUID, History> index = new HashMap<>();
+    // Newest inventory of recently written players, so deltas can be computed without reading the log
+    private final Map<UUID, Map<String, Integer>> latestStates = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Map<String, Integer>> eldest) {
+            return size() > MAX_CACHED_STATES;
+        }
+    };
+    private Segment active;
+    private int nextSegmentId = 1;
+
+    /**
+     * Stored inventory: total amount per item id
+     */
+    public static class StoredInventory {
+        public final UUID uuid;
+        public final String name;
+        public final long timestamp;
+        public final Map<String, Integer> itemCounts;
+
+        StoredInventory(UUID uuid, String name, long timestamp, Map<String, Integer> itemCounts) {
+            this.uuid = uuid;
+            this.name = name;
+            this.timestamp = timestamp;
+            this.itemCounts = itemCounts;
+        }
+    }
+
+    /**
+     * @param retentionDays History older than this is dropped by compaction; the inventory at the cutoff is kept
+     */
+    public InventoryStore(Plugin plugin, File directory, boolean binary, int retentionDays) {
+        this.plugin = plugin;
+        this.directory = directory;
+        this.writeFormat = binary ? FORMAT_BINARY : FORMAT_JSON;
+        this.retentionMillis = Math.max(1, retentionDays) * 24L * 60 * 60 * 1000;
+    }
+
+    /**
+     * Opens all segments and rebuilds the index
+     */
+    public synchronized void open() throws IOException {
+        directory.mkdirs();
+        long start = System.currentTimeMillis();
+
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("segment-") && name.endsWith(".log"));
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    int id = Integer.parseInt(file.getName().substring(8, file.getName().length() - 4));
+                    segments.put(id, new Segment(id, file));
+                    // Ids of unreadable segments are not reused either
+                    nextSegmentId = Math.max(nextSegmentId, id + 1);
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+
+        int records = 0;
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            records += scan(segment);
+        }
+
+        if (segments.isEmpty()) {
+            active = createSegment();
+        } else {
+            active = segments.lastEntry().getValue();
+            active.openForAppend();
+            // Drop a torn record left by a crash so new records follow the last complete one
+            active.channel.truncate(active.size);
+        }
+
+        plugin.getLogger().info("Inventory store opened: " + index.size() + " players, " + records + " records in "
+                + segments.size() + " segments (" + (System.currentTimeMillis() - start) + "ms)");
+    }
+
+    // Reads every record of a segment into the index, stopping at the first incomplete or corrupt record
+    private int scan(Segment segment) throws IOException {
+        int records = 0;
+        try (FileChannel channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (fileSize < HEADER_SIZE || !readFully(channel, header, 0)
+                    || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                plugin.getLogger().warning("Ignoring invalid inventory segment " + segment.file.getName());
+                segments.remove(segment.id);
+                return 0;
+            }
+
+            long position = HEADER_SIZE;
+            segment.size = HEADER_SIZE;
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+            while (position + 4 <= fileSize) {
+                lengthBuffer.clear();
+                readFully(channel, lengthBuffer, position);
+                int length = lengthBuffer.getInt(0);
+                if (length < RECORD_OVERHEAD || length > MAX_RECORD_SIZE || position + 4 + length > fileSize) {
+                    break;
+                }
+                ByteBuffer record = ByteBuffer.allocate(length);
+                if (!readFully(channel, record, position + 4) || !checksumMatches(record)) {
+                    break;
+                }
+                UUID uuid = new UUID(record.getLong(1), record.getLong(9));
+                boolean keyframe = (record.get(0) & FLAG_DELTA) == 0;
+                index.computeIfAbsent(uuid, key -> new History())
+                        .add(segment.id, position, 4 + length, record.getLong(17), keyframe);
+                segment.size = position + 4 + length;
+                position = segment.size;
+                records++;
+            }
+
+            if (segment.size < fileSize) {
+                plugin.getLogger().warning("Inventory segment " + segment.file.getName() + " has "
+                        + (fileSize - segment.size) + " unreadable trailing bytes");
+            }
+        }
+        return records;
+    }
+
+    private static boolean checksumMatches(ByteBuffer record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.capacity() - 4);
+        return (int) crc.getValue() == record.getInt(record.capacity() - 4);
+    }
+
+    /**
+     * Records a player's inventory. Only the items that changed since the previous record are written, except
+     * for periodic keyframes; nothing is written if the inventory is unchanged or older than the newest record.
+     */
+    public synchronized void append(UUID uuid, String name, long timestamp, Map<String, Integer> itemCounts) throws IOException {
+        History history = index.get(uuid);
+        // Reconstruction assumes a player's records are appended in time order
+        if (history != null && timestamp <= history.timestamps[history.size - 1]) {
+            return;
+        }
+
+        Map<String, Integer> changes = null;
+        if (history != null) {
+            Map<String, Integer> previous = latestStates.get(uuid);
+            if (previous == null) {
+                previous = reconstruct(uuid, history, history.size - 1).itemCounts;
+            }
+            changes = diff(previous, itemCounts);
+            if (changes.isEmpty()) {
+                return;
+            }
+        }
+        boolean keyframe = history == null || changes.size() >= itemCounts.size()
+                || history.size - 1 - history.keyframeAtOrBefore(history.size - 1) >= MAX_DELTAS_PER_KEYFRAME;
+
+        byte format = (byte) (keyframe ? writeFormat : writeFormat | FLAG_DELTA);
+        byte[] payload = encode(format, uuid, name, timestamp, keyframe ? itemCounts : changes);
+        int length = RECORD_OVERHEAD + payload.length;
+        ByteBuffer record = ByteBuffer.allocate(4 + length);
+        record.putInt(length);
+        record.put(format);
+        record.putLong(uuid.getMostSignificantBits());
+        record.putLong(uuid.getLeastSignificantBits());
+        record.putLong(timestamp);
+        record.put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, length - 4);
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        if (active.size + record.remaining() > MAX_SEGMENT_SIZE && active.size > HEADER_SIZE) {
+            active = createSegment();
+        }
+
+        long position = active.size;
+        while (record.hasRemaining()) {
+            active.channel.write(record, position + record.position());
+        }
+        active.size += 4 + length;
+        index.computeIfAbsent(uuid, key -> new History()).add(active.id, position, 4 + length, timestamp, keyframe);
+        latestStates.put(uuid, new TreeMap<>(itemCounts));
+    }
+
+    // New amount of every item whose amount changed, 0 for items that are gone
+    private static Map<String, Integer> diff(Map<String, Integer> before, Map<String, Integer> after) {
+        Map<String, Integer> changes = new TreeMap<>();
+        for (Map.Entry<String, Integer> entry : after.entrySet()) {
+            if (!entry.getValue().equals(before.get(entry.getKey()))) {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (String item : before.keySet()) {
+            if (!after.containsKey(item)) {
+                changes.put(item, 0);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * @return The newest inventory of the player, or null if none is stored
+     */
+    public synchronized StoredInventory read(UUID uuid) throws IOException {
+        return readAt(uuid, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reconstructs a player's inventory as it was at the given time
+     * @return The inventory of the last record at or before the time, or null if there is none
+     */
+    public synchronized StoredInventory readAt(UUID uuid, long timestamp) throws IOException {
+        History history = index.get(uuid);
+        if (history == null) {
+            return null;
+        }
+        int last = history.lastAtOrBefore(timestamp);
+        return last < 0 ? null : reconstruct(uuid, history, last);
+    }
+
+    // Applies the deltas following the nearest keyframe, up to and including the given record
+    private StoredInventory reconstruct(UUID uuid, History history, int last) throws IOException {
+        Map<String, Integer> state = new TreeMap<>();
+        String name = null;
+        for (int i = history.keyframeAtOrBefore(last); i <= last; i++) {
+            Decoded decoded = decode(readRecord(history, i));
+            if (!decoded.delta) {
+                state.clear();
+            }
+            apply(state, decoded.items);
+            if (decoded.name != null) {
+                name = decoded.name;
+            }
+        }
+        return new StoredInventory(uuid, name, history.timestamps[last], state);
+    }
+
+    private static void apply(Map<String, Integer> state, Map<String, Integer> items) {
+        for (Map.Entry<String, Integer> entry : items.entrySet()) {
+            if (entry.getValue() == 0) {
+                state.remove(entry.getKey());
+            } else {
+                state.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Lists how a player's inventory changed between two times
+     * @param limit Maximum number of changes; later changes are left out and the result is marked truncated
+     * @return The inventory at the start, every recorded change with the amounts before and after, and the
+     *         inventory at the end; null if the player has no history
+     */
+    public synchronized JsonObject changesBetween(UUID uuid, long from, long to, int limit) throws IOException {
+        History history = index.get(uuid);
+        if (history == null) {
+            return null;
+        }
+
+        int first = history.lastAtOrBefore(from);
+        Map<String, Integer> state = first >= 0 ? reconstruct(uuid, history, first).itemCounts : new TreeMap<>();
+        JsonObject result = new JsonObject();
+        result.addProperty("uuid", uuid.toString());
+        result.addProperty("from", from);
+        result.addProperty("to", to);
+        result.add("start", InventoryCache.toJson(state));
+
+        JsonArray changes = new JsonArray();
+        boolean truncated = false;
+        for (int i = first + 1; i < history.size && history.timestamps[i] <= to; i++) {
+            if (changes.size() >= limit) {
+                truncated = true;
+                break;
+            }
+            Decoded decoded = decode(readRecord(history, i));
+            Map<String, Integer> changed = decoded.delta ? decoded.items : diff(state, decoded.items);
+
+            JsonArray items = new JsonArray();
+            for (Map.Entry<String, Integer> entry : changed.entrySet()) {
+                int before = state.getOrDefault(entry.getKey(), 0);
+                JsonObject item = new JsonObject();
+                item.addProperty("id", entry.getKey());
+                item.addProperty("before", before);
+                item.addProperty("after", entry.getValue());
+                item.addProperty("change", entry.getValue() - before);
+                items.add(item);
+            }
+            if (!decoded.delta) {
+                state.clear();
+            }
+            apply(state, decoded.items);
+
+            if (items.size() > 0) {
+                JsonObject change = new JsonObject();
+                change.addProperty("timestamp", history.timestamps[i]);
+                change.add("items", items);
+                changes.add(change);
+            }
+        }
+
+        result.add("changes", changes);
+        result.addProperty("truncated", truncated);
+        if (!truncated) {
+            result.add("end", InventoryCache.toJson(state));
+        }
+        return result;
+    }
+
+    /**
+     * Lists when a player's inventory was recorded, newest first
+     * @return The records, or null if the player has no history
+     */
+    public synchronized JsonObject timeline(UUID uuid, int limit) {
+        History history = index.get(uuid);
+        if (history == null) {
+            return null;
+        }
+        JsonObject result = new JsonObject();
+        result.addProperty("uuid", uuid.toString());
+        JsonArray entries = new JsonArray();
+        for (int i = history.size - 1; i >= Math.max(0, history.size - limit); i--) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty("timestamp", history.timestamps[i]);
+            entry.addProperty("keyframe", history.keyframes[i]);
+            entry.addProperty("bytes", history.lengths[i]);
+            entries.add(entry);
+        }
+        result.addProperty("records", history.size);
+        result.add("entries", entries);
+        return result;
+    }
+
+    private ByteBuffer readRecord(History history, int i) throws IOException {
+        Segment segment = segments.get(history.segments[i]);
+        ByteBuffer record = ByteBuffer.allocate(history.lengths[i] - 4);
+        if (!readFully(segment.channel(), record, history.offsets[i] + 4) || !checksumMatches(record)) {
+            throw new IOException("Corrupt inventory record in " + segment.file.getName());
+        }
+        record.flip();
+        return record;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Decoded decode(ByteBuffer record) throws IOException {
+        byte format = record.get(0);
+        int payloadStart = RECORD_OVERHEAD - 4;
+        byte[] payload = new byte[record.capacity() - RECORD_OVERHEAD];
+        System.arraycopy(record.array(), payloadStart, payload, 0, payload.length);
+
+        Decoded decoded = new Decoded((format & FLAG_DELTA) != 0);
+        if ((format & FORMAT_BINARY) != 0) {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+                String name = in.readUTF();
+                decoded.name = name.isEmpty() ? null : name;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    decoded.items.put(in.readUTF(), in.readInt());
+                }
+            }
+            return decoded;
+        }
+
+        JsonObject cached = JsonParser.parseString(new String(payload, StandardCharsets.UTF_8)).getAsJsonObject();
+        for (JsonElement element : cached.getAsJsonArray(decoded.delta ? "changes" : "inventory")) {
+            JsonObject item = element.getAsJsonObject();
+            decoded.items.put(item.get("id").getAsString(), item.get("count").getAsInt());
+        }
+        decoded.name = cached.has("name") && !cached.get("name").isJsonNull() ? cached.get("name").getAsString() : null;
+        return decoded;
+    }
+
+    private static byte[] encode(byte format, UUID uuid, String name, long timestamp, Map<String, Integer> items) throws IOException {
+        if ((format & FORMAT_BINARY) != 0) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + items.size() * 24);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeUTF(name != null ? name : "");
+                out.writeInt(items.size());
+                for (Map.Entry<String, Integer> entry : items.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue());
+                }
+            }
+            return bytes.toByteArray();
+        }
+
+        // Keyframes are the same document the per-player cache files used to contain
+        JsonObject cached = new JsonObject();
+        cached.addProperty("uuid", uuid.toString());
+        cached.addProperty("name", name);
+        cached.addProperty("timestamp", timestamp);
+        if ((format & FLAG_DELTA) != 0) {
+            JsonArray changes = new JsonArray();
+            for (Map.Entry<String, Integer> entry : items.entrySet()) {
+                JsonObject item = new JsonObject();
+                item.addProperty("id", entry.getKey());
+                item.addProperty("count", entry.getValue());
+                changes.add(item);
+            }
+            cached.add("changes", changes);
+        } else {
+            cached.add("inventory", InventoryCache.toJson(items));
+        }
+        return cached.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Drops history older than the retention period once it makes up most of the sealed segments, copying the
+     * remaining records of those segments into new ones. Each player keeps the keyframe in effect at the cutoff,
+     * so their inventory from then on can still be reconstructed.
+     * @return Number of bytes reclaimed
+     */
+    public synchronized long compactIfNeeded() throws IOException {
+        long sealedSize = 0;
+        Set<Integer> sealedIds = new HashSet<>();
+        List<Segment> sealed = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            if (segment != active) {
+                sealed.add(segment);
+                sealedIds.add(segment.id);
+                sealedSize += segment.size - HEADER_SIZE;
+            }
+        }
+        if (sealed.isEmpty()) {
+            return 0;
+        }
+
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        Map<UUID, Integer> firstKept = new HashMap<>();
+        long expired = 0;
+        for (Map.Entry<UUID, History> entry : index.entrySet()) {
+            History history = entry.getValue();
+            int keep = history.keyframeAtOrBefore(history.lastAtOrBefore(cutoff));
+            firstKept.put(entry.getKey(), keep);
+            for (int i = 0; i < keep; i++) {
+                if (sealedIds.contains(history.segments[i])) {
+                    expired += history.lengths[i];
+                }
+            }
+        }
+        if (expired < sealedSize * COMPACTION_GARBAGE_RATIO) {
+            return 0;
+        }
+
+        // Compacted segments take new ids; if the old ones survive a crash, the index ignores the duplicates
+        Segment target = createSegment();
+        long written = 0;
+        for (Map.Entry<UUID, History> entry : index.entrySet()) {
+            History history = entry.getValue();
+            // Expired records in the active segment stay on disk and would be indexed again after a restart, so
+            // only those in the segments deleted below leave the index
+            history.removeBefore(firstKept.get(entry.getKey()), sealedIds);
+            for (int i = 0; i < history.size; i++) {
+                if (!sealedIds.contains(history.segments[i])) {
+                    continue;
+                }
+                ByteBuffer record = ByteBuffer.allocate(history.lengths[i]);
+                record.putInt(history.lengths[i] - 4);
+                record.put(readRecord(history, i));
+                record.flip();
+                if (target.size + record.remaining() > MAX_SEGMENT_SIZE && target.size > HEADER_SIZE) {
+                    target.channel.force(false);
+                    target = createSegment();
+                }
+                long position = target.size;
+                while (record.hasRemaining()) {
+                    target.channel.write(record, position + record.position());
+                }
+                target.size += history.lengths[i];
+                written += history.lengths[i];
+                history.segments[i] = target.id;
+                history.offsets[i] = position;
+            }
+        }
+        target.channel.force(false);
+
+        for (Segment segment : sealed) {
+            segments.remove(segment.id);
+            segment.close();
+            if (!segment.file.delete()) {
+                plugin.getLogger().warning("Could not delete compacted inventory segment " + segment.file.getName());
+            }
+        }
+
+        long reclaimed = sealedSize - written;
+        plugin.getLogger().info("Compacted " + sealed.size() + " inventory segments, reclaimed " + reclaimed / 1024 + " KB");
+        return reclaimed;
+    }
+
+    public synchronized void close() {
+        if (active != null) {
+            try {
+                active.channel.force(false);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to sync inventory store", e);
+            }
+        }
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    private Segment createSegment() throws IOException {
+        int id = nextSegmentId++;
+        Segment segment = new Segment(id, new File(directory, String.format("segment-%06d.log", id)));
+        segment.channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        segment.channel.write(header, 0);
+        segment.size = HEADER_SIZE;
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static class Decoded {
+        final boolean delta;
+        final Map<String, Integer> items = new TreeMap<>();
+        String name;
+
+        Decoded(boolean delta) {
+            this.delta = delta;
+        }
+    }
+
+    private static class Segment {
+        final int id;
+        final File file;
+        FileChannel channel;
+        long size;
+
+        Segment(int id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+
+        void openForAppend() throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        // Sealed segments are opened read-only on first use and stay open
+        FileChannel channel() throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+            return channel;
+        }
+
+        void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Nothing left to do with it
+                }
+                channel = null;
+            }
+        }
+    }
+
+    // One player's records in time order, as parallel arrays
+    private static class History {
+        int size;
+        int[] segments = new int[4];
+        long[] offsets = new long[4];
+        int[] lengths = new int[4];
+        long[] timestamps = new long[4];
+        boolean[] keyframes = new boolean[4];
+
+        // Records normally arrive in time order, but compacted copies can sit in a later segment than newer records
+        void add(int segment, long offset, int length, long timestamp, boolean keyframe) {
+            int position = size;
+            while (position > 0 && timestamps[position - 1] >= timestamp) {
+                if (timestamps[position - 1] == timestamp) {
+                    return;
+                }
+                position--;
+            }
+            if (size == timestamps.length) {
+                int capacity = size * 2;
+                segments = Arrays.copyOf(segments, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                keyframes = Arrays.copyOf(keyframes, capacity);
+            }
+            int tail = size - position;
+            System.arraycopy(segments, position, segments, position + 1, tail);
+            System.arraycopy(offsets, position, offsets, position + 1, tail);
+            System.arraycopy(lengths, position, lengths, position + 1, tail);
+            System.arraycopy(timestamps, position, timestamps, position + 1, tail);
+            System.arraycopy(keyframes, position, keyframes, position + 1, tail);
+            segments[position] = segment;
+            offsets[position] = offset;
+            lengths[position] = length;
+            timestamps[position] = timestamp;
+            keyframes[position] = keyframe;
+            size++;
+        }
+
+        // Removes the records before the given index that are stored in one of the segments
+        void removeBefore(int end, Set<Integer> segmentIds) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (i < end && segmentIds.contains(segments[i])) {
+                    continue;
+                }
+                segments[kept] = segments[i];
+                offsets[kept] = offsets[i];
+                lengths[kept] = lengths[i];
+                timestamps[kept] = timestamps[i];
+                keyframes[kept] = keyframes[i];
+                kept++;
+            }
+            size = kept;
+        }
+
+        int lastAtOrBefore(long timestamp) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestamps[mid] <= timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low - 1;
+        }
+
+        // Falls back to the first record if the history was cut short, e.g. by a lost segment
+        int keyframeAtOrBefore(int index) {
+            for (int i = index; i > 0; i--) {
+                if (keyframes[i]) {
+                    return i;
+                }
+            }
+            return 0;
+        }
+    }
+}
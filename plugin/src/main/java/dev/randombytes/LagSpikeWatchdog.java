@@ -0,0 +1,286 @@
+package dev.randombytes;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+
+/**
+ * Watches the server thread and records main-thread stack traces while a tick overruns
+ */
+public class LagSpikeWatchdog {
+    private static final long SAMPLE_INTERVAL_MS = 10;
+    private static final int MAX_SAMPLES_PER_SPIKE = 100;
+    private static final int MAX_STACK_DEPTH = 64;
+
+    private final Plugin plugin;
+    private final Thread serverThread;
+    private final long thresholdNanos;
+    private final int maxEntries;
+    private final File spikeFile;
+    private final Deque<JsonObject> spikes;
+    private final AtomicReference<SpikeCapture> currentCapture;
+    private final AtomicLong nextId;
+    private volatile long lastHeartbeat;
+    private volatile long tickNumber;
+    private volatile boolean running;
+    private Thread watchdogThread;
+    private int heartbeatTaskId = -1;
+    private int linesOnDisk;
+
+    /**
+     * Must be constructed on the server thread, which is the thread being watched
+     */
+    public LagSpikeWatchdog(Plugin plugin, long thresholdMs, int maxEntries) {
+        this.plugin = plugin;
+        this.serverThread = Thread.currentThread();
+        this.thresholdNanos = Math.max(1, thresholdMs) * 1_000_000L;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.spikeFile = new File(plugin.getDataFolder(), "lag-spikes.jsonl");
+        this.spikes = new ArrayDeque<>();
+        this.currentCapture = new AtomicReference<>();
+        this.nextId = new AtomicLong(1);
+
+        loadSpikes();
+    }
+
+    public void start() {
+        lastHeartbeat = System.nanoTime();
+        running = true;
+
+        // Heartbeat runs every tick; the gap between two runs is the tick duration
+        heartbeatTaskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, this::heartbeat, 1L, 1L);
+
+        watchdogThread = new Thread(this::watch, "MCControl-LagWatchdog");
+        watchdogThread.setDaemon(true);
+        watchdogThread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (heartbeatTaskId != -1) {
+            Bukkit.getScheduler().cancelTask(heartbeatTaskId);
+        }
+        if (watchdogThread != null) {
+            watchdogThread.interrupt();
+        }
+    }
+
+    private void heartbeat() {
+        long now = System.nanoTime();
+        long tickDuration = now - lastHeartbeat;
+        lastHeartbeat = now;
+        long endedTick = tickNumber++;
+
+        SpikeCapture capture = currentCapture.getAndSet(null);
+        if (capture == null || capture.tick != endedTick) {
+            return;
+        }
+
+        // Server state is read here, on the main thread, once the spike has ended
+        int loadedChunks = 0;
+        for (World world : Bukkit.getWorlds()) {
+            loadedChunks += world.getLoadedChunks().length;
+        }
+
+        JsonObject spike = capture.toJson(nextId.getAndIncrement(), tickDuration / 1_000_000L,
+                Bukkit.getOnlinePlayers().size(), loadedChunks);
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> recordSpike(spike));
+    }
+
+    private void watch() {
+        while (running) {
+            try {
+                Thread.sleep(SAMPLE_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long tick = tickNumber;
+            long elapsed = System.nanoTime() - lastHeartbeat;
+            if (elapsed < thresholdNanos) {
+                continue;
+            }
+
+            SpikeCapture capture = currentCapture.get();
+            if (capture == null || capture.tick != tick) {
+                capture = new SpikeCapture(tick, System.currentTimeMillis() - elapsed / 1_000_000L);
+                currentCapture.set(capture);
+            }
+            capture.addSample(serverThread.getStackTrace());
+        }
+    }
+
+    private synchronized void recordSpike(JsonObject spike) {
+        spikes.addLast(spike);
+        while (spikes.size() > maxEntries) {
+            spikes.removeFirst();
+        }
+
+        try {
+            if (linesOnDisk >= maxEntries * 2) {
+                // Compact the log back down to the retained entries
+                rewriteSpikeFile();
+            } else {
+                try (BufferedWriter writer = Files.newBufferedWriter(spikeFile.toPath(), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    writer.write(spike.toString());
+                    writer.newLine();
+                }
+                linesOnDisk++;
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to write lag spike log", e);
+        }
+
+        plugin.getLogger().warning("Lag spike: tick took " + spike.get("durationMs").getAsLong() + "ms ("
+                + spike.get("sampleCount").getAsInt() + " stack samples captured)");
+    }
+
+    private void rewriteSpikeFile() throws IOException {
+        File tempFile = new File(spikeFile.getParentFile(), spikeFile.getName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+            for (JsonObject spike : spikes) {
+                writer.write(spike.toString());
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile.toPath(), spikeFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        linesOnDisk = spikes.size();
+    }
+
+    private synchronized void loadSpikes() {
+        if (!spikeFile.exists()) {
+            return;
+        }
+
+        try {
+            List<String> lines = Files.readAllLines(spikeFile.toPath(), StandardCharsets.UTF_8);
+            linesOnDisk = lines.size();
+            for (int i = Math.max(0, lines.size() - maxEntries); i < lines.size(); i++) {
+                try {
+                    JsonObject spike = JsonParser.parseString(lines.get(i)).getAsJsonObject();
+                    spikes.addLast(spike);
+                    nextId.set(Math.max(nextId.get(), spike.get("id").getAsLong() + 1));
+                } catch (RuntimeException e) {
+                    // Skip a truncated or corrupt line
+                }
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to load lag spike log", e);
+        }
+    }
+
+    /**
+     * Gets the most recent spikes without their stack samples
+     * @param limit Maximum number of spikes to return
+     */
+    public synchronized JsonObject getSpikes(int limit) {
+        JsonObject result = new JsonObject();
+        JsonArray array = new JsonArray();
+
+        int skip = Math.max(0, spikes.size() - limit);
+        int index = 0;
+        for (JsonObject spike : spikes) {
+            if (index++ < skip) {
+                continue;
+            }
+            JsonObject summary = new JsonObject();
+            for (String key : spike.keySet()) {
+                if (!key.equals("samples")) {
+                    summary.add(key, spike.get(key));
+                }
+            }
+            array.add(summary);
+        }
+
+        result.add("spikes", array);
+        result.addProperty("count", array.size());
+        result.addProperty("thresholdMs", thresholdNanos / 1_000_000L);
+        return result;
+    }
+
+    /**
+     * Gets a single spike including its captured stack samples
+     * @return The spike, or null if it is no longer retained
+     */
+    public synchronized JsonObject getSpike(long id) {
+        for (JsonObject spike : spikes) {
+            if (spike.get("id").getAsLong() == id) {
+                return spike;
+            }
+        }
+        return null;
+    }
+
+    // Stack samples collected by the watchdog thread for one overrunning tick
+    private static class SpikeCapture {
+        final long tick;
+        final long startedAt;
+        final List<StackTraceElement[]> stacks = new ArrayList<>();
+        final List<Integer> counts = new ArrayList<>();
+        int sampleCount;
+
+        SpikeCapture(long tick, long startedAt) {
+            this.tick = tick;
+            this.startedAt = startedAt;
+        }
+
+        synchronized void addSample(StackTraceElement[] stack) {
+            sampleCount++;
+            StackTraceElement[] trimmed = stack.length > MAX_STACK_DEPTH
+                    ? Arrays.copyOf(stack, MAX_STACK_DEPTH) : stack;
+
+            // Consecutive identical stacks are folded into one entry with a count
+            int last = stacks.size() - 1;
+            if (last >= 0 && Arrays.equals(stacks.get(last), trimmed)) {
+                counts.set(last, counts.get(last) + 1);
+            } else if (stacks.size() < MAX_SAMPLES_PER_SPIKE) {
+                stacks.add(trimmed);
+                counts.add(1);
+            }
+        }
+
+        synchronized JsonObject toJson(long id, long durationMs, int players, int loadedChunks) {
+            JsonObject spike = new JsonObject();
+            spike.addProperty("id", id);
+            spike.addProperty("timestamp", startedAt);
+            spike.addProperty("durationMs", durationMs);
+            spike.addProperty("players", players);
+            spike.addProperty("loadedChunks", loadedChunks);
+            spike.addProperty("sampleCount", sampleCount);
+
+            JsonArray samples = new JsonArray();
+            for (int i = 0; i < stacks.size(); i++) {
+                JsonObject sample = new JsonObject();
+                sample.addProperty("count", counts.get(i));
+                JsonArray frames = new JsonArray();
+                for (StackTraceElement frame : stacks.get(i)) {
+                    frames.add(frame.toString());
+                }
+                sample.add("frames", frames);
+                samples.add(sample);
+            }
+            spike.add("samples", samples);
+            return spike;
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package dev.randombytes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps console, chat and combined log lines once, as structured records, for all three views. New lines go
+ * into an uncompressed hot tail; when it reaches about 64 KB it is encoded and deflated into an immutable
+ * block. Readers walk newest first and only inflate blocks that can contain lines of their view and time
+ * range. The oldest blocks are dropped once more than the configured number of lines is held.
+ */
+public class LogBlockStore {
+    public static final String CONSOLE = "CONSOLE";
+    public static final String CHAT = "CHAT";
+    // Pre-formatted console lines (join and quit notices) that are not part of the combined log
+    public static final String NOTICE = "NOTICE";
+
+    private static final int BLOCK_BYTES = 64 * 1024;
+    private static final int CACHED_BLOCKS = 4;
+    private static final DateTimeFormatter STAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    public enum View {
+        CONSOLE, CHAT, COMBINED;
+
+        boolean includes(String source) {
+            switch (this) {
+                case CONSOLE:
+                    return LogBlockStore.CONSOLE.equals(source) || NOTICE.equals(source);
+                case CHAT:
+                    return LogBlockStore.CHAT.equals(source);
+                default:
+                    return !NOTICE.equals(source);
+            }
+        }
+
+        // Bits of sourceBit() a block must have for this view to find anything in it
+        int sourceMask() {
+            switch (this) {
+                case CONSOLE:
+                    return 1 | 4;
+                case CHAT:
+                    return 2;
+                default:
+                    return 1 | 2 | 8;
+            }
+        }
+    }
+
+    private final int maxLines;
+    private final ArrayDeque<Block> blocks = new ArrayDeque<>();
+    private List<Line> hot = new ArrayList<>();
+    private int hotBytes;
+    private int hotSources;
+    private long lineCount;
+    private long nextBlockId;
+    private final Map<Long, Line[]> inflated = new LinkedHashMap<>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Line[]> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+
+    public LogBlockStore(int maxLines) {
+        this.maxLines = maxLines;
+    }
+
+    public synchronized void add(Line line) {
+        hot.add(line);
+        hotBytes += line.estimateBytes();
+        hotSources |= sourceBit(line.source);
+        lineCount++;
+        if (hotBytes >= BLOCK_BYTES) {
+            seal();
+        }
+        // Whole blocks are dropped, so up to one block more than maxLines is kept
+        while (!blocks.isEmpty() && lineCount - blocks.peekFirst().count >= maxLines) {
+            lineCount -= blocks.pollFirst().count;
+        }
+    }
+
+    public synchronized void clear() {
+        blocks.clear();
+        hot = new ArrayList<>();
+        hotBytes = 0;
+        hotSources = 0;
+        lineCount = 0;
+        synchronized (inflated) {
+            inflated.clear();
+        }
+    }
+
+    public synchronized long size() {
+        return lineCount;
+    }
+
+    /**
+     * Sum of compressed block sizes, for diagnostics
+     */
+    public synchronized long compressedBytes() {
+        long total = 0;
+        for (Block block : blocks) {
+            total += block.data.length;
+        }
+        return total;
+    }
+
+    /**
+     * Gets the newest lines of a view matching the filter
+     * @param limit Maximum number of lines
+     * @return Matching lines, oldest first
+     */
+    public List<Line> query(View view, LogFilter filter, int limit) {
+        Line[] tail;
+        Block[] sealed;
+        int tailSources;
+        synchronized (this) {
+            tail = hot.toArray(new Line[0]);
+            sealed = blocks.toArray(new Block[0]);
+            tailSources = hotSources;
+        }
+
+        List<Line> result = new ArrayList<>();
+        if ((tailSources & view.sourceMask()) != 0) {
+            collect(tail, view, filter, limit, result);
+        }
+        for (int i = sealed.length - 1; i >= 0 && result.size() < limit; i--) {
+            Block block = sealed[i];
+            // Console records arrive up to a drain interval late, so blocks are only roughly in time order
+            if ((block.sources & view.sourceMask()) == 0
+                    || block.lastMillis < filter.getFrom() || block.firstMillis > filter.getTo()) {
+                continue;
+            }
+            collect(inflate(block), view, filter, limit, result);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    private static void collect(Line[] lines, View view, LogFilter filter, int limit, List<Line> result) {
+        for (int i = lines.length - 1; i >= 0 && result.size() < limit; i--) {
+            Line line = lines[i];
+            if (view.includes(line.source) && line.matches(filter)) {
+                result.add(line);
+            }
+        }
+    }
+
+    private void seal() {
+        long firstMillis = Long.MAX_VALUE;
+        long lastMillis = Long.MIN_VALUE;
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(hotBytes + 1024);
+        try (DataOutputStream out = new DataOutputStream(raw)) {
+            for (Line line : hot) {
+                line.write(out);
+                firstMillis = Math.min(firstMillis, line.millis);
+                lastMillis = Math.max(lastMillis, line.millis);
+            }
+        } catch (IOException e) {
+            // Only written to memory
+            throw new UncheckedIOException(e);
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] input = raw.toByteArray();
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(input.length / 4);
+        byte[] buffer = new byte[16 * 1024];
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+
+        blocks.addLast(new Block(nextBlockId++, compressed.toByteArray(), input.length, hot.size(), hotSources,
+                firstMillis, lastMillis));
+        hot = new ArrayList<>();
+        hotBytes = 0;
+        hotSources = 0;
+    }
+
+    private Line[] inflate(Block block) {
+        synchronized (inflated) {
+            Line[] cached = inflated.get(block.id);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        byte[] raw = new byte[block.rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(block.data);
+            int offset = 0;
+            while (offset < raw.length && !inflater.finished()) {
+                offset += inflater.inflate(raw, offset, raw.length - offset);
+            }
+        } catch (DataFormatException e) {
+            // Written by seal() in this process, so this cannot happen short of memory corruption
+            throw new IllegalStateException("Corrupt log block", e);
+        } finally {
+            inflater.end();
+        }
+
+        Line[] lines = new Line[block.count];
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw))) {
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = Line.read(in);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        synchronized (inflated) {
+            inflated.put(block.id, lines);
+        }
+        return lines;
+    }
+
+    private static int sourceBit(String source) {
+        if (CONSOLE.equals(source)) {
+            return 1;
+        } else if (CHAT.equals(source)) {
+            return 2;
+        } else if (NOTICE.equals(source)) {
+            return 4;
+        }
+        return 8;
+    }
+
+    private static class Block {
+        final long id;
+        final byte[] data;
+        final int rawLength;
+        final int count;
+        final int sources;
+        final long firstMillis;
+        final long lastMillis;
+
+        Block(long id, byte[] data, int rawLength, int count, int sources, long firstMillis, long lastMillis) {
+            this.id = id;
+            this.data = data;
+            this.rawLength = rawLength;
+            this.count = count;
+            this.sources = sources;
+            this.firstMillis = firstMillis;
+            this.lastMillis = lastMillis;
+        }
+    }
+
+    /**
+     * One log line. Console records keep their logger, thread, level and stack trace; other lines only
+     * have a source and a message.
+     */
+    public static class Line {
+        public final long millis;
+        public final String source;
+        public final String levelName;
+        public final Level level;
+        public final String loggerName;
+        public final String threadName;
+        public final String message;
+        public final String thrown;
+
+        public Line(long millis, String source, String levelName, String loggerName, String threadName,
+                    String message, String thrown) {
+            this.millis = millis;
+            this.source = source;
+            this.levelName = levelName;
+            this.level = resolveLevel(levelName);
+            this.loggerName = loggerName;
+            this.threadName = threadName;
+            this.message = message;
+            this.thrown = thrown;
+        }
+
+        public boolean matches(LogFilter filter) {
+            return filter.matches(millis, level, loggerName, threadName, message);
+        }
+
+        /**
+         * The line as the console shows it: "[HH:mm:ss] [thread/LEVEL]: message", or the message of
+         * pre-formatted and chat lines
+         */
+        public String consoleText() {
+            if (threadName == null) {
+                return message;
+            }
+            return "[" + TIME_FORMAT.format(toLocal(millis)) + "] [" + threadName + "/"
+                    + (levelName != null ? levelName : "INFO") + "]: " + message;
+        }
+
+        /**
+         * The line as written to the combined log: "[yyyy-MM-dd HH:mm:ss] SOURCE: ...", without the source
+         * for lines that have none
+         */
+        public String combinedText() {
+            if (millis == 0) {
+                // Recovered from a line without a timestamp
+                return message;
+            }
+            String stamp = "[" + STAMP_FORMAT.format(toLocal(millis)) + "] ";
+            return source != null ? stamp + source + ": " + consoleText() : stamp + message;
+        }
+
+        public String text(View view) {
+            return view == View.COMBINED ? combinedText() : consoleText();
+        }
+
+        int estimateBytes() {
+            return 24 + length(source) + length(levelName) + length(loggerName) + length(threadName)
+                    + length(message) + length(thrown);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(millis);
+            writeString(out, source);
+            writeString(out, levelName);
+            writeString(out, loggerName);
+            writeString(out, threadName);
+            writeString(out, message);
+            writeString(out, thrown);
+        }
+
+        static Line read(DataInputStream in) throws IOException {
+            return new Line(in.readLong(), readString(in), readString(in), readString(in), readString(in),
+                    readString(in), readString(in));
+        }
+
+        private static int length(String value) {
+            return value != null ? value.length() : 0;
+        }
+
+        // writeUTF is limited to 64 KB, which a long stack trace can exceed
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static Level resolveLevel(String name) {
+            if (name == null) {
+                return null;
+            }
+            try {
+                return LogFilter.parseLevel(name);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        private static LocalDateTime toLocal(long millis) {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        }
+    }
+}
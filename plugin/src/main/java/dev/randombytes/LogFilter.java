@@ -0,0 +1,115 @@
+package dev.randombytes;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Server-side filter over structured log records: minimum level, logger or plugin prefix, thread name,
+ * message regex and time range. Unset criteria match everything.
+ */
+public class LogFilter {
+    public static final LogFilter NONE = new LogFilter(Integer.MIN_VALUE, null, null, null, Long.MIN_VALUE, Long.MAX_VALUE);
+
+    private final int minLevel;
+    private final String logger;
+    private final String thread;
+    private final Pattern pattern;
+    private final long from;
+    private final long to;
+
+    public LogFilter(int minLevel, String logger, String thread, Pattern pattern, long from, long to) {
+        this.minLevel = minLevel;
+        this.logger = logger != null ? logger.toLowerCase(Locale.ROOT) : null;
+        this.thread = thread;
+        this.pattern = pattern;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Reads level, logger, thread, regex, from and to (epoch millis) from query parameters
+     * @throws IllegalArgumentException if a level, regex or time is malformed
+     */
+    public static LogFilter fromParams(Map<String, String> params) {
+        int minLevel = params.containsKey("level") ? parseLevel(params.get("level")).intValue() : Integer.MIN_VALUE;
+        Pattern pattern = null;
+        if (params.containsKey("regex") && !params.get("regex").isEmpty()) {
+            try {
+                pattern = Pattern.compile(params.get("regex"));
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid regex: " + e.getDescription());
+            }
+        }
+        long from = params.containsKey("from") ? Long.parseLong(params.get("from")) : Long.MIN_VALUE;
+        long to = params.containsKey("to") ? Long.parseLong(params.get("to")) : Long.MAX_VALUE;
+        return new LogFilter(minLevel, emptyToNull(params.get("logger")), emptyToNull(params.get("thread")),
+                pattern, from, to);
+    }
+
+    /**
+     * JUL level names plus the WARN/ERROR/DEBUG/TRACE names other loggers use
+     */
+    public static Level parseLevel(String name) {
+        switch (name.trim().toUpperCase(Locale.ROOT)) {
+            case "WARN":
+                return Level.WARNING;
+            case "ERROR":
+            case "FATAL":
+                return Level.SEVERE;
+            case "DEBUG":
+                return Level.FINE;
+            case "TRACE":
+                return Level.FINEST;
+            default:
+                return Level.parse(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public boolean isEmpty() {
+        return minLevel == Integer.MIN_VALUE && logger == null && thread == null && pattern == null
+                && from == Long.MIN_VALUE && to == Long.MAX_VALUE;
+    }
+
+    /**
+     * Records without a level count as INFO. The logger criterion matches a logger name prefix or, since
+     * plugin loggers tag their messages, a leading "[PluginName" in the message.
+     */
+    public boolean matches(long millis, Level level, String loggerName, String threadName, String message) {
+        if (millis < from || millis > to) {
+            return false;
+        }
+        if ((level != null ? level.intValue() : Level.INFO.intValue()) < minLevel) {
+            return false;
+        }
+        if (thread != null && !thread.equalsIgnoreCase(threadName)) {
+            return false;
+        }
+        if (logger != null && !matchesLogger(loggerName, message)) {
+            return false;
+        }
+        return pattern == null || (message != null && pattern.matcher(message).find());
+    }
+
+    private boolean matchesLogger(String loggerName, String message) {
+        if (loggerName != null && loggerName.toLowerCase(Locale.ROOT).startsWith(logger)) {
+            return true;
+        }
+        return message != null && message.startsWith("[")
+                && message.regionMatches(true, 1, logger, 0, logger.length());
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+}
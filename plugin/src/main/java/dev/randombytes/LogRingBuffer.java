@@ -0,0 +1,190 @@
+package dev.randombytes;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.MessageFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Bounded multi-producer, single-consumer ring buffer for log records. Producers claim a slot with one atomic
+ * increment and never wait; the oldest record is overwritten, so eviction is O(1). Records keep the raw
+ * LogRecord fields and are only formatted when someone reads them.
+ * If the consumer falls more than a full ring behind, the records it missed are counted as dropped.
+ */
+public class LogRingBuffer {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+
+    private final int mask;
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLong head = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    // Only touched by the consumer
+    private long tail;
+
+    /**
+     * @param minCapacity Rounded up to a power of two
+     */
+    public LogRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, minCapacity) - 1) << 1;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Adds a record. Safe to call from any thread, including while the JUL handler is running.
+     */
+    public void publish(LogRecord record, String threadName) {
+        publish(record.getMillis(), record.getLevel(), record.getLoggerName(), record.getMessage(),
+                record.getParameters(), record.getThrown(), threadName);
+    }
+
+    public void publish(long millis, Level level, String loggerName, String message, Object[] parameters,
+                        Throwable thrown, String threadName) {
+        long sequence = head.getAndIncrement();
+        slots.set((int) (sequence & mask), new Entry(sequence, millis, level, loggerName, message, parameters,
+                thrown, threadName));
+    }
+
+    /**
+     * Hands every record published since the last call to the consumer, in order. Only one thread may drain.
+     * @return Number of records handed over
+     */
+    public int drain(Consumer<Entry> consumer) {
+        long end = head.get();
+        int drained = 0;
+        while (tail < end) {
+            // Lapped: everything older than one ring is gone
+            if (end - tail > slots.length()) {
+                long lost = end - slots.length() - tail;
+                dropped.add(lost);
+                tail += lost;
+            }
+            Entry entry = slots.get((int) (tail & mask));
+            if (entry == null || entry.sequence < tail) {
+                // Claimed but not written yet; pick it up on the next drain
+                break;
+            }
+            if (entry.sequence == tail) {
+                consumer.accept(entry);
+                drained++;
+            } else {
+                dropped.increment();
+            }
+            tail++;
+        }
+        return drained;
+    }
+
+    /**
+     * Copies up to limit of the newest records, oldest first, without affecting the consumer
+     */
+    public List<Entry> snapshot(int limit) {
+        long end = head.get();
+        long start = Math.max(0, end - Math.min(limit, slots.length()));
+        List<Entry> result = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Entry entry = slots.get((int) (sequence & mask));
+            // Skip slots not written yet or already overwritten by a newer record
+            if (entry != null && entry.sequence == sequence) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getPublished() {
+        return head.get();
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * A log record as published; formatted on first read
+     */
+    public static class Entry {
+        public final long sequence;
+        public final long millis;
+        public final Level level;
+        public final String loggerName;
+        public final String message;
+        public final Object[] parameters;
+        public final Throwable thrown;
+        public final String threadName;
+        private volatile String formatted;
+
+        Entry(long sequence, long millis, Level level, String loggerName, String message, Object[] parameters,
+              Throwable thrown, String threadName) {
+            this.sequence = sequence;
+            this.millis = millis;
+            this.level = level;
+            this.loggerName = loggerName;
+            this.message = message;
+            this.parameters = parameters;
+            this.thrown = thrown;
+            this.threadName = threadName;
+        }
+
+        /**
+         * The message with its parameters filled in, the way java.util.logging.Formatter does it
+         */
+        public String formatMessage() {
+            if (message == null) {
+                return "";
+            }
+            if (parameters == null || parameters.length == 0 || !message.contains("{")) {
+                return message;
+            }
+            try {
+                return MessageFormat.format(message, parameters);
+            } catch (IllegalArgumentException e) {
+                return message;
+            }
+        }
+
+        /**
+         * The stack trace of the logged exception, or null
+         */
+        public String thrownText() {
+            if (thrown == null) {
+                return null;
+            }
+            StringWriter text = new StringWriter();
+            thrown.printStackTrace(new PrintWriter(text));
+            return text.toString();
+        }
+
+        /**
+         * "[HH:mm:ss] [thread/LEVEL]: message", as the console shows it. Lines published without a thread
+         * are already formatted and returned as they are.
+         */
+        public String format() {
+            if (threadName == null) {
+                return formatMessage();
+            }
+            String result = formatted;
+            if (result == null) {
+                result = "[" + TIME_FORMAT.format(Instant.ofEpochMilli(millis)) + "] [" + threadName + "/"
+                        + (level != null ? level.getName() : "INFO") + "]: " + formatMessage();
+                formatted = result;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,557 @@
+package dev.randombytes;
+
+import org.bukkit.plugin.Plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+
+/**
+ * Searches the combined log segments. Every sealed segment (all but the one being written) gets an index file
+ * next to it holding its time range, a sparse timestamp index and a bloom filter of the words it contains,
+ * so a search only reads segments that overlap the time range and may contain every query word, and
+ * starts reading them near the requested start time.
+ */
+public class LogSearchIndex {
+    private static final int MAGIC = 0x4D434C49; // "MCLI"
+    private static final int VERSION = 1;
+    private static final String INDEX_SUFFIX = ".idx";
+    // One timestamp entry per this many lines
+    private static final int SPARSE_INTERVAL = 1024;
+    private static final int BLOOM_BITS_PER_TOKEN = 10;
+    private static final int BLOOM_HASHES = 7;
+    private static final DateTimeFormatter STAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Width of the "[yyyy-MM-dd HH:mm:ss] " prefix every combined log line starts with
+    private static final int STAMP_LENGTH = 22;
+
+    private final Plugin plugin;
+    private final CombinedLogWriter writer;
+    // Lines from different sources reach the writer out of order, so a scan only stops once a line is this far
+    // past the end of the range, and starts this far before the start
+    private final long orderSlackMillis;
+    private final Map<String, SegmentIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * @param orderSlackMillis How much later than its timestamp a line may be written, e.g. a repeat summary
+     *                         stamped with its last repeat and written when the window ends
+     */
+    public LogSearchIndex(Plugin plugin, CombinedLogWriter writer, long orderSlackMillis) {
+        this.plugin = plugin;
+        this.writer = writer;
+        this.orderSlackMillis = orderSlackMillis;
+    }
+
+    /**
+     * Builds missing or outdated indexes for sealed segments and removes indexes whose segment is gone
+     */
+    public void indexSealed() {
+        List<File> segments = writer.segments();
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < segments.size(); i++) {
+            File segment = segments.get(i);
+            names.add(segment.getName());
+            if (i < segments.size() - 1) {
+                try {
+                    index(segment);
+                } catch (IOException e) {
+                    plugin.getLogger().log(Level.WARNING, "Failed to index log segment " + segment.getName(), e);
+                }
+            }
+        }
+        indexes.keySet().retainAll(names);
+        File[] indexFiles = segments.isEmpty() ? null : segments.get(0).getParentFile().listFiles((d, name) -> name.endsWith(INDEX_SUFFIX));
+        if (indexFiles != null) {
+            for (File indexFile : indexFiles) {
+                String segmentName = indexFile.getName().substring(0, indexFile.getName().length() - INDEX_SUFFIX.length());
+                if (!names.contains(segmentName) && !indexFile.delete()) {
+                    plugin.getLogger().fine("Could not delete stale log index " + indexFile.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams lines containing every word of the query (case-insensitive, whole words) in chronological order
+     * @param query Words to look for; empty matches every line in the time range
+     * @param from Earliest time in epoch millis, inclusive
+     * @param to Latest time in epoch millis, inclusive
+     * @param limit Maximum number of lines passed to the consumer
+     */
+    public SearchStats search(String query, long from, long to, int limit, LineConsumer consumer) throws IOException {
+        List<String> terms = new ArrayList<>(tokenize(query));
+        // Stamps have second precision
+        if (from != Long.MIN_VALUE) {
+            from = Math.floorDiv(from, 1000L) * 1000L;
+        }
+        String fromStamp = from == Long.MIN_VALUE ? null : stamp(from);
+        String toStamp = to == Long.MAX_VALUE ? null : stamp(to);
+        String stopStamp = to >= Long.MAX_VALUE - orderSlackMillis ? null : stamp(to + orderSlackMillis);
+        SearchStats stats = new SearchStats();
+
+        List<File> segments = writer.segments();
+        for (int i = 0; i < segments.size() && stats.matches < limit; i++) {
+            File segment = segments.get(i);
+            long start = 0;
+            if (i < segments.size() - 1) {
+                SegmentIndex index;
+                try {
+                    index = index(segment);
+                } catch (IOException e) {
+                    plugin.getLogger().log(Level.WARNING, "Failed to index log segment " + segment.getName(), e);
+                    index = null;
+                }
+                if (index != null) {
+                    if (index.lastMillis < from || index.firstMillis > to || !index.mightContainAll(terms)) {
+                        stats.segmentsSkipped++;
+                        continue;
+                    }
+                    start = index.offsetBefore(from == Long.MIN_VALUE ? from : from - orderSlackMillis);
+                }
+            }
+            stats.segmentsScanned++;
+            if (scan(segment, start, terms, fromStamp, toStamp, stopStamp, limit, consumer, stats)) {
+                // Lines are in time order up to the slack, so nothing later can be in range either
+                break;
+            }
+        }
+        return stats;
+    }
+
+    // Returns true once a line past the end of the range and the slack is reached
+    private boolean scan(File segment, long start, List<String> terms, String fromStamp, String toStamp, String stopStamp,
+                         int limit, LineConsumer consumer, SearchStats stats) throws IOException {
+        try (FileInputStream in = new FileInputStream(segment)) {
+            in.getChannel().position(start);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+            String line;
+            boolean inRange = true;
+            while ((line = reader.readLine()) != null) {
+                boolean stamped = hasStamp(line);
+                if (stamped) {
+                    // The stamp format sorts like the time it represents, so no parsing is needed
+                    if (stopStamp != null && compareStamp(line, stopStamp) > 0) {
+                        return true;
+                    }
+                    inRange = (fromStamp == null || compareStamp(line, fromStamp) >= 0)
+                            && (toStamp == null || compareStamp(line, toStamp) <= 0);
+                }
+                // Unstamped lines continue the stamped line before them, e.g. stack traces
+                if (inRange && matchesAll(line, stamped ? STAMP_LENGTH - 1 : 0, terms)) {
+                    consumer.accept(line);
+                    if (++stats.matches >= limit) {
+                        stats.truncated = true;
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private SegmentIndex index(File segment) throws IOException {
+        long length = segment.length();
+        SegmentIndex cached = indexes.get(segment.getName());
+        if (cached != null && cached.segmentLength == length) {
+            return cached;
+        }
+        File indexFile = new File(segment.getParentFile(), segment.getName() + INDEX_SUFFIX);
+        SegmentIndex index = indexFile.isFile() ? readIndex(indexFile) : null;
+        if (index == null || index.segmentLength != length) {
+            index = build(segment);
+            writeIndex(indexFile, index);
+        }
+        indexes.put(segment.getName(), index);
+        return index;
+    }
+
+    private SegmentIndex build(File segment) throws IOException {
+        IntSet tokenHashes = new IntSet();
+        List<long[]> sparse = new ArrayList<>();
+        long firstMillis = Long.MAX_VALUE;
+        long lastMillis = Long.MIN_VALUE;
+        long previousMillis = 0;
+        String previousStamp = "\0";
+        long offset = 0;
+        int lineNumber = 0;
+
+        // Works on bytes rather than characters so line offsets are exact file positions
+        try (InputStream in = new FileInputStream(segment)) {
+            byte[] buffer = new byte[1 << 16];
+            byte[] lineBytes = new byte[256];
+            int length = 0;
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != '\n') {
+                        if (length == lineBytes.length) {
+                            lineBytes = Arrays.copyOf(lineBytes, length * 2);
+                        }
+                        lineBytes[length++] = buffer[i];
+                        continue;
+                    }
+                    String line = new String(lineBytes, 0, length, StandardCharsets.UTF_8);
+                    boolean stamped = hasStamp(line);
+                    long millis = previousMillis;
+                    if (stamped && !line.startsWith(previousStamp)) {
+                        // Many lines share a second; only parse when the stamp changes
+                        previousStamp = line.substring(0, STAMP_LENGTH - 1);
+                        millis = parseStamp(line, previousMillis);
+                    }
+                    if (stamped) {
+                        firstMillis = Math.min(firstMillis, millis);
+                        lastMillis = Math.max(lastMillis, millis);
+                    }
+                    if (lineNumber % SPARSE_INTERVAL == 0) {
+                        sparse.add(new long[]{millis, offset});
+                    }
+                    hashTokens(line, stamped ? STAMP_LENGTH - 1 : 0, tokenHashes);
+                    previousMillis = millis;
+                    offset += length + 1;
+                    lineNumber++;
+                    length = 0;
+                }
+            }
+        }
+        // A sealed segment always ends with a newline; anything after the last one is ignored
+        if (firstMillis > lastMillis) {
+            // No timestamps at all, so the segment could belong to any time
+            firstMillis = Long.MIN_VALUE;
+            lastMillis = Long.MAX_VALUE;
+        }
+
+        int bits = Integer.highestOneBit(Math.max(1024, tokenHashes.size() * BLOOM_BITS_PER_TOKEN) - 1) << 1;
+        long[] bloom = new long[bits / 64];
+        tokenHashes.forEach(hash -> addToBloom(bloom, hash));
+        long[] sparseMillis = new long[sparse.size()];
+        long[] sparseOffsets = new long[sparse.size()];
+        for (int i = 0; i < sparse.size(); i++) {
+            sparseMillis[i] = sparse.get(i)[0];
+            sparseOffsets[i] = sparse.get(i)[1];
+        }
+        return new SegmentIndex(segment.length(), firstMillis, lastMillis, sparseMillis, sparseOffsets, bloom);
+    }
+
+    private SegmentIndex readIndex(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long segmentLength = in.readLong();
+            long firstMillis = in.readLong();
+            long lastMillis = in.readLong();
+            int sparseCount = in.readInt();
+            long[] sparseMillis = new long[sparseCount];
+            long[] sparseOffsets = new long[sparseCount];
+            for (int i = 0; i < sparseCount; i++) {
+                sparseMillis[i] = in.readLong();
+                sparseOffsets[i] = in.readLong();
+            }
+            long[] bloom = new long[in.readInt()];
+            for (int i = 0; i < bloom.length; i++) {
+                bloom[i] = in.readLong();
+            }
+            return new SegmentIndex(segmentLength, firstMillis, lastMillis, sparseMillis, sparseOffsets, bloom);
+        } catch (IOException e) {
+            // Rebuilt from the segment
+            return null;
+        }
+    }
+
+    private void writeIndex(File file, SegmentIndex index) throws IOException {
+        // A search and the periodic indexing can build the same segment's index at once, so each writes its own file
+        File tmp = Files.createTempFile(file.getParentFile().toPath(), file.getName() + ".", ".tmp").toFile();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(index.segmentLength);
+            out.writeLong(index.firstMillis);
+            out.writeLong(index.lastMillis);
+            out.writeInt(index.sparseMillis.length);
+            for (int i = 0; i < index.sparseMillis.length; i++) {
+                out.writeLong(index.sparseMillis[i]);
+                out.writeLong(index.sparseOffsets[i]);
+            }
+            out.writeInt(index.bloom.length);
+            for (long word : index.bloom) {
+                out.writeLong(word);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Lower-cased runs of letters and digits, at least two characters long
+     */
+    static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start >= 2) {
+                    StringBuilder token = new StringBuilder(i - start);
+                    for (int j = start; j < i; j++) {
+                        token.append(Character.toLowerCase(text.charAt(j)));
+                    }
+                    tokens.add(token.toString());
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Adds the hash of every token after the start index without creating strings; the hash equals
+     * String.hashCode() of the lower-cased token, so query terms can be checked with term.hashCode()
+     */
+    private static void hashTokens(String text, int start, IntSet hashes) {
+        int hash = 0;
+        int length = 0;
+        for (int i = start; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                hash = 31 * hash + Character.toLowerCase(c);
+                length++;
+            } else {
+                if (length >= 2) {
+                    hashes.add(hash);
+                }
+                hash = 0;
+                length = 0;
+            }
+        }
+    }
+
+    /**
+     * Whether every term is a whole word of the line after the start index; lower-cases character by
+     * character like tokenize() and hashTokens(), so a line matches exactly when its tokens contain the terms
+     */
+    private static boolean matchesAll(String line, int start, List<String> terms) {
+        if (terms.isEmpty()) {
+            return true;
+        }
+        char[] chars = new char[line.length() - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(line.charAt(start + i));
+        }
+        String lower = new String(chars);
+        for (String term : terms) {
+            if (!containsWord(lower, term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsWord(String text, String word) {
+        int at = text.indexOf(word);
+        while (at >= 0) {
+            int end = at + word.length();
+            if ((at == 0 || !Character.isLetterOrDigit(text.charAt(at - 1)))
+                    && (end == text.length() || !Character.isLetterOrDigit(text.charAt(end)))) {
+                return true;
+            }
+            at = text.indexOf(word, at + 1);
+        }
+        return false;
+    }
+
+    private static boolean hasStamp(String line) {
+        return line.length() >= STAMP_LENGTH - 1 && line.charAt(0) == '[' && line.charAt(STAMP_LENGTH - 2) == ']';
+    }
+
+    private static int compareStamp(String line, String stamp) {
+        for (int i = 0; i < stamp.length(); i++) {
+            int difference = line.charAt(i) - stamp.charAt(i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    private static long parseStamp(String line, long fallback) {
+        try {
+            return LocalDateTime.parse(line.substring(1, STAMP_LENGTH - 2), STAMP_FORMAT)
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return fallback;
+        }
+    }
+
+    private static String stamp(long millis) {
+        return "[" + STAMP_FORMAT.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault())) + "]";
+    }
+
+    private static void addToBloom(long[] bloom, int tokenHash) {
+        int h1 = mix(tokenHash);
+        int h2 = mix(h1 ^ 0x9E3779B9) | 1;
+        int mask = bloom.length * 64 - 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bloom[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private static boolean bloomContains(long[] bloom, int tokenHash) {
+        int h1 = mix(tokenHash);
+        int h2 = mix(h1 ^ 0x9E3779B9) | 1;
+        int mask = bloom.length * 64 - 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // murmur3 finalizer, so similar words land far apart
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    // Open-addressing set of ints; 0 is stored in a separate flag
+    private static class IntSet {
+        private int[] slots = new int[1024];
+        private int size;
+        private boolean hasZero;
+
+        void add(int value) {
+            if (value == 0) {
+                if (!hasZero) {
+                    hasZero = true;
+                    size++;
+                }
+                return;
+            }
+            if (size * 2 >= slots.length) {
+                int[] old = slots;
+                slots = new int[old.length * 2];
+                for (int v : old) {
+                    if (v != 0) {
+                        insert(v);
+                    }
+                }
+            }
+            if (insert(value)) {
+                size++;
+            }
+        }
+
+        private boolean insert(int value) {
+            int mask = slots.length - 1;
+            for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+                if (slots[i] == value) {
+                    return false;
+                }
+                if (slots[i] == 0) {
+                    slots[i] = value;
+                    return true;
+                }
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        void forEach(IntConsumer consumer) {
+            if (hasZero) {
+                consumer.accept(0);
+            }
+            for (int v : slots) {
+                if (v != 0) {
+                    consumer.accept(v);
+                }
+            }
+        }
+    }
+
+    public interface LineConsumer {
+        void accept(String line) throws IOException;
+    }
+
+    public static class SearchStats {
+        public int matches;
+        public int segmentsScanned;
+        public int segmentsSkipped;
+        public boolean truncated;
+    }
+
+    private static class SegmentIndex {
+        final long segmentLength;
+        final long firstMillis;
+        final long lastMillis;
+        final long[] sparseMillis;
+        final long[] sparseOffsets;
+        final long[] bloom;
+
+        SegmentIndex(long segmentLength, long firstMillis, long lastMillis, long[] sparseMillis, long[] sparseOffsets, long[] bloom) {
+            this.segmentLength = segmentLength;
+            this.firstMillis = firstMillis;
+            this.lastMillis = lastMillis;
+            this.sparseMillis = sparseMillis;
+            this.sparseOffsets = sparseOffsets;
+            this.bloom = bloom;
+        }
+
+        boolean mightContainAll(List<String> terms) {
+            for (String term : terms) {
+                if (!bloomContains(bloom, term.hashCode())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Offset of the last indexed line strictly before the time, so no line at that time is skipped
+        long offsetBefore(long millis) {
+            long offset = 0;
+            for (int i = 0; i < sparseMillis.length && sparseMillis[i] < millis; i++) {
+                offset = sparseOffsets[i];
+            }
+            return offset;
+        }
+    }
+}
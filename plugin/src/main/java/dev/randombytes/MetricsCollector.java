@@ -8,20 +8,42 @@ import org.bukkit.plugin.java.JavaPlugin;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 
 public class MetricsCollector {
     private final Plugin plugin;
     private final Queue<MetricSnapshot> snapshots;
     private final int maxSnapshots = 600; // 10 minutes at 1 snapshot per second
     private int taskId;
+    private int threadCpuTaskId = -1;
+    
+    // Thread CPU accounting, only touched by the async sampling task
+    private final ThreadMXBean threadBean;
+    private final Map<Long, ThreadGroupType> threadGroups;
+    private final Map<Long, String> threadNames;
+    private final Map<Long, Long> lastThreadCpu;
+    private long lastProcessCpu = -1;
+    private volatile long[] latestGroupCpuMs;
+    private volatile List<ThreadCpu> latestThreadCpu;
     
     public MetricsCollector(Plugin plugin) {
         this.plugin = plugin;
         this.snapshots = new LinkedList<>();
+        this.threadBean = ManagementFactory.getThreadMXBean();
+        this.threadGroups = new HashMap<>();
+        this.threadNames = new HashMap<>();
+        this.lastThreadCpu = new HashMap<>();
+        this.latestGroupCpuMs = new long[ThreadGroupType.values().length];
+        this.latestThreadCpu = new ArrayList<>();
         startCollecting();
     }
     
@@ -30,10 +52,98 @@ public class MetricsCollector {
         taskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, () -> {
             collectSnapshot();
         }, 0L, 20L); // 20 ticks = 1 second
+        
+        // Per-thread CPU times are sampled off the main thread on the same interval
+        if (threadBean.isThreadCpuTimeSupported()) {
+            if (!threadBean.isThreadCpuTimeEnabled()) {
+                threadBean.setThreadCpuTimeEnabled(true);
+            }
+            threadCpuTaskId = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::sampleThreadCpu, 20L, 20L).getTaskId();
+        }
     }
     
     public void stop() {
         Bukkit.getScheduler().cancelTask(taskId);
+        if (threadCpuTaskId != -1) {
+            Bukkit.getScheduler().cancelTask(threadCpuTaskId);
+        }
+    }
+    
+    private void sampleThreadCpu() {
+        long[] ids = threadBean.getAllThreadIds();
+        long[] cpuTimes;
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            cpuTimes = ((com.sun.management.ThreadMXBean) threadBean).getThreadCpuTime(ids);
+        } else {
+            cpuTimes = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                cpuTimes[i] = threadBean.getThreadCpuTime(ids[i]);
+            }
+        }
+        
+        // Thread names are only looked up for threads we haven't seen before
+        for (long id : ids) {
+            if (!threadGroups.containsKey(id)) {
+                ThreadInfo info = threadBean.getThreadInfo(id);
+                String name = info != null ? info.getThreadName() : "unknown";
+                threadNames.put(id, name);
+                threadGroups.put(id, ThreadGroupType.classify(name));
+            }
+        }
+        
+        boolean firstSample = lastThreadCpu.isEmpty();
+        long[] groupNanos = new long[ThreadGroupType.values().length];
+        long javaThreadNanos = 0;
+        List<ThreadCpu> threads = new ArrayList<>();
+        Set<Long> alive = new HashSet<>();
+        
+        for (int i = 0; i < ids.length; i++) {
+            if (cpuTimes[i] < 0) {
+                continue; // Thread died or CPU time unavailable
+            }
+            alive.add(ids[i]);
+            Long previous = lastThreadCpu.put(ids[i], cpuTimes[i]);
+            long delta = cpuTimes[i] - (previous != null ? previous : 0L);
+            if (delta <= 0) {
+                continue;
+            }
+            ThreadGroupType group = threadGroups.get(ids[i]);
+            groupNanos[group.ordinal()] += delta;
+            javaThreadNanos += delta;
+            threads.add(new ThreadCpu(threadNames.get(ids[i]), group, delta / 1_000_000L));
+        }
+        
+        lastThreadCpu.keySet().retainAll(alive);
+        threadGroups.keySet().retainAll(alive);
+        threadNames.keySet().retainAll(alive);
+        
+        // GC and JIT threads are not Java threads; attribute the remaining process CPU to them
+        long processCpu = getProcessCpuTime();
+        if (processCpu >= 0 && lastProcessCpu >= 0) {
+            long jvmNanos = (processCpu - lastProcessCpu) - javaThreadNanos;
+            groupNanos[ThreadGroupType.GC_JVM.ordinal()] += Math.max(0, jvmNanos);
+        }
+        lastProcessCpu = processCpu;
+        
+        if (firstSample) {
+            return;
+        }
+        
+        long[] groupMs = new long[groupNanos.length];
+        for (int i = 0; i < groupNanos.length; i++) {
+            groupMs[i] = groupNanos[i] / 1_000_000L;
+        }
+        threads.sort((a, b) -> Long.compare(b.cpuMs, a.cpuMs));
+        latestThreadCpu = threads.size() > 50 ? new ArrayList<>(threads.subList(0, 50)) : threads;
+        latestGroupCpuMs = groupMs;
+    }
+    
+    private long getProcessCpuTime() {
+        OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime();
+        }
+        return -1;
     }
     
     private void collectSnapshot() {
@@ -42,7 +152,8 @@ public class MetricsCollector {
             Bukkit.getOnlinePlayers().size(),
             getTPS(),
             getMemoryUsage(),
-            getCPUUsage()
+            getCPUUsage(),
+            latestGroupCpuMs
         );
         
         synchronized (snapshots) {
@@ -72,6 +183,7 @@ public class MetricsCollector {
             point.addProperty("tps", snapshot.tps);
             point.addProperty("memory", snapshot.memoryUsage);
             point.addProperty("cpu", snapshot.cpuUsage);
+            point.add("threadCpu", groupsToJson(snapshot.threadCpuMs));
             data.add(point);
         }
         
@@ -81,6 +193,35 @@ public class MetricsCollector {
         return result;
     }
     
+    /**
+     * Gets the CPU time used per thread group and by the busiest threads during the last interval
+     */
+    public JsonObject getThreadCpu() {
+        JsonObject result = new JsonObject();
+        result.addProperty("supported", threadBean.isThreadCpuTimeSupported());
+        result.addProperty("intervalMs", 1000);
+        result.add("groups", groupsToJson(latestGroupCpuMs));
+        
+        JsonArray threads = new JsonArray();
+        for (ThreadCpu thread : latestThreadCpu) {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("name", thread.name);
+            obj.addProperty("group", thread.group.key);
+            obj.addProperty("cpuMs", thread.cpuMs);
+            threads.add(obj);
+        }
+        result.add("threads", threads);
+        return result;
+    }
+    
+    private JsonObject groupsToJson(long[] groupCpuMs) {
+        JsonObject groups = new JsonObject();
+        for (ThreadGroupType group : ThreadGroupType.values()) {
+            groups.addProperty(group.key, groupCpuMs[group.ordinal()]);
+        }
+        return groups;
+    }
+    
     private double getTPS() {
         try {
             // Get server TPS using reflection (Spigot/Paper specific)
@@ -121,13 +262,76 @@ public class MetricsCollector {
         final double tps;
         final double memoryUsage;
         final double cpuUsage;
+        final long[] threadCpuMs;
         
-        MetricSnapshot(long timestamp, int playerCount, double tps, double memoryUsage, double cpuUsage) {
+        MetricSnapshot(long timestamp, int playerCount, double tps, double memoryUsage, double cpuUsage, long[] threadCpuMs) {
             this.timestamp = timestamp;
             this.playerCount = playerCount;
             this.tps = tps;
             this.memoryUsage = memoryUsage;
             this.cpuUsage = cpuUsage;
+            this.threadCpuMs = threadCpuMs;
+        }
+    }
+    
+    private static class ThreadCpu {
+        final String name;
+        final ThreadGroupType group;
+        final long cpuMs;
+        
+        ThreadCpu(String name, ThreadGroupType group, long cpuMs) {
+            this.name = name;
+            this.group = group;
+            this.cpuMs = cpuMs;
+        }
+    }
+    
+    // Thread groups are recognised by the names the server, Netty and the schedulers give their threads
+    private enum ThreadGroupType {
+        SERVER("server"),
+        CHUNK("chunk"),
+        NETTY("netty"),
+        SCHEDULER("scheduler"),
+        HTTP("http"),
+        MC_CONTROL("mccontrol"),
+        GC_JVM("gc"),
+        OTHER("other");
+        
+        final String key;
+        
+        ThreadGroupType(String key) {
+            this.key = key;
+        }
+        
+        static ThreadGroupType classify(String name) {
+            String lower = name.toLowerCase();
+            // The API's own handler pool, checked first so it is not counted as MC Control's background work
+            if (lower.startsWith("mccontrol-api-")) {
+                return HTTP;
+            }
+            if (lower.equals("server thread") || lower.startsWith("server-worker")) {
+                return SERVER;
+            }
+            if (lower.startsWith("worker-main") || lower.contains("chunk") || lower.contains("worldgen") || lower.contains("region")) {
+                return CHUNK;
+            }
+            if (lower.contains("netty") || lower.contains("epoll") || lower.contains("kqueue")) {
+                return NETTY;
+            }
+            if (lower.startsWith("craft scheduler") || lower.contains("scheduler") || lower.contains("async")) {
+                return SCHEDULER;
+            }
+            if (lower.startsWith("http") || lower.contains("httpserver")) {
+                return HTTP;
+            }
+            if (lower.startsWith("mccontrol")) {
+                return MC_CONTROL;
+            }
+            if (lower.contains("gc") || lower.contains("compiler") || lower.contains("finalizer")
+                    || lower.contains("reference handler") || lower.contains("signal dispatcher")) {
+                return GC_JVM;
+            }
+            return OTHER;
         }
     }
 }
@@ -0,0 +1,191 @@
+package dev.randombytes;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Pull parser for gzipped NBT files. Callers walk the tags they need and skip the rest,
+ * so nothing is materialized that is not asked for.
+ */
+public class NbtReader implements AutoCloseable {
+    public static final byte TAG_END = 0;
+    public static final byte TAG_BYTE = 1;
+    public static final byte TAG_SHORT = 2;
+    public static final byte TAG_INT = 3;
+    public static final byte TAG_LONG = 4;
+    public static final byte TAG_FLOAT = 5;
+    public static final byte TAG_DOUBLE = 6;
+    public static final byte TAG_BYTE_ARRAY = 7;
+    public static final byte TAG_STRING = 8;
+    public static final byte TAG_LIST = 9;
+    public static final byte TAG_COMPOUND = 10;
+    public static final byte TAG_INT_ARRAY = 11;
+    public static final byte TAG_LONG_ARRAY = 12;
+
+    // Same limit Minecraft uses; protects the recursive skip from hostile files
+    private static final int MAX_DEPTH = 512;
+
+    private final DataInputStream in;
+
+    private NbtReader(DataInputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Opens a gzipped NBT file and reads the root tag header
+     * @throws IOException If the file is not gzipped or does not start with a compound
+     */
+    public static NbtReader open(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file), 8192), 8192));
+        NbtReader reader = new NbtReader(in);
+        try {
+            if (in.readByte() != TAG_COMPOUND) {
+                throw new IOException("Root tag of " + file.getName() + " is not a compound");
+            }
+            reader.skipString();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return reader;
+    }
+
+    /**
+     * Reads the type of the next entry in the current compound
+     * @return The tag type, or {@link #TAG_END} at the end of the compound
+     */
+    public byte nextType() throws IOException {
+        return in.readByte();
+    }
+
+    /**
+     * Reads the name of the entry whose type was just returned by {@link #nextType()}
+     */
+    public String readName() throws IOException {
+        return in.readUTF();
+    }
+
+    public String readString() throws IOException {
+        return in.readUTF();
+    }
+
+    /**
+     * Reads a list header
+     * @return The element type and the element count
+     */
+    public int[] readListHeader() throws IOException {
+        byte type = in.readByte();
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Negative list length");
+        }
+        return new int[] {type, length};
+    }
+
+    /**
+     * Reads any numeric tag, widening it to a double
+     * @throws IOException If the tag is not numeric
+     */
+    public double readNumber(byte type) throws IOException {
+        switch (type) {
+            case TAG_BYTE: return in.readByte();
+            case TAG_SHORT: return in.readShort();
+            case TAG_INT: return in.readInt();
+            case TAG_LONG: return in.readLong();
+            case TAG_FLOAT: return in.readFloat();
+            case TAG_DOUBLE: return in.readDouble();
+            default: throw new IOException("Tag type " + type + " is not numeric");
+        }
+    }
+
+    /**
+     * Skips the payload of a tag without decoding it
+     */
+    public void skip(byte type) throws IOException {
+        skip(type, 0);
+    }
+
+    private void skip(byte type, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("NBT nested too deeply");
+        }
+        switch (type) {
+            case TAG_BYTE: skipBytes(1); break;
+            case TAG_SHORT: skipBytes(2); break;
+            case TAG_INT:
+            case TAG_FLOAT: skipBytes(4); break;
+            case TAG_LONG:
+            case TAG_DOUBLE: skipBytes(8); break;
+            case TAG_BYTE_ARRAY: skipBytes(readLength()); break;
+            case TAG_INT_ARRAY: skipBytes(4L * readLength()); break;
+            case TAG_LONG_ARRAY: skipBytes(8L * readLength()); break;
+            case TAG_STRING: skipString(); break;
+            case TAG_LIST: {
+                byte elementType = in.readByte();
+                int length = readLength();
+                for (int i = 0; i < length; i++) {
+                    skip(elementType, depth + 1);
+                }
+                break;
+            }
+            case TAG_COMPOUND: {
+                byte entryType;
+                while ((entryType = in.readByte()) != TAG_END) {
+                    skipString();
+                    skip(entryType, depth + 1);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown tag type " + type);
+        }
+    }
+
+    /**
+     * Skips the rest of the current compound
+     */
+    public void skipRest() throws IOException {
+        byte type;
+        while ((type = in.readByte()) != TAG_END) {
+            skipString();
+            skip(type);
+        }
+    }
+
+    private int readLength() throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Negative array length");
+        }
+        return length;
+    }
+
+    private void skipString() throws IOException {
+        skipBytes(in.readUnsignedShort());
+    }
+
+    private void skipBytes(long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                // skip() may return 0 before the end; a read tells the two apart
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,237 @@
+package dev.randombytes;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Reads inventory, ender chest, position, experience and health of offline players straight from
+ * world/playerdata/&lt;uuid&gt;.dat. Parsed results are cached until the file changes.
+ */
+public class OfflinePlayerReader {
+    private static final int MAX_CACHED_PLAYERS = 1000;
+
+    // Slot numbers older versions used for armor and off hand; newer versions keep them in "equipment"
+    private static final Map<String, Integer> EQUIPMENT_SLOTS = Map.of(
+            "feet", 100, "legs", 101, "chest", 102, "head", 103, "offhand", -106);
+
+    private final Plugin plugin;
+    private final File playerDataDir;
+    private final Map<UUID, Cached> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Cached> eldest) {
+            return size() > MAX_CACHED_PLAYERS;
+        }
+    };
+
+    public OfflinePlayerReader(Plugin plugin, File worldFolder) {
+        this.plugin = plugin;
+        this.playerDataDir = new File(worldFolder, "playerdata");
+    }
+
+    /**
+     * Gets the saved state of a player
+     * @return inventory, slots, enderChest, position, xp, health and food, or null if the player has no readable file
+     */
+    public JsonObject read(UUID uuid) {
+        File file = new File(playerDataDir, uuid + ".dat");
+        long modified = file.lastModified();
+        if (modified == 0) {
+            return null;
+        }
+        long length = file.length();
+
+        synchronized (cache) {
+            Cached cached = cache.get(uuid);
+            if (cached != null && cached.modified == modified && cached.length == length) {
+                return cached.data;
+            }
+        }
+
+        JsonObject data;
+        try {
+            data = parse(file);
+        } catch (IOException | RuntimeException e) {
+            // The server replaces the file atomically, so this is a damaged file rather than a partial write
+            plugin.getLogger().fine("Could not read player data file " + file.getName() + ": " + e.getMessage());
+            return null;
+        }
+        synchronized (cache) {
+            cache.put(uuid, new Cached(modified, length, data));
+        }
+        return data;
+    }
+
+    private JsonObject parse(File file) throws IOException {
+        JsonArray slots = new JsonArray();
+        JsonArray enderChest = new JsonArray();
+        Map<String, Integer> itemCounts = new TreeMap<>();
+        JsonObject position = new JsonObject();
+        JsonObject xp = new JsonObject();
+        JsonObject result = new JsonObject();
+
+        try (NbtReader nbt = NbtReader.open(file)) {
+            byte type;
+            while ((type = nbt.nextType()) != NbtReader.TAG_END) {
+                String name = nbt.readName();
+                switch (name) {
+                    case "Inventory":
+                        readItemList(nbt, type, slots, itemCounts);
+                        break;
+                    case "EnderItems":
+                        readItemList(nbt, type, enderChest, null);
+                        break;
+                    case "equipment":
+                        readEquipment(nbt, type, slots, itemCounts);
+                        break;
+                    case "Pos":
+                        readPosition(nbt, type, position);
+                        break;
+                    case "Dimension":
+                        // A namespaced id since 1.16, a number before
+                        position.addProperty("dimension", type == NbtReader.TAG_STRING
+                                ? nbt.readString() : String.valueOf((int) nbt.readNumber(type)));
+                        break;
+                    case "XpLevel":
+                        xp.addProperty("level", (int) nbt.readNumber(type));
+                        break;
+                    case "XpP":
+                        xp.addProperty("progress", (float) nbt.readNumber(type));
+                        break;
+                    case "XpTotal":
+                        xp.addProperty("total", (int) nbt.readNumber(type));
+                        break;
+                    case "Health":
+                        result.addProperty("health", (float) nbt.readNumber(type));
+                        break;
+                    case "foodLevel":
+                        result.addProperty("food", (int) nbt.readNumber(type));
+                        break;
+                    case "SelectedItemSlot":
+                        result.addProperty("selectedSlot", (int) nbt.readNumber(type));
+                        break;
+                    default:
+                        nbt.skip(type);
+                }
+            }
+        }
+
+        result.add("inventory", InventoryCache.toJson(itemCounts));
+        result.add("slots", slots);
+        result.add("enderChest", enderChest);
+        result.add("position", position);
+        result.add("xp", xp);
+        return result;
+    }
+
+    // Reads a list of item compounds with a Slot tag into slot entries, adding their amounts to itemCounts
+    private void readItemList(NbtReader nbt, byte type, JsonArray slots, Map<String, Integer> itemCounts) throws IOException {
+        if (type != NbtReader.TAG_LIST) {
+            nbt.skip(type);
+            return;
+        }
+        int[] header = nbt.readListHeader();
+        if (header[0] != NbtReader.TAG_COMPOUND) {
+            for (int i = 0; i < header[1]; i++) {
+                nbt.skip((byte) header[0]);
+            }
+            return;
+        }
+        for (int i = 0; i < header[1]; i++) {
+            addItem(readItem(nbt), null, slots, itemCounts);
+        }
+    }
+
+    // 1.21.5+ stores armor and off hand as named item compounds
+    private void readEquipment(NbtReader nbt, byte type, JsonArray slots, Map<String, Integer> itemCounts) throws IOException {
+        if (type != NbtReader.TAG_COMPOUND) {
+            nbt.skip(type);
+            return;
+        }
+        byte entryType;
+        while ((entryType = nbt.nextType()) != NbtReader.TAG_END) {
+            String slot = nbt.readName();
+            if (entryType != NbtReader.TAG_COMPOUND || !EQUIPMENT_SLOTS.containsKey(slot)) {
+                nbt.skip(entryType);
+                continue;
+            }
+            addItem(readItem(nbt), EQUIPMENT_SLOTS.get(slot), slots, itemCounts);
+        }
+    }
+
+    private void addItem(Item item, Integer slot, JsonArray slots, Map<String, Integer> itemCounts) {
+        if (item.id == null || item.count <= 0 || item.id.equals("minecraft:air")) {
+            return;
+        }
+        JsonObject obj = new JsonObject();
+        obj.addProperty("slot", slot != null ? slot : item.slot);
+        obj.addProperty("id", item.id);
+        obj.addProperty("name", InventoryCache.formatItemName(item.id));
+        obj.addProperty("count", item.count);
+        slots.add(obj);
+        if (itemCounts != null) {
+            itemCounts.merge(item.id, item.count, Integer::sum);
+        }
+    }
+
+    // Only id, amount and slot are read; components and tags are skipped unparsed
+    private Item readItem(NbtReader nbt) throws IOException {
+        Item item = new Item();
+        byte type;
+        while ((type = nbt.nextType()) != NbtReader.TAG_END) {
+            String name = nbt.readName();
+            if (name.equals("id") && type == NbtReader.TAG_STRING) {
+                item.id = nbt.readString();
+            } else if (name.equals("Slot")) {
+                item.slot = (int) nbt.readNumber(type);
+            } else if (name.equals("count") || name.equals("Count")) {
+                // "Count" (a byte) before 1.20.5
+                item.count = (int) nbt.readNumber(type);
+            } else {
+                nbt.skip(type);
+            }
+        }
+        return item;
+    }
+
+    private void readPosition(NbtReader nbt, byte type, JsonObject position) throws IOException {
+        if (type != NbtReader.TAG_LIST) {
+            nbt.skip(type);
+            return;
+        }
+        int[] header = nbt.readListHeader();
+        String[] axes = {"x", "y", "z"};
+        for (int i = 0; i < header[1]; i++) {
+            if (i < axes.length) {
+                position.addProperty(axes[i], nbt.readNumber((byte) header[0]));
+            } else {
+                nbt.skip((byte) header[0]);
+            }
+        }
+    }
+
+    private static class Item {
+        String id;
+        int slot;
+        int count = 1;
+    }
+
+    private static class Cached {
+        final long modified;
+        final long length;
+        final JsonObject data;
+
+        Cached(long modified, long length, JsonObject data) {
+            this.modified = modified;
+            this.length = length;
+            this.data = data;
+        }
+    }
+}
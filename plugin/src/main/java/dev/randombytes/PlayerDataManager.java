@@ -1,140 +1,625 @@
 package dev.randombytes;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import dev.mccontrol.Main;
 import org.bukkit.*;
 import org.bukkit.entity.Player;
-import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.Plugin;
 
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
 
 public class PlayerDataManager {
+    // Online players only; everyone else lives in the compact player index
     private final Map<UUID, PlayerData> playerDataCache;
-    private final List<String> consoleLogBuffer;
-    private final List<String> chatLogBuffer;
+    private final PlayerIndex playerIndex;
+    private final PlayerNameIndex nameIndex;
+    private final InventoryCache inventoryCache;
+    private final OfflinePlayerReader offlinePlayerReader;
+    private final StatisticsScanner statisticsScanner;
+    private final SessionStore sessionStore;
+    // Finished sessions waiting to be appended off the main thread
+    private final Queue<SessionStore.Session> pendingSessions = new ConcurrentLinkedQueue<>();
+    private final File playerIndexFile;
+    private final File userCacheFile;
+    private volatile long userCacheModified;
+    private final File worldFolder;
+    private final Queue<UUID> statsQueue;
+    private final Queue<UUID> nameQueue;
+    // Replaced, never modified, on the main thread; reconcile reads them to flag the players it adds
+    private volatile Set<UUID> bannedPlayers = new HashSet<>();
+    private volatile Set<UUID> operators = new HashSet<>();
+    private volatile Set<UUID> whitelistedPlayers = new HashSet<>();
+    private final LogRingBuffer consoleLogBuffer;
     private final int maxLogLines = 1000;
+    private static final int STATS_BATCH_SIZE = 1000;
+    private static final int NAME_BATCH_SIZE = 20;
+    private static final int EXPORT_BATCH_SIZE = 500;
     private final Plugin plugin;
     
     public PlayerDataManager(Plugin plugin) {
         this.plugin = plugin;
         this.playerDataCache = new ConcurrentHashMap<>();
-        this.consoleLogBuffer = Collections.synchronizedList(new ArrayList<>());
-        this.chatLogBuffer = Collections.synchronizedList(new ArrayList<>());
+        this.playerIndex = new PlayerIndex();
+        this.nameIndex = new PlayerNameIndex();
+        this.inventoryCache = new InventoryCache(plugin);
+        this.playerIndexFile = new File(plugin.getDataFolder(), "player-index.dat");
+        this.userCacheFile = new File(Bukkit.getWorldContainer(), "usercache.json");
+        this.worldFolder = Bukkit.getWorlds().get(0).getWorldFolder();
+        this.offlinePlayerReader = new OfflinePlayerReader(plugin, worldFolder);
+        this.statisticsScanner = new StatisticsScanner(plugin, worldFolder);
+        this.sessionStore = new SessionStore(plugin, new File(plugin.getDataFolder(), "sessions"));
+        this.statsQueue = new ConcurrentLinkedQueue<>();
+        this.nameQueue = new ConcurrentLinkedQueue<>();
+        this.consoleLogBuffer = new LogRingBuffer(maxLogLines);
         
         // Register event listeners
         Bukkit.getPluginManager().registerEvents(new PlayerTrackingListener(this), Main.getPlugin(Main.class));
+        Bukkit.getPluginManager().registerEvents(new InventoryTrackingListener(inventoryCache), Main.getPlugin(Main.class));
         
         // Load existing player data
+        sessionStore.load();
         loadPlayerData();
         
-        // Start inventory caching task (every 10 seconds = 200 ticks)
-        startInventoryCaching();
+        // Inventories are cached as they change rather than on a fixed schedule
+        inventoryCache.start();
+        
+        startIndexMaintenance();
     }
     
-    private void startInventoryCaching() {
-        Bukkit.getScheduler().scheduleSyncRepeatingTask(Main.getPlugin(Main.class), () -> {
-            cacheOnlinePlayerInventories();
-        }, 200L, 200L); // Start after 10 seconds, repeat every 10 seconds
+    private void startIndexMaintenance() {
+        // Ban, op and whitelist flags are re-synced from the server lists every minute
+        Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, this::refreshAccessFlags, 20L, 1200L);
+        
+        // Statistics of offline players are read from their stats files in the background
+        Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::hydrateStatistics, 100L, 100L);
+        
+        // Names missing from usercache.json are resolved through Bukkit a few at a time
+        Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, this::resolveMissingNames, 40L, 20L);
+        
+        // The server rewrites usercache.json when it resolves names; pick up changes every minute
+        Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::refreshUserCache, 1200L, 1200L);
+        
+        // Leaderboards follow the stats files the server writes on autosave
+        Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, statisticsScanner::scan, 200L, 6000L);
+        
+        // Concurrency is sampled every minute so quiet periods and long sessions are covered
+        Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, () -> sessionStore.tick(System.currentTimeMillis()), 1200L, 1200L);
+        Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, () -> {
+            if (sessionStore.isDirty()) {
+                saveSessionAggregates();
+            }
+        }, 6000L, 6000L);
+        
+        // Save the index every 5 minutes if anything changed
+        Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, () -> {
+            if (playerIndex.isDirty()) {
+                savePlayerIndex();
+            }
+        }, 6000L, 6000L);
     }
     
-    private void cacheOnlinePlayerInventories() {
-        try {
-            // Create cache directory if it doesn't exist
-            File cacheDir = new File(plugin.getDataFolder().getParentFile().getParentFile(), "cache/inventories");
-            if (!cacheDir.exists()) {
-                cacheDir.mkdirs();
+    private void loadPlayerData() {
+        long start = System.currentTimeMillis();
+        if (playerIndexFile.exists()) {
+            try {
+                playerIndex.load(playerIndexFile.toPath());
+                plugin.getLogger().info("Loaded player index with " + playerIndex.size() + " players in "
+                        + (System.currentTimeMillis() - start) + "ms");
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to load player index, rebuilding it", e);
             }
-            
-            // Cache inventory for each online player
-            for (Player player : Bukkit.getOnlinePlayers()) {
+        }
+        playerIndex.forEach(entry -> nameIndex.put(entry.uuid, entry.name));
+        
+        // Players already online (e.g. after a reload) are kept hot
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            playerJoined(player);
+        }
+        // The first sync compares with the flags saved in the index, so it also clears them for players
+        // pardoned, deopped or removed from the whitelist while the plugin was not running
+        bannedPlayers = playerIndex.withFlag(PlayerIndex.FLAG_BANNED);
+        operators = playerIndex.withFlag(PlayerIndex.FLAG_OP);
+        whitelistedPlayers = playerIndex.withFlag(PlayerIndex.FLAG_WHITELISTED);
+        refreshAccessFlags();
+        
+        // Pick up players who joined while the plugin was not installed
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, this::reconcilePlayerData);
+    }
+    
+    /**
+     * Adds every player with a playerdata file to the index. Known players whose file changed since they were
+     * last seen get their statistics reloaded. Runs off the main thread and never touches Bukkit player objects.
+     */
+    private void reconcilePlayerData() {
+        Path playerDataDir = new File(worldFolder, "playerdata").toPath();
+        if (!Files.isDirectory(playerDataDir)) {
+            return;
+        }
+        
+        Map<UUID, String> cachedNames = refreshUserCache();
+        List<UUID> added = new ArrayList<>();
+        
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(playerDataDir, "*.dat")) {
+            for (Path file : stream) {
+                String fileName = file.getFileName().toString();
+                UUID uuid;
                 try {
-                    JsonObject cached = new JsonObject();
-                    cached.addProperty("uuid", player.getUniqueId().toString());
-                    cached.addProperty("name", player.getName());
-                    cached.addProperty("timestamp", System.currentTimeMillis());
-                    cached.add("inventory", getPlayerInventory(player));
-                    
-                    File cacheFile = new File(cacheDir, player.getUniqueId().toString() + ".json");
-                    try (FileWriter writer = new FileWriter(cacheFile)) {
-                        Main.getInstance().getGson().toJson(cached, writer);
-                    }
+                    uuid = UUID.fromString(fileName.substring(0, fileName.length() - 4));
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                
+                long modified;
+                try {
+                    modified = Files.getLastModifiedTime(file).toMillis();
                 } catch (IOException e) {
-                    plugin.getLogger().warning("Failed to cache inventory for " + player.getName() + ": " + e.getMessage());
+                    continue;
+                }
+                
+                PlayerIndex.Entry entry = playerIndex.get(uuid);
+                if (entry == null) {
+                    String name = cachedNames.get(uuid);
+                    playerIndex.put(uuid, name, modified, 0, accessFlags(uuid));
+                    if (name == null) {
+                        nameQueue.add(uuid);
+                    }
+                    added.add(uuid);
+                } else if (modified > entry.lastSeen + 60_000L && !playerDataCache.containsKey(uuid)) {
+                    // Played while we weren't watching; statistics are stale
+                    playerIndex.update(uuid, cachedNames.get(uuid), modified, -1);
+                    playerIndex.setFlag(uuid, PlayerIndex.FLAG_STATS_LOADED, false);
                 }
             }
-        } catch (Exception e) {
-            plugin.getLogger().warning("Error in inventory caching task: " + e.getMessage());
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to scan player data folder", e);
+        }
+        
+        if (!added.isEmpty()) {
+            plugin.getLogger().info("Indexed " + added.size() + " new players; statistics will load in the background");
+            savePlayerIndex();
+            // The lists may have changed while scanning, and the periodic sync only looks at players whose membership changes
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                for (UUID uuid : added) {
+                    int flags = accessFlags(uuid);
+                    playerIndex.setFlag(uuid, PlayerIndex.FLAG_BANNED, (flags & PlayerIndex.FLAG_BANNED) != 0);
+                    playerIndex.setFlag(uuid, PlayerIndex.FLAG_OP, (flags & PlayerIndex.FLAG_OP) != 0);
+                    playerIndex.setFlag(uuid, PlayerIndex.FLAG_WHITELISTED, (flags & PlayerIndex.FLAG_WHITELISTED) != 0);
+                }
+            });
         }
     }
     
-    private void loadPlayerData() {
-        // Load data from usercache.json or custom storage
-        for (OfflinePlayer player : Bukkit.getOfflinePlayers()) {
-            UUID uuid = player.getUniqueId();
-            if (!playerDataCache.containsKey(uuid)) {
-                playerDataCache.put(uuid, new PlayerData(player));
+    // Ban, op and whitelist flags from the lists last synced from the server
+    private int accessFlags(UUID uuid) {
+        return (bannedPlayers.contains(uuid) ? PlayerIndex.FLAG_BANNED : 0)
+                | (operators.contains(uuid) ? PlayerIndex.FLAG_OP : 0)
+                | (whitelistedPlayers.contains(uuid) ? PlayerIndex.FLAG_WHITELISTED : 0);
+    }
+    
+    /**
+     * Feeds usercache.json into the name index if it changed since the last read
+     * @return The names it contains, or an empty map if it did not change
+     */
+    private Map<UUID, String> refreshUserCache() {
+        long modified = userCacheFile.lastModified();
+        if (modified == 0 || modified == userCacheModified) {
+            return new HashMap<>();
+        }
+        userCacheModified = modified;
+        
+        Map<UUID, String> names = loadUserCache();
+        names.forEach(nameIndex::put);
+        return names;
+    }
+    
+    private Map<UUID, String> loadUserCache() {
+        Map<UUID, String> names = new HashMap<>();
+        try (FileReader reader = new FileReader(userCacheFile)) {
+            JsonArray entries = Main.getInstance().getGson().fromJson(reader, JsonArray.class);
+            if (entries != null) {
+                for (int i = 0; i < entries.size(); i++) {
+                    JsonObject entry = entries.get(i).getAsJsonObject();
+                    try {
+                        names.put(UUID.fromString(entry.get("uuid").getAsString()), entry.get("name").getAsString());
+                    } catch (RuntimeException e) {
+                        // Skip malformed entries
+                    }
+                }
             }
+        } catch (IOException | RuntimeException e) {
+            plugin.getLogger().fine("Could not read usercache.json: " + e.getMessage());
         }
+        return names;
+    }
+    
+    private void hydrateStatistics() {
+        List<UUID> batch = new ArrayList<>();
+        UUID queued;
+        while (batch.size() < STATS_BATCH_SIZE && (queued = statsQueue.poll()) != null) {
+            batch.add(queued);
+        }
+        if (batch.size() < STATS_BATCH_SIZE) {
+            batch.addAll(playerIndex.withoutFlag(PlayerIndex.FLAG_STATS_LOADED, STATS_BATCH_SIZE - batch.size()));
+        }
+        
+        for (UUID uuid : batch) {
+            // Online players are refreshed from the live player on quit
+            if (playerDataCache.containsKey(uuid)) {
+                continue;
+            }
+            long playTime = readPlayTimeFromStats(uuid);
+            // A failed read keeps the known play time rather than resetting it to 0
+            if (playTime >= 0) {
+                playerIndex.update(uuid, null, 0, playTime);
+            }
+            playerIndex.setFlag(uuid, PlayerIndex.FLAG_STATS_LOADED, true);
+        }
+    }
+    
+    /**
+     * Reads a player's play time in seconds straight from world/stats/<uuid>.json
+     * @return The play time, or -1 if the file does not exist or cannot be read
+     */
+    private long readPlayTimeFromStats(UUID uuid) {
+        File statsFile = new File(worldFolder, "stats/" + uuid + ".json");
+        try (FileReader reader = new FileReader(statsFile)) {
+            JsonObject root = Main.getInstance().getGson().fromJson(reader, JsonObject.class);
+            JsonObject custom = root.getAsJsonObject("stats").getAsJsonObject("minecraft:custom");
+            if (custom == null) {
+                return 0;
+            }
+            // play_one_minute was renamed to play_time in 1.17; both count ticks
+            String key = custom.has("minecraft:play_time") ? "minecraft:play_time" : "minecraft:play_one_minute";
+            return custom.has(key) ? custom.get(key).getAsLong() / 20 : 0;
+        } catch (NoSuchFileException | java.io.FileNotFoundException e) {
+            return -1;
+        } catch (IOException | RuntimeException e) {
+            plugin.getLogger().fine("Could not read stats for " + uuid + ": " + e.getMessage());
+            return -1;
+        }
+    }
+    
+    private void resolveMissingNames() {
+        for (int i = 0; i < NAME_BATCH_SIZE; i++) {
+            UUID uuid = nameQueue.poll();
+            if (uuid == null) {
+                return;
+            }
+            String name = Bukkit.getOfflinePlayer(uuid).getName();
+            if (name != null) {
+                playerIndex.update(uuid, name, 0, -1);
+                nameIndex.put(uuid, name);
+            }
+        }
+    }
+    
+    private void refreshAccessFlags() {
+        bannedPlayers = syncFlag(bannedPlayers, Bukkit.getBannedPlayers(), PlayerIndex.FLAG_BANNED);
+        operators = syncFlag(operators, Bukkit.getOperators(), PlayerIndex.FLAG_OP);
+        whitelistedPlayers = syncFlag(whitelistedPlayers, Bukkit.getWhitelistedPlayers(), PlayerIndex.FLAG_WHITELISTED);
+    }
+    
+    // Only players entering or leaving a list are touched, so this costs O(list size) rather than O(players)
+    private Set<UUID> syncFlag(Set<UUID> previous, Set<OfflinePlayer> current, int flag) {
+        Set<UUID> members = new HashSet<>();
+        for (OfflinePlayer player : current) {
+            members.add(player.getUniqueId());
+        }
+        for (UUID uuid : previous) {
+            if (!members.contains(uuid)) {
+                playerIndex.setFlag(uuid, flag, false);
+            }
+        }
+        for (UUID uuid : members) {
+            if (!previous.contains(uuid)) {
+                playerIndex.setFlag(uuid, flag, true);
+            }
+        }
+        return members;
+    }
+    
+    /**
+     * Writes cached inventories, the player index and session history to disk; called when the plugin is disabled
+     */
+    public void shutdown() {
+        statisticsScanner.shutdown();
+        inventoryCache.shutdown();
+        savePlayerIndex();
+        
+        // Sessions still open end now, like a quit
+        long now = System.currentTimeMillis();
+        for (UUID uuid : sessionStore.onlinePlayers()) {
+            SessionStore.Session session = sessionStore.quit(uuid, now);
+            if (session != null) {
+                pendingSessions.add(session);
+            }
+        }
+        appendPendingSessions();
+        saveSessionAggregates();
+        sessionStore.close();
+    }
+    
+    private void appendPendingSessions() {
+        SessionStore.Session session;
+        while ((session = pendingSessions.poll()) != null) {
+            try {
+                sessionStore.append(session);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to record session", e);
+            }
+        }
+    }
+    
+    private void saveSessionAggregates() {
+        try {
+            sessionStore.save();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to save session aggregates", e);
+        }
+    }
+    
+    public SessionStore getSessionStore() {
+        return sessionStore;
+    }
+    
+    public InventoryCache getInventoryCache() {
+        return inventoryCache;
+    }
+
+    /**
+     * Writes the player index to disk
+     */
+    public void savePlayerIndex() {
+        try {
+            plugin.getDataFolder().mkdirs();
+            playerIndex.save(playerIndexFile.toPath());
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to save player index", e);
+        }
+    }
+    
+    public void playerJoined(Player player) {
+        UUID uuid = player.getUniqueId();
+        PlayerData data = new PlayerData(player);
+        playerDataCache.put(uuid, data);
+        
+        int flags = PlayerIndex.FLAG_STATS_LOADED
+                | (player.isBanned() ? PlayerIndex.FLAG_BANNED : 0)
+                | (player.isOp() ? PlayerIndex.FLAG_OP : 0)
+                | (player.isWhitelisted() ? PlayerIndex.FLAG_WHITELISTED : 0);
+        playerIndex.put(uuid, data.name, data.lastSeen, data.playTime, flags);
+        nameIndex.put(uuid, data.name);
+        inventoryCache.markDirty(uuid);
+        sessionStore.joined(uuid, player.getWorld().getName(), player.getFirstPlayed(), data.sessionStart);
     }
     
-    public void updatePlayerData(Player player) {
+    public void playerQuit(Player player) {
         UUID uuid = player.getUniqueId();
-        PlayerData data = playerDataCache.computeIfAbsent(uuid, k -> new PlayerData(player));
+        inventoryCache.captureNow(player);
+        PlayerData data = playerDataCache.remove(uuid);
+        if (data == null) {
+            data = new PlayerData(player);
+        }
         data.update(player);
+        playerIndex.update(uuid, data.name, System.currentTimeMillis(), data.playTime);
+        playerIndex.setFlag(uuid, PlayerIndex.FLAG_STATS_LOADED, true);
+        
+        SessionStore.Session session = sessionStore.quit(uuid, System.currentTimeMillis());
+        if (session != null) {
+            // Anything not yet written when the server stops is written by shutdown()
+            pendingSessions.add(session);
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, this::appendPendingSessions);
+        }
     }
     
-    public JsonObject getAllPlayersData() {
-        JsonObject result = new JsonObject();
-        JsonArray players = new JsonArray();
+    /**
+     * Gets one page of players from the index's sorted orderings
+     * @param query Ordering, flag filters, last seen range and window
+     * @param online Only online players if true, only offline players if false, everyone if null
+     */
+    public JsonObject getPlayers(PlayerIndex.Query query, Boolean online) {
+        if (Boolean.TRUE.equals(online)) {
+            query.candidates = playerDataCache.keySet();
+        } else if (Boolean.FALSE.equals(online)) {
+            query.filter = uuid -> !playerDataCache.containsKey(uuid);
+        }
         
-        List<PlayerData> sortedPlayers = playerDataCache.values().stream()
-            .sorted(Comparator.comparing(p -> p.name.toLowerCase()))
-            .collect(Collectors.toList());
-        
-        for (PlayerData data : sortedPlayers) {
-            JsonObject playerObj = new JsonObject();
-            playerObj.addProperty("uuid", data.uuid.toString());
-            playerObj.addProperty("name", data.name);
-            playerObj.addProperty("online", data.isOnline);
-            playerObj.addProperty("lastSeen", data.lastSeen);
-            playerObj.addProperty("playTime", data.playTime);
-            playerObj.addProperty("banned", data.isBanned);
-            
-            // Add OP status
-            OfflinePlayer player = Bukkit.getOfflinePlayer(data.uuid);
-            playerObj.addProperty("op", player.isOp());
-            
-            players.add(playerObj);
+        PlayerIndex.Page page = playerIndex.query(query);
+        JsonArray players = new JsonArray();
+        for (PlayerIndex.Entry entry : page.entries) {
+            players.add(toJson(entry));
         }
         
+        JsonObject result = new JsonObject();
         result.add("players", players);
+        result.addProperty("offset", query.offset);
+        result.addProperty("hasMore", page.hasMore);
+        if (page.total >= 0) {
+            result.addProperty("total", page.total);
+        }
+        return result;
+    }
+    
+    /**
+     * Searches known player names, including players only present in usercache.json
+     * @param query A name prefix or approximate name
+     * @param limit Maximum number of results
+     */
+    public JsonObject searchPlayers(String query, int limit) {
+        JsonArray results = new JsonArray();
+        for (PlayerNameIndex.Match match : nameIndex.search(query, limit, playerDataCache::containsKey)) {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("uuid", match.uuid.toString());
+            obj.addProperty("name", match.name);
+            obj.addProperty("online", playerDataCache.containsKey(match.uuid));
+            obj.addProperty("match", match.type == PlayerNameIndex.MATCH_EXACT ? "exact"
+                    : match.type == PlayerNameIndex.MATCH_PREFIX ? "prefix" : "fuzzy");
+            obj.addProperty("score", match.score);
+            PlayerIndex.Entry entry = playerIndex.get(match.uuid);
+            if (entry != null) {
+                obj.addProperty("lastSeen", entry.lastSeen);
+            }
+            results.add(obj);
+        }
+        
+        JsonObject result = new JsonObject();
+        result.addProperty("query", query);
+        result.add("results", results);
+        return result;
+    }
+    
+    /**
+     * Resolves a player name to a UUID from the local name index
+     * @return uuid and name, or null if no known player uses the name
+     */
+    public JsonObject lookupPlayer(String name) {
+        UUID best = null;
+        long bestSeen = Long.MIN_VALUE;
+        for (UUID uuid : nameIndex.lookup(name)) {
+            // Several players can have held the name; the online or most recently seen one owns it now
+            PlayerIndex.Entry entry = playerIndex.get(uuid);
+            long seen = playerDataCache.containsKey(uuid) ? Long.MAX_VALUE : (entry != null ? entry.lastSeen : 0);
+            if (best == null || seen > bestSeen) {
+                best = uuid;
+                bestSeen = seen;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        
+        PlayerIndex.Entry entry = playerIndex.get(best);
+        JsonObject result = new JsonObject();
+        result.addProperty("uuid", best.toString());
+        result.addProperty("name", entry != null && entry.name != null ? entry.name : name);
+        return result;
+    }
+    
+    /**
+     * Walks every known player in batches, so the index lock is never held while rows are written
+     * @param includeInventory Whether to add a summary of the cached inventory, which reads the inventory store
+     * @param row Receives one flat record per player: uuid, name, online, banned, op, whitelisted, lastSeen,
+     *            playTime and, if requested, inventoryItems and inventoryTypes
+     */
+    public void exportPlayers(boolean includeInventory, PlayerRowConsumer row) throws IOException {
+        int slot = 0;
+        List<PlayerIndex.Entry> batch;
+        while (!(batch = playerIndex.entries(slot, EXPORT_BATCH_SIZE)).isEmpty()) {
+            slot += batch.size();
+            for (PlayerIndex.Entry entry : batch) {
+                JsonObject record = toJson(entry);
+                record.addProperty("whitelisted", entry.hasFlag(PlayerIndex.FLAG_WHITELISTED));
+                if (includeInventory) {
+                    Map<String, Integer> counts = inventoryCache.loadCounts(entry.uuid);
+                    int items = 0;
+                    if (counts != null) {
+                        for (int count : counts.values()) {
+                            items += count;
+                        }
+                    }
+                    record.addProperty("inventoryItems", counts != null ? items : null);
+                    record.addProperty("inventoryTypes", counts != null ? counts.size() : null);
+                }
+                row.accept(record);
+            }
+        }
+    }
+    
+    /**
+     * Receives exported rows; may throw when the client disconnects
+     */
+    public interface PlayerRowConsumer {
+        void accept(JsonObject row) throws IOException;
+    }
+    
+    /**
+     * Gets the top players of one statistic, or of every statistic if stat is null
+     * @param stat A {@link StatisticsScanner.Stat} key such as "playtime"
+     * @return The leaderboards, or null if the statistic is unknown
+     */
+    public JsonObject getLeaderboards(String stat, int limit) {
+        JsonObject boards = new JsonObject();
+        for (StatisticsScanner.Stat candidate : StatisticsScanner.Stat.values()) {
+            if (stat != null && !candidate.key.equals(stat)) {
+                continue;
+            }
+            JsonArray board = new JsonArray();
+            int rank = 1;
+            for (StatisticsScanner.Ranked ranked : statisticsScanner.top(candidate, limit)) {
+                PlayerIndex.Entry entry = playerIndex.get(ranked.uuid);
+                JsonObject row = new JsonObject();
+                row.addProperty("rank", rank++);
+                row.addProperty("uuid", ranked.uuid.toString());
+                row.addProperty("name", entry != null ? displayName(entry) : ranked.uuid.toString());
+                row.addProperty("online", playerDataCache.containsKey(ranked.uuid));
+                row.addProperty("value", ranked.value);
+                board.add(row);
+            }
+            boards.add(candidate.key, board);
+        }
+        if (stat != null && boards.size() == 0) {
+            return null;
+        }
+        
+        JsonObject result = new JsonObject();
+        result.add("leaderboards", boards);
+        result.addProperty("players", statisticsScanner.getPlayerCount());
+        result.addProperty("updated", statisticsScanner.getLastScan());
         return result;
     }
     
+    private String displayName(PlayerIndex.Entry entry) {
+        return entry.name != null ? entry.name : entry.uuid.toString();
+    }
+    
+    private JsonObject toJson(PlayerIndex.Entry entry) {
+        PlayerData online = playerDataCache.get(entry.uuid);
+        JsonObject playerObj = new JsonObject();
+        playerObj.addProperty("uuid", entry.uuid.toString());
+        playerObj.addProperty("name", online != null ? online.name : displayName(entry));
+        playerObj.addProperty("online", online != null);
+        playerObj.addProperty("lastSeen", online != null ? System.currentTimeMillis() : entry.lastSeen);
+        playerObj.addProperty("playTime", online != null ? online.playTime : entry.playTime);
+        playerObj.addProperty("banned", entry.hasFlag(PlayerIndex.FLAG_BANNED));
+        playerObj.addProperty("op", entry.hasFlag(PlayerIndex.FLAG_OP));
+        return playerObj;
+    }
+    
     public JsonObject getPlayerData(String uuidStr) {
         try {
             UUID uuid = UUID.fromString(uuidStr);
-            PlayerData data = playerDataCache.get(uuid);
+            PlayerIndex.Entry entry = playerIndex.get(uuid);
             
-            if (data == null) {
+            if (entry == null) {
                 return null;
             }
             
-            JsonObject result = new JsonObject();
-            result.addProperty("uuid", data.uuid.toString());
-            result.addProperty("name", data.name);
-            result.addProperty("online", data.isOnline);
-            result.addProperty("lastSeen", data.lastSeen);
-            result.addProperty("playTime", data.playTime);
-            result.addProperty("banned", data.isBanned);
+            // Someone is looking at this player; load their statistics next
+            if (!entry.hasFlag(PlayerIndex.FLAG_STATS_LOADED)) {
+                statsQueue.add(uuid);
+            }
+            
+            JsonObject result = toJson(entry);
+            if (statisticsScanner.valueOf(uuid, StatisticsScanner.Stat.values()[0]) >= 0) {
+                JsonObject statistics = new JsonObject();
+                for (StatisticsScanner.Stat stat : StatisticsScanner.Stat.values()) {
+                    statistics.addProperty(stat.key, statisticsScanner.valueOf(uuid, stat));
+                }
+                result.add("statistics", statistics);
+            }
             
             // Get inventory if player is online
             Player player = Bukkit.getPlayer(uuid);
@@ -142,11 +627,18 @@ public class PlayerDataManager {
                 JsonArray inventory = getPlayerInventory(player);
                 result.add("inventory", inventory);
             } else {
-                // Try to load cached inventory
-                JsonArray cachedInventory = loadCachedInventory(uuid);
-                if (cachedInventory != null) {
-                    result.add("inventory", cachedInventory);
-                    result.addProperty("cached", true);
+                // The server's own save is complete and current; the inventory cache covers players without one
+                JsonObject saved = offlinePlayerReader.read(uuid);
+                if (saved != null) {
+                    for (Map.Entry<String, JsonElement> field : saved.entrySet()) {
+                        result.add(field.getKey(), field.getValue());
+                    }
+                } else {
+                    JsonArray cachedInventory = loadCachedInventory(uuid);
+                    if (cachedInventory != null) {
+                        result.add("inventory", cachedInventory);
+                        result.addProperty("cached", true);
+                    }
                 }
             }
             
@@ -157,51 +649,11 @@ public class PlayerDataManager {
     }
     
     private JsonArray getPlayerInventory(Player player) {
-        JsonArray inventory = new JsonArray();
-        Map<String, Integer> itemCounts = new TreeMap<>();
-        
-        for (ItemStack item : player.getInventory().getContents()) {
-            if (item != null && item.getType() != Material.AIR) {
-                String itemId = item.getType().getKey().toString();
-                itemCounts.merge(itemId, item.getAmount(), Integer::sum);
-            }
-        }
-        
-        for (Map.Entry<String, Integer> entry : itemCounts.entrySet()) {
-            JsonObject itemObj = new JsonObject();
-            itemObj.addProperty("id", entry.getKey());
-            itemObj.addProperty("name", formatItemName(entry.getKey()));
-            itemObj.addProperty("count", entry.getValue());
-            inventory.add(itemObj);
-        }
-        
-        return inventory;
-    }
-    
-    private String formatItemName(String itemId) {
-        String name = itemId.substring(itemId.indexOf(':') + 1);
-        return Arrays.stream(name.split("_"))
-            .map(word -> word.substring(0, 1).toUpperCase() + word.substring(1).toLowerCase())
-            .collect(Collectors.joining(" "));
+        return InventoryCache.toJson(InventoryCache.capture(player).itemCounts());
     }
     
     private JsonArray loadCachedInventory(UUID uuid) {
-        try {
-            File cacheDir = new File(plugin.getDataFolder().getParentFile().getParentFile(), "cache/inventories");
-            File cacheFile = new File(cacheDir, uuid.toString() + ".json");
-            
-            if (!cacheFile.exists()) {
-                return null;
-            }
-            
-            try (FileReader reader = new FileReader(cacheFile)) {
-                JsonObject cached = Main.getInstance().getGson().fromJson(reader, JsonObject.class);
-                return cached.getAsJsonArray("inventory");
-            }
-        } catch (Exception e) {
-            plugin.getLogger().fine("Could not load cached inventory for " + uuid + ": " + e.getMessage());
-            return null;
-        }
+        return inventoryCache.load(uuid);
     }
     
     public void performPlayerAction(String uuidStr, String action) {
@@ -216,6 +668,7 @@ public class PlayerDataManager {
                     if (data != null) {
                         data.isBanned = true;
                     }
+                    playerIndex.setFlag(uuid, PlayerIndex.FLAG_BANNED, true);
                     break;
                 case "unban":
                     player.setWhitelisted(false);
@@ -225,6 +678,8 @@ public class PlayerDataManager {
                     if (data2 != null) {
                         data2.isBanned = false;
                     }
+                    playerIndex.setFlag(uuid, PlayerIndex.FLAG_BANNED, false);
+                    playerIndex.setFlag(uuid, PlayerIndex.FLAG_WHITELISTED, false);
                     break;
                 case "kick":
                     Player onlinePlayer = Bukkit.getPlayer(uuid);
@@ -234,9 +689,11 @@ public class PlayerDataManager {
                     break;
                 case "op":
                     player.setOp(true);
+                    playerIndex.setFlag(uuid, PlayerIndex.FLAG_OP, true);
                     break;
                 case "deop":
                     player.setOp(false);
+                    playerIndex.setFlag(uuid, PlayerIndex.FLAG_OP, false);
                     break;
             }
         } catch (IllegalArgumentException e) {
@@ -265,6 +722,7 @@ public class PlayerDataManager {
             UUID uuid = UUID.fromString(uuidStr);
             OfflinePlayer player = Bukkit.getOfflinePlayer(uuid);
             player.setWhitelisted(true);
+            playerIndex.setFlag(uuid, PlayerIndex.FLAG_WHITELISTED, true);
         } catch (IllegalArgumentException e) {
             plugin.getLogger().warning("Invalid UUID for whitelist: " + uuidStr);
         }
@@ -295,6 +753,7 @@ public class PlayerDataManager {
             if (data != null) {
                 data.isBanned = true;
             }
+            playerIndex.setFlag(uuid, PlayerIndex.FLAG_BANNED, true);
         } catch (IllegalArgumentException e) {
             plugin.getLogger().warning("Invalid UUID for blacklist: " + uuidStr);
         }
@@ -402,27 +861,22 @@ public class PlayerDataManager {
         return result;
     }
     
-    public JsonObject getConsoleLogs() {
-        JsonObject result = new JsonObject();
-        JsonArray logs = new JsonArray();
-        
-        synchronized (consoleLogBuffer) {
-            for (String log : consoleLogBuffer) {
-                logs.add(log);
-            }
-        }
-        
-        result.add("logs", logs);
-        return result;
+    /**
+     * Adds a line that is already formatted, e.g. join and quit notices
+     */
+    public void addConsoleLog(String message) {
+        consoleLogBuffer.publish(System.currentTimeMillis(), null, null, message, null, null, null);
     }
     
-    public void addConsoleLog(String message) {
-        synchronized (consoleLogBuffer) {
-            consoleLogBuffer.add(message);
-            if (consoleLogBuffer.size() > maxLogLines) {
-                consoleLogBuffer.remove(0);
-            }
-        }
+    /**
+     * Stores a console record as is; called on the logging thread, so it must not format or block
+     */
+    public void addConsoleRecord(LogRecord record, String threadName) {
+        consoleLogBuffer.publish(record, threadName);
+    }
+    
+    public LogRingBuffer getConsoleLogBuffer() {
+        return consoleLogBuffer;
     }
     
     public void removeFromWhitelist(String uuidStr) {
@@ -430,6 +884,7 @@ public class PlayerDataManager {
             UUID uuid = UUID.fromString(uuidStr);
             OfflinePlayer player = Bukkit.getOfflinePlayer(uuid);
             player.setWhitelisted(false);
+            playerIndex.setFlag(uuid, PlayerIndex.FLAG_WHITELISTED, false);
         } catch (IllegalArgumentException e) {
             plugin.getLogger().warning("Invalid UUID for whitelist removal: " + uuidStr);
         }
@@ -446,6 +901,7 @@ public class PlayerDataManager {
             if (data != null) {
                 data.isBanned = false;
             }
+            playerIndex.setFlag(uuid, PlayerIndex.FLAG_BANNED, false);
         } catch (IllegalArgumentException e) {
             plugin.getLogger().warning("Invalid UUID for blacklist removal: " + uuidStr);
         }
@@ -471,6 +927,7 @@ public class PlayerDataManager {
             UUID uuid = UUID.fromString(uuidStr);
             OfflinePlayer player = Bukkit.getOfflinePlayer(uuid);
             player.setOp(true);
+            playerIndex.setFlag(uuid, PlayerIndex.FLAG_OP, true);
         } catch (IllegalArgumentException e) {
             plugin.getLogger().warning("Invalid UUID for ops: " + uuidStr);
         }
@@ -481,6 +938,7 @@ public class PlayerDataManager {
             UUID uuid = UUID.fromString(uuidStr);
             OfflinePlayer player = Bukkit.getOfflinePlayer(uuid);
             player.setOp(false);
+            playerIndex.setFlag(uuid, PlayerIndex.FLAG_OP, false);
         } catch (IllegalArgumentException e) {
             plugin.getLogger().warning("Invalid UUID for ops removal: " + uuidStr);
         }
@@ -490,9 +948,9 @@ public class PlayerDataManager {
         JsonObject result = new JsonObject();
         JsonArray logs = new JsonArray();
         
-        synchronized (chatLogBuffer) {
-            for (String log : chatLogBuffer) {
-                logs.add(log);
+        if (Main.getInstance().getLogManager() != null) {
+            for (LogBlockStore.Line line : Main.getInstance().getLogManager().getLogs(LogBlockStore.View.CHAT, LogFilter.NONE, maxLogLines)) {
+                logs.add(line.message);
             }
         }
         
@@ -501,16 +959,9 @@ public class PlayerDataManager {
     }
     
     public void addChatLog(String message) {
-        synchronized (chatLogBuffer) {
-            chatLogBuffer.add(message);
-            if (chatLogBuffer.size() > maxLogLines) {
-                chatLogBuffer.remove(0);
-            }
-        }
-        
-        // Also add to combined logs
+        // Chat lines live in the shared log store, which also writes them to the combined logs
         if (Main.getInstance().getLogManager() != null) {
-            Main.getInstance().getLogManager().addLog("CHAT: " + message);
+            Main.getInstance().getLogManager().addLog(LogBlockStore.CHAT + ": " + message);
         }
     }
     
@@ -603,11 +1054,12 @@ public class PlayerDataManager {
         boolean isBanned;
         long sessionStart;
         
-        PlayerData(OfflinePlayer player) {
+        // Only built for online players, whose statistics are already in memory
+        PlayerData(Player player) {
             this.uuid = player.getUniqueId();
             this.name = player.getName();
             this.isOnline = player.isOnline();
-            this.lastSeen = player.getLastPlayed();
+            this.lastSeen = System.currentTimeMillis();
             this.playTime = player.getStatistic(Statistic.PLAY_ONE_MINUTE) / 20; // Convert ticks to seconds
             this.isBanned = player.isBanned();
             this.sessionStart = System.currentTimeMillis();
@@ -0,0 +1,717 @@
+package dev.randombytes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Compact index of every known player, stored in parallel primitive arrays instead of one object per player.
+ * The index is persisted as a single binary file so it can be loaded with one sequential read.
+ */
+public class PlayerIndex {
+    public static final int FLAG_BANNED = 1;
+    public static final int FLAG_OP = 2;
+    public static final int FLAG_WHITELISTED = 4;
+    public static final int FLAG_STATS_LOADED = 8;
+
+    private static final int MAGIC = 0x4D435049; // "MCPI"
+    private static final int VERSION = 1;
+
+    /**
+     * Orderings kept sorted as entries change, so a page can be read without sorting
+     */
+    public enum Sort { NAME, LAST_SEEN, PLAY_TIME }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Saves come from the periodic task, reconcile and shutdown; they share one temp file, so one at a time
+    private final Object saveLock = new Object();
+
+    private int size;
+    private long[] uuidMost;
+    private long[] uuidLeast;
+    private long[] lastSeen;
+    private long[] playTime;
+    private byte[] flags;
+
+    // Names are UTF-8 bytes in one shared pool; a rename appends and the old bytes are dropped on the next load
+    private int[] nameOffset;
+    private byte[] nameLength;
+    private byte[] namePool;
+    private int namePoolSize;
+
+    // Open-addressing table of slot + 1 (0 means empty), keyed by the UUID's two longs
+    private int[] table;
+
+    // One array of slots per Sort, ascending; an entry is moved by binary search and arraycopy when its key changes
+    private int[][] orders;
+
+    // Number of entries with each flag bit set
+    private final int[] flagCounts = new int[8];
+
+    // Bumped on every change; the index is dirty while it differs from the count at the last save
+    private long modCount;
+    private long savedModCount;
+
+    public PlayerIndex() {
+        allocate(1024);
+    }
+
+    private void allocate(int capacity) {
+        size = 0;
+        uuidMost = new long[capacity];
+        uuidLeast = new long[capacity];
+        lastSeen = new long[capacity];
+        playTime = new long[capacity];
+        flags = new byte[capacity];
+        nameOffset = new int[capacity];
+        nameLength = new byte[capacity];
+        namePool = new byte[capacity * 12];
+        namePoolSize = 0;
+        table = new int[tableSizeFor(capacity)];
+        orders = new int[Sort.values().length][capacity];
+        Arrays.fill(flagCounts, 0);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int tableSize = 16;
+        while (tableSize < capacity * 2) {
+            tableSize <<= 1;
+        }
+        return tableSize;
+    }
+
+    /**
+     * Immutable copy of one index entry
+     */
+    public static class Entry {
+        public final UUID uuid;
+        public final String name;
+        public final long lastSeen;
+        public final long playTime;
+        public final int flags;
+
+        Entry(UUID uuid, String name, long lastSeen, long playTime, int flags) {
+            this.uuid = uuid;
+            this.name = name;
+            this.lastSeen = lastSeen;
+            this.playTime = playTime;
+            this.flags = flags;
+        }
+
+        public boolean hasFlag(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+
+    /**
+     * Filter, ordering and window for {@link #query(Query)}
+     */
+    public static class Query {
+        public Sort sort = Sort.NAME;
+        public boolean descending;
+        public int requiredFlags;
+        public int excludedFlags;
+        public long seenFrom = Long.MIN_VALUE;
+        public long seenTo = Long.MAX_VALUE;
+        // Restricts the result to these players; meant for small sets such as the online players
+        public Collection<UUID> candidates;
+        // Extra per-player condition, or null
+        public Predicate<UUID> filter;
+        public int offset;
+        public int limit = Integer.MAX_VALUE;
+    }
+
+    /**
+     * One page of query results
+     */
+    public static class Page {
+        public final List<Entry> entries;
+        public final boolean hasMore;
+        // Number of matching entries, or -1 if it could not be determined without scanning everything
+        public final int total;
+
+        Page(List<Entry> entries, boolean hasMore, int total) {
+            this.entries = entries;
+            this.hasMore = hasMore;
+            this.total = total;
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isDirty() {
+        lock.readLock().lock();
+        try {
+            return modCount != savedModCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(UUID uuid) {
+        lock.readLock().lock();
+        try {
+            return find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The entry, or null if the player is not indexed
+     */
+    public Entry get(UUID uuid) {
+        lock.readLock().lock();
+        try {
+            int slot = find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            return slot < 0 ? null : entryAt(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts or replaces a player's entry
+     */
+    public void put(UUID uuid, String name, long seen, long time, int entryFlags) {
+        lock.writeLock().lock();
+        try {
+            long most = uuid.getMostSignificantBits();
+            long least = uuid.getLeastSignificantBits();
+            int slot = find(most, least);
+            if (slot >= 0) {
+                for (Sort sort : Sort.values()) {
+                    removeFromOrder(sort, slot);
+                }
+            } else {
+                slot = findOrInsert(most, least);
+            }
+            setName(slot, name);
+            lastSeen[slot] = seen;
+            playTime[slot] = time;
+            setFlags(slot, entryFlags);
+            for (Sort sort : Sort.values()) {
+                insertIntoOrder(sort, slot);
+            }
+            modCount++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Updates name, last seen and play time of an indexed player, keeping its flags
+     * @return false if the player is not indexed
+     */
+    public boolean update(UUID uuid, String name, long seen, long time) {
+        lock.writeLock().lock();
+        try {
+            int slot = find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            if (slot < 0) {
+                return false;
+            }
+            boolean changed = false;
+            if (name != null && !name.equals(nameAt(slot))) {
+                removeFromOrder(Sort.NAME, slot);
+                setName(slot, name);
+                insertIntoOrder(Sort.NAME, slot);
+                changed = true;
+            }
+            if (seen > lastSeen[slot]) {
+                removeFromOrder(Sort.LAST_SEEN, slot);
+                lastSeen[slot] = seen;
+                insertIntoOrder(Sort.LAST_SEEN, slot);
+                changed = true;
+            }
+            if (time >= 0 && time != playTime[slot]) {
+                removeFromOrder(Sort.PLAY_TIME, slot);
+                playTime[slot] = time;
+                insertIntoOrder(Sort.PLAY_TIME, slot);
+                changed = true;
+            }
+            if (changed) {
+                modCount++;
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets or clears flag bits of an indexed player
+     */
+    public void setFlag(UUID uuid, int flag, boolean value) {
+        lock.writeLock().lock();
+        try {
+            int slot = find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            if (slot < 0) {
+                return;
+            }
+            int current = flags[slot] & 0xFF;
+            int updated = value ? (current | flag) : (current & ~flag);
+            if (updated != current) {
+                setFlags(slot, updated);
+                modCount++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Visits every entry under the read lock; the consumer must not modify the index
+     */
+    public void forEach(Consumer<Entry> consumer) {
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < size; slot++) {
+                consumer.accept(entryAt(slot));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies up to count entries starting at a slot, so callers can walk the whole index without holding its lock.
+     * Slots are never reused; continuing at from + the number of entries returned visits every player once.
+     */
+    public List<Entry> entries(int from, int count) {
+        lock.readLock().lock();
+        try {
+            List<Entry> result = new ArrayList<>(Math.max(0, Math.min(count, size - from)));
+            for (int slot = from; slot < size && result.size() < count; slot++) {
+                result.add(entryAt(slot));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the players that have the given flag
+     */
+    public Set<UUID> withFlag(int flag) {
+        Set<UUID> result = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < size; slot++) {
+                if ((flags[slot] & flag) != 0) {
+                    result.add(new UUID(uuidMost[slot], uuidLeast[slot]));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Gets the players that do not have the given flag, e.g. whose statistics were never loaded
+     */
+    public List<UUID> withoutFlag(int flag, int limit) {
+        List<UUID> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < size && result.size() < limit; slot++) {
+                if ((flags[slot] & flag) == 0) {
+                    result.add(new UUID(uuidMost[slot], uuidLeast[slot]));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Reads one page in the requested order. Without candidates the cost is proportional to the entries skipped
+     * and returned rather than to the index size; a last-seen range on the last-seen order is found by binary search.
+     */
+    public Page query(Query query) {
+        int offset = Math.max(0, query.offset);
+        int limit = Math.max(0, query.limit);
+        List<Entry> entries = new ArrayList<>(Math.min(limit, 256));
+
+        lock.readLock().lock();
+        try {
+            int[] order;
+            int start = 0;
+            int end;
+            boolean rangeByPosition = false;
+
+            if (query.candidates != null) {
+                order = candidateOrder(query.sort, query.candidates);
+                end = order.length;
+            } else {
+                order = orders[query.sort.ordinal()];
+                end = size;
+                if (query.sort == Sort.LAST_SEEN) {
+                    start = query.seenFrom == Long.MIN_VALUE ? 0 : firstSeenAfter(query.seenFrom - 1);
+                    end = query.seenTo == Long.MAX_VALUE ? size : firstSeenAfter(query.seenTo);
+                    rangeByPosition = true;
+                }
+            }
+
+            int matched = 0;
+            boolean hasMore = false;
+            for (int i = 0; i < end - start; i++) {
+                int slot = order[query.descending ? end - 1 - i : start + i];
+                if (!matches(slot, query, rangeByPosition)) {
+                    continue;
+                }
+                if (matched++ < offset) {
+                    continue;
+                }
+                if (entries.size() == limit) {
+                    hasMore = true;
+                    break;
+                }
+                entries.add(entryAt(slot));
+            }
+
+            int total = hasMore ? knownTotal(query, start, end, rangeByPosition) : matched;
+            return new Page(entries, hasMore, total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean matches(int slot, Query query, boolean rangeByPosition) {
+        int entryFlags = flags[slot] & 0xFF;
+        if ((entryFlags & query.requiredFlags) != query.requiredFlags || (entryFlags & query.excludedFlags) != 0) {
+            return false;
+        }
+        if (!rangeByPosition && (lastSeen[slot] < query.seenFrom || lastSeen[slot] > query.seenTo)) {
+            return false;
+        }
+        return query.filter == null || query.filter.test(new UUID(uuidMost[slot], uuidLeast[slot]));
+    }
+
+    // Totals that are known without a scan: the whole index, a last-seen range, or a single flag
+    private int knownTotal(Query query, int start, int end, boolean rangeByPosition) {
+        if (query.candidates != null || query.filter != null || query.excludedFlags != 0) {
+            return -1;
+        }
+        boolean noRange = query.seenFrom == Long.MIN_VALUE && query.seenTo == Long.MAX_VALUE;
+        if (query.requiredFlags == 0) {
+            return rangeByPosition || noRange ? end - start : -1;
+        }
+        if (Integer.bitCount(query.requiredFlags) == 1 && noRange) {
+            return flagCounts[Integer.numberOfTrailingZeros(query.requiredFlags)];
+        }
+        return -1;
+    }
+
+    private int[] candidateOrder(Sort sort, Collection<UUID> candidates) {
+        List<Integer> slots = new ArrayList<>(candidates.size());
+        for (UUID uuid : candidates) {
+            int slot = find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            if (slot >= 0) {
+                slots.add(slot);
+            }
+        }
+        slots.sort((a, b) -> compare(sort, a, b));
+        return slots.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Position of the first entry in the last-seen order whose last seen time is greater than the given value
+    private int firstSeenAfter(long value) {
+        int[] order = orders[Sort.LAST_SEEN.ordinal()];
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lastSeen[order[mid]] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Total order per sort; ties are broken by UUID so every slot has exactly one position
+    private int compare(Sort sort, int a, int b) {
+        int result;
+        switch (sort) {
+            case LAST_SEEN:
+                result = Long.compare(lastSeen[a], lastSeen[b]);
+                break;
+            case PLAY_TIME:
+                result = Long.compare(playTime[a], playTime[b]);
+                break;
+            default:
+                result = compareNames(a, b);
+                break;
+        }
+        if (result != 0) {
+            return result;
+        }
+        result = Long.compare(uuidMost[a], uuidMost[b]);
+        return result != 0 ? result : Long.compare(uuidLeast[a], uuidLeast[b]);
+    }
+
+    // Case-insensitive for ASCII, which covers Minecraft names; players without a name sort last
+    private int compareNames(int a, int b) {
+        int lengthA = nameLength[a] & 0xFF;
+        int lengthB = nameLength[b] & 0xFF;
+        if (lengthA == 0 || lengthB == 0) {
+            return Boolean.compare(lengthA == 0, lengthB == 0);
+        }
+        int offsetA = nameOffset[a];
+        int offsetB = nameOffset[b];
+        for (int i = 0; i < Math.min(lengthA, lengthB); i++) {
+            int charA = lowerAscii(namePool[offsetA + i]);
+            int charB = lowerAscii(namePool[offsetB + i]);
+            if (charA != charB) {
+                return charA - charB;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    private static int lowerAscii(byte value) {
+        int c = value & 0xFF;
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    // Removal expects the order to hold all size entries; insertion expects it to lack only the given slot
+    private void removeFromOrder(Sort sort, int slot) {
+        int[] order = orders[sort.ordinal()];
+        int position = orderPosition(sort, order, size, slot);
+        System.arraycopy(order, position + 1, order, position, size - position - 1);
+    }
+
+    private void insertIntoOrder(Sort sort, int slot) {
+        int[] order = orders[sort.ordinal()];
+        int count = size - 1;
+        int position = orderPosition(sort, order, count, slot);
+        System.arraycopy(order, position, order, position + 1, count - position);
+        order[position] = slot;
+    }
+
+    private int orderPosition(Sort sort, int[] order, int count, int slot) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(sort, order[mid], slot) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void rebuildOrders() {
+        Integer[] slots = new Integer[size];
+        for (int slot = 0; slot < size; slot++) {
+            slots[slot] = slot;
+        }
+        for (Sort sort : Sort.values()) {
+            Arrays.sort(slots, (a, b) -> compare(sort, a, b));
+            int[] order = orders[sort.ordinal()];
+            for (int i = 0; i < size; i++) {
+                order[i] = slots[i];
+            }
+        }
+    }
+
+    private void setFlags(int slot, int updated) {
+        int previous = flags[slot] & 0xFF;
+        for (int bit = 0; bit < flagCounts.length; bit++) {
+            flagCounts[bit] += ((updated >> bit) & 1) - ((previous >> bit) & 1);
+        }
+        flags[slot] = (byte) updated;
+    }
+
+    private Entry entryAt(int slot) {
+        return new Entry(new UUID(uuidMost[slot], uuidLeast[slot]), nameAt(slot), lastSeen[slot], playTime[slot], flags[slot] & 0xFF);
+    }
+
+    private String nameAt(int slot) {
+        int length = nameLength[slot] & 0xFF;
+        return length == 0 ? null : new String(namePool, nameOffset[slot], length, StandardCharsets.UTF_8);
+    }
+
+    private void setName(int slot, String name) {
+        if (name == null) {
+            nameLength[slot] = 0;
+            return;
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, 255);
+        if (namePoolSize + length > namePool.length) {
+            namePool = Arrays.copyOf(namePool, Math.max(namePool.length * 2, namePoolSize + length));
+        }
+        System.arraycopy(bytes, 0, namePool, namePoolSize, length);
+        nameOffset[slot] = namePoolSize;
+        nameLength[slot] = (byte) length;
+        namePoolSize += length;
+    }
+
+    private static int hash(long most, long least) {
+        long h = (most ^ (least * 0x9E3779B97F4A7C15L));
+        h ^= h >>> 29;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int find(long most, long least) {
+        int mask = table.length - 1;
+        int index = hash(most, least) & mask;
+        while (table[index] != 0) {
+            int slot = table[index] - 1;
+            if (uuidMost[slot] == most && uuidLeast[slot] == least) {
+                return slot;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int findOrInsert(long most, long least) {
+        int existing = find(most, least);
+        if (existing >= 0) {
+            return existing;
+        }
+
+        if (size == uuidMost.length) {
+            grow();
+        }
+        int slot = size++;
+        uuidMost[slot] = most;
+        uuidLeast[slot] = least;
+        insertIntoTable(slot);
+        return slot;
+    }
+
+    private void insertIntoTable(int slot) {
+        int mask = table.length - 1;
+        int index = hash(uuidMost[slot], uuidLeast[slot]) & mask;
+        while (table[index] != 0) {
+            index = (index + 1) & mask;
+        }
+        table[index] = slot + 1;
+    }
+
+    private void grow() {
+        int capacity = uuidMost.length * 2;
+        uuidMost = Arrays.copyOf(uuidMost, capacity);
+        uuidLeast = Arrays.copyOf(uuidLeast, capacity);
+        lastSeen = Arrays.copyOf(lastSeen, capacity);
+        playTime = Arrays.copyOf(playTime, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        nameOffset = Arrays.copyOf(nameOffset, capacity);
+        nameLength = Arrays.copyOf(nameLength, capacity);
+        for (int i = 0; i < orders.length; i++) {
+            orders[i] = Arrays.copyOf(orders[i], capacity);
+        }
+
+        table = new int[tableSizeFor(capacity)];
+        for (int slot = 0; slot < size; slot++) {
+            insertIntoTable(slot);
+        }
+    }
+
+    /**
+     * Replaces the index contents with the given file
+     * Record layout: most, least, lastSeen, playTime (longs), flags (byte), name length (byte), name bytes
+     */
+    public void load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a player index file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported player index version " + version);
+            }
+            int count = in.readInt();
+
+            lock.writeLock().lock();
+            try {
+                allocate(Math.max(1024, count));
+                byte[] nameBuffer = new byte[255];
+                for (int i = 0; i < count; i++) {
+                    int slot = findOrInsert(in.readLong(), in.readLong());
+                    lastSeen[slot] = in.readLong();
+                    playTime[slot] = in.readLong();
+                    setFlags(slot, in.readUnsignedByte());
+                    int length = in.readUnsignedByte();
+                    in.readFully(nameBuffer, 0, length);
+                    setName(slot, length == 0 ? null : new String(nameBuffer, 0, length, StandardCharsets.UTF_8));
+                }
+                rebuildOrders();
+                savedModCount = modCount;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file and atomically moves it into place
+     */
+    public void save(Path file) throws IOException {
+        synchronized (saveLock) {
+            Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            long snapshotModCount;
+
+            // The read lock is held while writing so the snapshot is consistent; the stream is buffered
+            lock.readLock().lock();
+            snapshotModCount = modCount;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(size);
+                for (int slot = 0; slot < size; slot++) {
+                    out.writeLong(uuidMost[slot]);
+                    out.writeLong(uuidLeast[slot]);
+                    out.writeLong(lastSeen[slot]);
+                    out.writeLong(playTime[slot]);
+                    out.writeByte(flags[slot]);
+                    out.writeByte(nameLength[slot]);
+                    out.write(namePool, nameOffset[slot], nameLength[slot] & 0xFF);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            lock.writeLock().lock();
+            try {
+                savedModCount = snapshotModCount;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package dev.randombytes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * In-memory name to UUID index with prefix search and trigram based fuzzy search
+ */
+public class PlayerNameIndex {
+    public static final int MATCH_EXACT = 3;
+    public static final int MATCH_PREFIX = 2;
+    public static final int MATCH_FUZZY = 1;
+
+    private static final int MAX_PREFIX_CANDIDATES = 1000;
+    private static final int MIN_FUZZY_QUERY_LENGTH = 3;
+    private static final double MIN_SIMILARITY = 0.3;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Per id: display name, lowercase name and owner; ids are never reused
+    private final List<String> names = new ArrayList<>();
+    private final List<String> lowerNames = new ArrayList<>();
+    private final List<UUID> uuids = new ArrayList<>();
+    private final List<Integer> trigramCounts = new ArrayList<>();
+    private final Map<UUID, Integer> idsByUuid = new HashMap<>();
+
+    // Lowercase name to ids; several players can share a name after renames
+    private final TreeMap<String, IntList> byName = new TreeMap<>();
+    private final Map<Integer, IntList> postings = new HashMap<>();
+
+    /**
+     * A ranked search result
+     */
+    public static class Match {
+        public final UUID uuid;
+        public final String name;
+        public final int type;
+        public final double score;
+
+        Match(UUID uuid, String name, int type, double score) {
+            this.uuid = uuid;
+            this.name = name;
+            this.type = type;
+            this.score = score;
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return idsByUuid.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a player or updates their name
+     */
+    public void put(UUID uuid, String name) {
+        if (name == null || name.isEmpty()) {
+            return;
+        }
+        String lower = name.toLowerCase();
+
+        lock.writeLock().lock();
+        try {
+            Integer id = idsByUuid.get(uuid);
+            if (id != null) {
+                if (lowerNames.get(id).equals(lower)) {
+                    names.set(id, name);
+                    return;
+                }
+                unindex(id);
+                names.set(id, name);
+                lowerNames.set(id, lower);
+            } else {
+                id = names.size();
+                names.add(name);
+                lowerNames.add(lower);
+                uuids.add(uuid);
+                trigramCounts.add(0);
+                idsByUuid.put(uuid, id);
+            }
+            index(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void index(int id) {
+        byName.computeIfAbsent(lowerNames.get(id), key -> new IntList()).add(id);
+        int[] nameTrigrams = trigrams(lowerNames.get(id));
+        for (int trigram : nameTrigrams) {
+            postings.computeIfAbsent(trigram, key -> new IntList()).add(id);
+        }
+        trigramCounts.set(id, nameTrigrams.length);
+    }
+
+    private void unindex(int id) {
+        String lower = lowerNames.get(id);
+        IntList ids = byName.get(lower);
+        if (ids != null && ids.remove(id) && ids.size == 0) {
+            byName.remove(lower);
+        }
+        for (int trigram : trigrams(lower)) {
+            IntList list = postings.get(trigram);
+            if (list != null && list.remove(id) && list.size == 0) {
+                postings.remove(trigram);
+            }
+        }
+    }
+
+    /**
+     * Gets every player currently using the name, ignoring case
+     */
+    public List<UUID> lookup(String name) {
+        List<UUID> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            IntList ids = byName.get(name.toLowerCase());
+            if (ids != null) {
+                for (int i = 0; i < ids.size; i++) {
+                    result.add(uuids.get(ids.values[i]));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Searches names by prefix, falling back to trigram similarity when there are not enough prefix matches
+     * @param query The partial or misspelled name
+     * @param limit Maximum number of results
+     * @param preferred Players ranked first among equal matches (e.g. online players), or null
+     * @return Matches ordered by match type, then score, then preference and name
+     */
+    public List<Match> search(String query, int limit, Predicate<UUID> preferred) {
+        String lower = query.trim().toLowerCase();
+        if (lower.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        Map<Integer, Match> matches = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            // Prefix matches come straight from the sorted map; shorter names are closer to the query
+            NavigableMap<String, IntList> prefixed = byName.subMap(lower, true, lower + Character.MAX_VALUE, false);
+            for (Map.Entry<String, IntList> entry : prefixed.entrySet()) {
+                int type = entry.getKey().length() == lower.length() ? MATCH_EXACT : MATCH_PREFIX;
+                double score = (double) lower.length() / entry.getKey().length();
+                IntList ids = entry.getValue();
+                for (int i = 0; i < ids.size; i++) {
+                    int id = ids.values[i];
+                    matches.put(id, new Match(uuids.get(id), names.get(id), type, score));
+                }
+                if (matches.size() >= MAX_PREFIX_CANDIDATES) {
+                    break;
+                }
+            }
+
+            if (matches.size() < limit && lower.length() >= MIN_FUZZY_QUERY_LENGTH) {
+                addFuzzyMatches(lower, matches);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Match> ranked = new ArrayList<>(matches.values());
+        Comparator<Match> order = Comparator.<Match>comparingInt(match -> match.type).reversed()
+                .thenComparing(Comparator.<Match>comparingDouble(match -> match.score).reversed());
+        if (preferred != null) {
+            order = order.thenComparing(match -> !preferred.test(match.uuid));
+        }
+        ranked.sort(order.thenComparing(match -> match.name, String.CASE_INSENSITIVE_ORDER));
+        return ranked.size() > limit ? new ArrayList<>(ranked.subList(0, limit)) : ranked;
+    }
+
+    // Scores every name sharing a trigram with the query by the Dice coefficient of their trigram sets
+    private void addFuzzyMatches(String lower, Map<Integer, Match> matches) {
+        int[] queryTrigrams = trigrams(lower);
+        // Keyed by candidate, so a query costs what its postings cost rather than the size of the index
+        Map<Integer, Integer> shared = new HashMap<>();
+        for (int trigram : queryTrigrams) {
+            IntList ids = postings.get(trigram);
+            if (ids == null) {
+                continue;
+            }
+            for (int i = 0; i < ids.size; i++) {
+                shared.merge(ids.values[i], 1, Integer::sum);
+            }
+        }
+
+        for (Map.Entry<Integer, Integer> candidate : shared.entrySet()) {
+            int id = candidate.getKey();
+            if (matches.containsKey(id)) {
+                continue;
+            }
+            double similarity = 2.0 * candidate.getValue() / (queryTrigrams.length + trigramCounts.get(id));
+            if (similarity >= MIN_SIMILARITY) {
+                matches.put(id, new Match(uuids.get(id), names.get(id), MATCH_FUZZY, similarity));
+            }
+        }
+    }
+
+    // Distinct trigrams of the name padded with two leading and one trailing marker, e.g. "  a", " ab", "ab "
+    private static int[] trigrams(String lower) {
+        int length = lower.length();
+        int[] result = new int[length + 1];
+        char previous2 = 0;
+        char previous1 = 0;
+        for (int i = 0; i <= length; i++) {
+            char current = i < length ? lower.charAt(i) : 0;
+            result[i] = ((previous2 & 0x3FF) << 20) | ((previous1 & 0x3FF) << 10) | (current & 0x3FF);
+            previous2 = previous1;
+            previous1 = current;
+        }
+        Arrays.sort(result);
+        int distinct = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (i == 0 || result[i] != result[i - 1]) {
+                result[distinct++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, distinct);
+    }
+
+    // Growable int array used for posting lists
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        boolean remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    values[i] = values[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
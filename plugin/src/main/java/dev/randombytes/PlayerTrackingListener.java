@@ -15,14 +15,14 @@ public class PlayerTrackingListener implements Listener {
     
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
-        manager.updatePlayerData(event.getPlayer());
+        manager.playerJoined(event.getPlayer());
         manager.addConsoleLog("[JOIN] " + event.getPlayer().getName() + " joined the game");
         manager.addChatLog("[+] " + event.getPlayer().getName() + " joined the server");
     }
     
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
-        manager.updatePlayerData(event.getPlayer());
+        manager.playerQuit(event.getPlayer());
         manager.addConsoleLog("[QUIT] " + event.getPlayer().getName() + " left the game");
         manager.addChatLog("[-] " + event.getPlayer().getName() + " left the server");
     }
@@ -0,0 +1,381 @@
+package dev.randombytes;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Samples thread stacks through ThreadMXBean and aggregates them into a call tree
+ * that can be exported as folded stacks or as a JSON tree for flame graphs
+ */
+public class SamplingProfiler {
+    private static final int MAX_STACK_DEPTH = 128;
+    private static final int MAX_NODES = 250_000;
+    private static final int MIN_INTERVAL_MS = 1;
+    private static final int MAX_DURATION_SECONDS = 600;
+
+    private final Plugin plugin;
+    private final long serverThreadId;
+    private final ThreadMXBean threadBean;
+
+    private Thread samplerThread;
+    private volatile boolean running;
+    private long startedAt;
+    private long stoppedAt;
+    private int intervalMs;
+    private boolean allThreads;
+
+    // Call tree stored as parallel arrays; node 0 is the root
+    private int nodeCount;
+    private int[] nodeParent;
+    private int[] nodeFrame;
+    private long[] nodeSelf;
+    private long[] nodeTotal;
+    private LongIntMap childIndex;
+    private Map<String, Integer> frameIds;
+    private List<String> frames;
+    private long sampleCount;
+    private long truncatedSamples;
+
+    /**
+     * Must be constructed on the server thread so it can be identified for main-thread sampling
+     */
+    public SamplingProfiler(Plugin plugin) {
+        this.plugin = plugin;
+        this.serverThreadId = Thread.currentThread().threadId();
+        this.threadBean = ManagementFactory.getThreadMXBean();
+        reset();
+    }
+
+    private void reset() {
+        nodeCount = 1;
+        nodeParent = new int[1024];
+        nodeFrame = new int[1024];
+        nodeSelf = new long[1024];
+        nodeTotal = new long[1024];
+        nodeParent[0] = -1;
+        nodeFrame[0] = -1;
+        childIndex = new LongIntMap(2048);
+        frameIds = new HashMap<>();
+        frames = new ArrayList<>();
+        sampleCount = 0;
+        truncatedSamples = 0;
+    }
+
+    /**
+     * Starts a new profiling session, discarding the previous results
+     * @param intervalMs Sampling interval in milliseconds
+     * @param durationSeconds Session length after which sampling stops by itself
+     * @param allThreads Whether to sample every live thread instead of only the server thread
+     * @return false if a session is already running
+     */
+    public synchronized boolean start(int intervalMs, int durationSeconds, boolean allThreads) {
+        if (running) {
+            return false;
+        }
+
+        reset();
+        this.intervalMs = Math.max(MIN_INTERVAL_MS, intervalMs);
+        this.allThreads = allThreads;
+        this.startedAt = System.currentTimeMillis();
+        this.stoppedAt = 0;
+        long deadline = startedAt + Math.min(Math.max(1, durationSeconds), MAX_DURATION_SECONDS) * 1000L;
+
+        running = true;
+        samplerThread = new Thread(() -> sampleLoop(deadline), "MCControl-Profiler");
+        samplerThread.setDaemon(true);
+        samplerThread.start();
+
+        plugin.getLogger().info("Sampling profiler started (" + this.intervalMs + "ms interval, "
+                + (allThreads ? "all threads" : "server thread") + ")");
+        return true;
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        stoppedAt = System.currentTimeMillis();
+        if (samplerThread != null) {
+            samplerThread.interrupt();
+        }
+        plugin.getLogger().info("Sampling profiler stopped after " + sampleCount + " samples");
+    }
+
+    private void sampleLoop(long deadline) {
+        while (running) {
+            if (System.currentTimeMillis() >= deadline) {
+                stop();
+                return;
+            }
+
+            if (allThreads) {
+                ThreadInfo[] infos = threadBean.dumpAllThreads(false, false, MAX_STACK_DEPTH);
+                synchronized (this) {
+                    for (ThreadInfo info : infos) {
+                        if (info != null && info.getThreadId() != Thread.currentThread().threadId()) {
+                            addSample(info.getThreadName(), info.getStackTrace());
+                        }
+                    }
+                }
+            } else {
+                ThreadInfo info = threadBean.getThreadInfo(serverThreadId, MAX_STACK_DEPTH);
+                if (info != null) {
+                    synchronized (this) {
+                        addSample(null, info.getStackTrace());
+                    }
+                }
+            }
+
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void addSample(String threadName, StackTraceElement[] stack) {
+        if (!running || stack.length == 0) {
+            return;
+        }
+
+        sampleCount++;
+        nodeTotal[0]++;
+        int node = 0;
+
+        if (threadName != null) {
+            node = child(node, threadFrame(threadName));
+            if (node < 0) {
+                truncatedSamples++;
+                nodeSelf[0]++;
+                return;
+            }
+            nodeTotal[node]++;
+        }
+
+        // Stack traces are innermost-first; the tree is outermost-first
+        for (int i = stack.length - 1; i >= 0; i--) {
+            StackTraceElement element = stack[i];
+            int next = child(node, frameId(element.getClassName() + "." + element.getMethodName()));
+            if (next < 0) {
+                // Out of node budget: attribute the rest of the stack to the deepest known frame
+                truncatedSamples++;
+                break;
+            }
+            node = next;
+            nodeTotal[node]++;
+        }
+        nodeSelf[node]++;
+    }
+
+    private int threadFrame(String threadName) {
+        // Numbered pool threads share one node so pools don't explode the tree
+        return frameId("[" + threadName.replaceAll("\\d+", "#") + "]");
+    }
+
+    private int frameId(String frame) {
+        Integer id = frameIds.get(frame);
+        if (id == null) {
+            id = frames.size();
+            frames.add(frame);
+            frameIds.put(frame, id);
+        }
+        return id;
+    }
+
+    private int child(int parent, int frame) {
+        long key = ((long) parent << 32) | (frame & 0xFFFFFFFFL);
+        int existing = childIndex.get(key);
+        if (existing >= 0) {
+            return existing;
+        }
+        if (nodeCount >= MAX_NODES) {
+            return -1;
+        }
+
+        int node = nodeCount++;
+        if (node >= nodeParent.length) {
+            int size = Math.min(nodeParent.length * 2, MAX_NODES);
+            nodeParent = Arrays.copyOf(nodeParent, size);
+            nodeFrame = Arrays.copyOf(nodeFrame, size);
+            nodeSelf = Arrays.copyOf(nodeSelf, size);
+            nodeTotal = Arrays.copyOf(nodeTotal, size);
+        }
+        nodeParent[node] = parent;
+        nodeFrame[node] = frame;
+        childIndex.put(key, node);
+        return node;
+    }
+
+    private int[][] buildChildren() {
+        int[] childCounts = new int[nodeCount];
+        for (int i = 1; i < nodeCount; i++) {
+            childCounts[nodeParent[i]]++;
+        }
+        int[][] children = new int[nodeCount][];
+        for (int i = 0; i < nodeCount; i++) {
+            children[i] = new int[childCounts[i]];
+            childCounts[i] = 0;
+        }
+        for (int i = 1; i < nodeCount; i++) {
+            int parent = nodeParent[i];
+            children[parent][childCounts[parent]++] = i;
+        }
+        return children;
+    }
+
+    public synchronized JsonObject getStatus() {
+        JsonObject result = new JsonObject();
+        result.addProperty("running", running);
+        result.addProperty("startedAt", startedAt);
+        result.addProperty("stoppedAt", stoppedAt);
+        result.addProperty("intervalMs", intervalMs);
+        result.addProperty("allThreads", allThreads);
+        result.addProperty("samples", sampleCount);
+        result.addProperty("truncatedSamples", truncatedSamples);
+        result.addProperty("nodes", nodeCount);
+        result.addProperty("maxNodes", MAX_NODES);
+        return result;
+    }
+
+    /**
+     * Exports the call tree in folded-stack format ("frame;frame;frame count" per line)
+     */
+    public synchronized String exportFolded() {
+        StringBuilder sb = new StringBuilder();
+        int[][] children = buildChildren();
+
+        // Iterative DFS keeping the current path in a builder
+        int[] stack = new int[nodeCount];
+        int[] pathLengths = new int[nodeCount];
+        StringBuilder path = new StringBuilder();
+        int top = 0;
+        for (int child : children[0]) {
+            stack[top] = child;
+            pathLengths[top++] = 0;
+        }
+        while (top > 0) {
+            int node = stack[--top];
+            path.setLength(pathLengths[top]);
+            if (path.length() > 0) {
+                path.append(';');
+            }
+            path.append(frames.get(nodeFrame[node]));
+
+            if (nodeSelf[node] > 0) {
+                sb.append(path).append(' ').append(nodeSelf[node]).append('\n');
+            }
+            for (int child : children[node]) {
+                stack[top] = child;
+                pathLengths[top++] = path.length();
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Exports the call tree as nested {name, value, children} objects
+     * @param minSamples Nodes with fewer samples than this are left out
+     */
+    public synchronized JsonObject exportTree(long minSamples) {
+        int[][] children = buildChildren();
+        JsonObject root = toJson(0, children, Math.max(1, minSamples));
+        JsonObject result = getStatus();
+        result.add("tree", root);
+        return result;
+    }
+
+    private JsonObject toJson(int node, int[][] children, long minSamples) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("name", node == 0 ? "root" : frames.get(nodeFrame[node]));
+        obj.addProperty("value", nodeTotal[node]);
+        obj.addProperty("self", nodeSelf[node]);
+
+        JsonArray childArray = new JsonArray();
+        for (int child : children[node]) {
+            if (nodeTotal[child] >= minSamples) {
+                childArray.add(toJson(child, children, minSamples));
+            }
+        }
+        if (childArray.size() > 0) {
+            obj.add("children", childArray);
+        }
+        return obj;
+    }
+
+    // Open-addressing long to int map used to find a child node by (parent, frame)
+    private static class LongIntMap {
+        private long[] keys;
+        private int[] values;
+        private boolean[] used;
+        private int size;
+
+        LongIntMap(int capacity) {
+            keys = new long[capacity];
+            values = new int[capacity];
+            used = new boolean[capacity];
+        }
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (used[slot]) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        void put(long key, int value) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (used[slot]) {
+                if (keys[slot] == key) {
+                    values[slot] = value;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package dev.randombytes;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Pages through the server's own logs directory without loading whole files. Plain logs such as latest.log
+ * are memory-mapped in windows and read backwards from the end or from a byte offset; gzipped archives are
+ * decompressed as a stream, keeping only the requested page in memory.
+ */
+public class ServerLogReader {
+    // Log files are named like latest.log, debug.log or 2024-05-01-1.log.gz; anything else is refused
+    private static final Pattern FILE_NAME = Pattern.compile("[A-Za-z0-9._-]+\\.log(\\.gz)?");
+    private static final int WINDOW_BYTES = 8 * 1024 * 1024;
+
+    private final File logsDir;
+
+    public ServerLogReader(File logsDir) {
+        this.logsDir = logsDir;
+    }
+
+    /**
+     * Log files in the logs directory, newest first
+     */
+    public List<File> list() {
+        File[] files = logsDir.listFiles((dir, name) -> FILE_NAME.matcher(name).matches());
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        List<File> result = new ArrayList<>(Arrays.asList(files));
+        result.sort((a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        return result;
+    }
+
+    /**
+     * Resolves a file name inside the logs directory
+     * @throws IllegalArgumentException if the name is not a log file name
+     */
+    public File resolve(String name) {
+        if (name == null || !FILE_NAME.matcher(name).matches() || name.startsWith(".")) {
+            throw new IllegalArgumentException("Not a log file: " + name);
+        }
+        return new File(logsDir, name);
+    }
+
+    /**
+     * Reads the page of lines before a position
+     * @param before For plain logs a byte offset, for archives a line number; negative means the end
+     * @param maxLines Maximum number of lines in the page
+     */
+    public Page read(File file, long before, int maxLines) throws IOException {
+        return file.getName().endsWith(".gz") ? readArchive(file, before, maxLines) : readBackwards(file, before, maxLines);
+    }
+
+    // Scans mapped windows from the end towards the start of the file, collecting lines newest first
+    private Page readBackwards(File file, long before, int maxLines) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long end = before < 0 || before > size ? size : before;
+            List<String> lines = new ArrayList<>();
+            long lineEnd = end;
+            long position = end;
+
+            while (position > 0 && lines.size() < maxLines) {
+                long windowStart = Math.max(0, position - WINDOW_BYTES);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, position - windowStart);
+                for (int i = (int) (position - windowStart) - 1; i >= 0 && lines.size() < maxLines; i--) {
+                    if (window.get(i) != '\n') {
+                        continue;
+                    }
+                    long newline = windowStart + i;
+                    // The newline ending the last line does not start an empty line after it
+                    if (newline != end - 1) {
+                        lines.add(decode(channel, window, windowStart, newline + 1, lineEnd));
+                    }
+                    lineEnd = newline;
+                }
+                position = windowStart;
+            }
+
+            long offset = lineEnd + 1;
+            if (lines.size() < maxLines) {
+                // Reached the start of the file; the first line has no newline before it
+                if (lineEnd > 0) {
+                    lines.add(decode(channel, null, 0, 0, lineEnd));
+                }
+                offset = 0;
+            }
+            Collections.reverse(lines);
+            return new Page(lines, offset, offset > 0, size);
+        }
+    }
+
+    private static String decode(FileChannel channel, MappedByteBuffer window, long windowStart, long start, long end) throws IOException {
+        if (end <= start) {
+            return "";
+        }
+        ByteBuffer bytes;
+        if (window != null && start >= windowStart && end <= windowStart + window.limit()) {
+            bytes = window.duplicate();
+            bytes.position((int) (start - windowStart));
+            bytes.limit((int) (end - windowStart));
+        } else {
+            // The line reaches past the current window
+            bytes = ByteBuffer.allocate((int) (end - start));
+            long at = start;
+            while (bytes.hasRemaining()) {
+                int read = channel.read(bytes, at);
+                if (read < 0) {
+                    break;
+                }
+                at += read;
+            }
+            bytes.flip();
+        }
+        String line = StandardCharsets.UTF_8.decode(bytes).toString();
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    // Archives cannot be read backwards, so they are streamed from the start keeping the last maxLines lines
+    private Page readArchive(File file, long before, int maxLines) throws IOException {
+        ArrayDeque<String> page = new ArrayDeque<>();
+        long lineNumber = 0;
+        boolean complete = true;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file), 1 << 16), StandardCharsets.UTF_8), 1 << 16)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (before >= 0 && lineNumber >= before) {
+                    complete = false;
+                    break;
+                }
+                page.addLast(line);
+                if (page.size() > maxLines) {
+                    page.removeFirst();
+                }
+                lineNumber++;
+            }
+        }
+        long offset = lineNumber - page.size();
+        // Total line count is only known when the whole archive was read
+        return new Page(new ArrayList<>(page), offset, offset > 0, complete ? lineNumber : -1);
+    }
+
+    /**
+     * A page of lines, oldest first. For plain logs offset is the byte offset of the first line and size is
+     * the file size; for archives they are a line number and the total line count (-1 if not read to the end).
+     * Pass offset as before to get the preceding page.
+     */
+    public static class Page {
+        public final List<String> lines;
+        public final long offset;
+        public final boolean hasMore;
+        public final long size;
+
+        Page(List<String> lines, long offset, boolean hasMore, long size) {
+            this.lines = lines;
+            this.offset = offset;
+            this.hasMore = hasMore;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,599 @@
+package dev.randombytes;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.bukkit.plugin.Plugin;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Session history with incrementally maintained aggregates. Finished sessions are appended to one file per
+ * month of the server's time zone; the aggregates (peak concurrent players per minute, daily actives, weekly retention cohorts) are
+ * updated as players join and leave, so queries over a year only read a few hundred day summaries.
+ * Days and hours are in the server's time zone.
+ *
+ * Session record: uuid (2 longs), join (long), quit (long), world name length (byte), world name (UTF-8)
+ */
+public class SessionStore {
+    private static final int PARTITION_MAGIC = 0x4D435353; // "MCSS"
+    private static final int AGGREGATES_MAGIC = 0x4D435341; // "MCSA"
+    private static final int VERSION = 1;
+    private static final int MINUTES_PER_DAY = 1440;
+    // Longer gaps mean the server was down, not that everyone stayed online
+    private static final int MAX_FILL_MINUTES = 10;
+
+    private final Plugin plugin;
+    private final File directory;
+    private final Path aggregatesFile;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final Object writeLock = new Object();
+    private final Object saveLock = new Object();
+
+    private final Map<UUID, OpenSession> online = new HashMap<>();
+    private final TreeMap<Integer, Day> days = new TreeMap<>();
+    private final Map<UUID, Activity> activity = new HashMap<>();
+    // Cohort week to number of its players active in each following week; offset 0 is the cohort size
+    private final TreeMap<Integer, int[]> retention = new TreeMap<>();
+    private int trackingStartDay = -1;
+    private long lastMinute = -1;
+    private boolean dirty;
+
+    // Partition currently appended to
+    private YearMonth partitionMonth;
+    private FileChannel partition;
+
+    public SessionStore(Plugin plugin, File directory) {
+        this.plugin = plugin;
+        this.directory = directory;
+        this.aggregatesFile = new File(directory, "aggregates.dat").toPath();
+    }
+
+    public void load() {
+        directory.mkdirs();
+        if (!Files.exists(aggregatesFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(aggregatesFile), 1 << 16))) {
+            if (in.readInt() != AGGREGATES_MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a session aggregates file");
+            }
+            synchronized (this) {
+                trackingStartDay = in.readInt();
+                int dayCount = in.readInt();
+                for (int i = 0; i < dayCount; i++) {
+                    Day day = new Day();
+                    int epochDay = in.readInt();
+                    day.active = in.readInt();
+                    day.newPlayers = in.readInt();
+                    for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+                        day.setPeak(minute, in.readShort());
+                    }
+                    days.put(epochDay, day);
+                }
+                int playerCount = in.readInt();
+                for (int i = 0; i < playerCount; i++) {
+                    UUID uuid = new UUID(in.readLong(), in.readLong());
+                    activity.put(uuid, new Activity(in.readInt(), in.readInt(), in.readInt()));
+                }
+                int cohortCount = in.readInt();
+                for (int i = 0; i < cohortCount; i++) {
+                    int week = in.readInt();
+                    int[] counts = new int[in.readInt()];
+                    for (int j = 0; j < counts.length; j++) {
+                        counts[j] = in.readInt();
+                    }
+                    retention.put(week, counts);
+                }
+            }
+            plugin.getLogger().info("Loaded session aggregates for " + days.size() + " days and "
+                    + activity.size() + " players");
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to load session aggregates: " + e.getMessage());
+        }
+    }
+
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Writes the aggregates to disk
+     */
+    public void save() throws IOException {
+        // The periodic task and shutdown both save; they share one temp file, so one at a time
+        synchronized (saveLock) {
+            Path tempFile = aggregatesFile.resolveSibling(aggregatesFile.getFileName() + ".tmp");
+            // Serialised in memory under the monitor for a consistent snapshot (about 3 KB per day), so joins
+            // and quits on the main thread never wait for the disk
+            ByteArrayOutputStream snapshot = new ByteArrayOutputStream(1 << 16);
+            synchronized (this) {
+                try (DataOutputStream out = new DataOutputStream(snapshot)) {
+                    out.writeInt(AGGREGATES_MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(trackingStartDay);
+                    out.writeInt(days.size());
+                    for (Map.Entry<Integer, Day> entry : days.entrySet()) {
+                        Day day = entry.getValue();
+                        out.writeInt(entry.getKey());
+                        out.writeInt(day.active);
+                        out.writeInt(day.newPlayers);
+                        for (short peak : day.peaks) {
+                            out.writeShort(peak);
+                        }
+                    }
+                    out.writeInt(activity.size());
+                    for (Map.Entry<UUID, Activity> entry : activity.entrySet()) {
+                        out.writeLong(entry.getKey().getMostSignificantBits());
+                        out.writeLong(entry.getKey().getLeastSignificantBits());
+                        out.writeInt(entry.getValue().firstDay);
+                        out.writeInt(entry.getValue().lastDay);
+                        out.writeInt(entry.getValue().lastWeek);
+                    }
+                    out.writeInt(retention.size());
+                    for (Map.Entry<Integer, int[]> entry : retention.entrySet()) {
+                        out.writeInt(entry.getKey());
+                        out.writeInt(entry.getValue().length);
+                        for (int count : entry.getValue()) {
+                            out.writeInt(count);
+                        }
+                    }
+                }
+                dirty = false;
+            }
+            try {
+                Files.write(tempFile, snapshot.toByteArray());
+                Files.move(tempFile, aggregatesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // The snapshot never reached the disk, so the next save has to try again
+                synchronized (this) {
+                    dirty = true;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @param firstPlayed When the player first joined the server according to Bukkit, or 0 if unknown
+     */
+    public synchronized void joined(UUID uuid, String world, long firstPlayed, long now) {
+        if (trackingStartDay < 0) {
+            trackingStartDay = localDay(now);
+        }
+        online.put(uuid, new OpenSession(now, world));
+        markActive(uuid, firstPlayed > 0 ? firstPlayed : now, now);
+        recordConcurrency(now);
+        dirty = true;
+    }
+
+    /**
+     * Ends a session
+     * @return The finished session, to be written with {@link #append(Session)}; null if no join was seen
+     */
+    public synchronized Session quit(UUID uuid, long now) {
+        // The leaving player still counts for the current minute
+        recordConcurrency(now);
+        OpenSession open = online.remove(uuid);
+        if (open == null) {
+            return null;
+        }
+        markActive(uuid, now, now);
+        dirty = true;
+        return new Session(uuid, open.join, now, open.world);
+    }
+
+    /**
+     * Carries the current player count into the current minute and counts online players as active today.
+     * Called once a minute so quiet minutes and sessions spanning midnight are covered.
+     */
+    public synchronized void tick(long now) {
+        recordConcurrency(now);
+        for (UUID uuid : online.keySet()) {
+            markActive(uuid, now, now);
+        }
+        dirty = true;
+    }
+
+    private void recordConcurrency(long now) {
+        long minute = Math.floorDiv(now, 60_000L);
+        if (lastMinute >= 0 && minute > lastMinute + 1 && minute - lastMinute <= MAX_FILL_MINUTES) {
+            for (long gap = lastMinute + 1; gap < minute; gap++) {
+                setPeak(gap, online.size());
+            }
+        }
+        setPeak(minute, online.size());
+        lastMinute = minute;
+    }
+
+    private void setPeak(long epochMinute, int count) {
+        long local = epochMinute + offsetMinutes(epochMinute * 60_000L);
+        Day day = day((int) Math.floorDiv(local, MINUTES_PER_DAY));
+        day.setPeak((int) Math.floorMod(local, MINUTES_PER_DAY), count);
+    }
+
+    // Counts the player once per day and once per week of their cohort
+    private void markActive(UUID uuid, long firstPlayed, long now) {
+        int today = localDay(now);
+        Activity player = activity.get(uuid);
+        if (player == null) {
+            int firstDay = Math.min(localDay(firstPlayed), today);
+            player = new Activity(firstDay, Integer.MIN_VALUE, Integer.MIN_VALUE);
+            activity.put(uuid, player);
+            if (firstDay == today) {
+                day(today).newPlayers++;
+            }
+        }
+        if (player.lastDay < today) {
+            player.lastDay = today;
+            day(today).active++;
+        }
+
+        int week = week(today);
+        int cohort = week(player.firstDay);
+        // Cohorts that started before tracking would be missing their early weeks
+        if (player.lastWeek < week && cohort >= week(trackingStartDay)) {
+            int[] counts = retention.computeIfAbsent(cohort, key -> new int[1]);
+            int offset = week - cohort;
+            if (offset >= counts.length) {
+                counts = Arrays.copyOf(counts, offset + 1);
+                retention.put(cohort, counts);
+            }
+            counts[offset]++;
+        }
+        player.lastWeek = Math.max(player.lastWeek, week);
+    }
+
+    private Day day(int epochDay) {
+        return days.computeIfAbsent(epochDay, key -> new Day());
+    }
+
+    private long offsetMinutes(long millis) {
+        return zone.getRules().getOffset(Instant.ofEpochMilli(millis)).getTotalSeconds() / 60;
+    }
+
+    private int localDay(long millis) {
+        return (int) Math.floorDiv(Math.floorDiv(millis, 60_000L) + offsetMinutes(millis), MINUTES_PER_DAY);
+    }
+
+    // Weeks start on Monday; epoch day 0 was a Thursday
+    private static int week(int epochDay) {
+        return Math.floorDiv(epochDay + 3, 7);
+    }
+
+    private static String dateOf(int epochDay) {
+        return LocalDate.ofEpochDay(epochDay).toString();
+    }
+
+    /**
+     * Peak concurrent players between two times, bucketed by minute, hour or day depending on the range
+     */
+    public synchronized JsonObject concurrency(long from, long to) {
+        long minutes = (to - from) / 60_000L;
+        int bucket = minutes <= 2 * MINUTES_PER_DAY ? 1 : minutes <= 60L * MINUTES_PER_DAY ? 60 : MINUTES_PER_DAY;
+
+        JsonArray points = new JsonArray();
+        int peak = 0;
+        for (Map.Entry<Integer, Day> entry : days.subMap(localDay(from), true, localDay(to), true).entrySet()) {
+            long dayStart = entry.getKey() * (long) MINUTES_PER_DAY;
+            Day day = entry.getValue();
+            for (int start = 0; start < MINUTES_PER_DAY; start += bucket) {
+                int max = bucket == 1 ? day.peaks[start] : bucket == 60 ? day.hourPeaks[start / 60] : day.peak;
+                long localMinute = dayStart + start;
+                long time = (localMinute - offsetMinutes(localMinute * 60_000L)) * 60_000L;
+                if (time + bucket * 60_000L <= from || time > to) {
+                    continue;
+                }
+                JsonArray point = new JsonArray();
+                point.add(time);
+                point.add(max);
+                points.add(point);
+                peak = Math.max(peak, max);
+            }
+        }
+
+        JsonObject result = new JsonObject();
+        result.addProperty("bucketMinutes", bucket);
+        result.addProperty("peak", peak);
+        result.add("points", points);
+        return result;
+    }
+
+    /**
+     * Average and highest peak concurrency per hour of the day, over the days in the range
+     */
+    public synchronized JsonObject peakHours(long from, long to) {
+        long[] sums = new long[24];
+        int[] maxima = new int[24];
+        int dayCount = 0;
+        for (Day day : days.subMap(localDay(from), true, localDay(to), true).values()) {
+            dayCount++;
+            for (int hour = 0; hour < 24; hour++) {
+                sums[hour] += day.hourPeaks[hour];
+                maxima[hour] = Math.max(maxima[hour], day.hourPeaks[hour]);
+            }
+        }
+
+        JsonArray hours = new JsonArray();
+        for (int hour = 0; hour < 24; hour++) {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("hour", hour);
+            obj.addProperty("average", dayCount > 0 ? (double) sums[hour] / dayCount : 0);
+            obj.addProperty("max", maxima[hour]);
+            hours.add(obj);
+        }
+        JsonObject result = new JsonObject();
+        result.addProperty("days", dayCount);
+        result.addProperty("timeZone", zone.getId());
+        result.add("hours", hours);
+        return result;
+    }
+
+    /**
+     * Distinct active players and first-time players per day
+     */
+    public synchronized JsonObject dailyActives(long from, long to) {
+        JsonArray result = new JsonArray();
+        for (Map.Entry<Integer, Day> entry : days.subMap(localDay(from), true, localDay(to), true).entrySet()) {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("date", dateOf(entry.getKey()));
+            obj.addProperty("active", entry.getValue().active);
+            obj.addProperty("new", entry.getValue().newPlayers);
+            result.add(obj);
+        }
+        JsonObject wrapper = new JsonObject();
+        wrapper.add("days", result);
+        return wrapper;
+    }
+
+    /**
+     * Weekly retention of the most recent cohorts: of the players who first joined in a week, how many
+     * played again in each following week
+     */
+    public synchronized JsonObject retention(int weeks) {
+        JsonArray cohorts = new JsonArray();
+        for (Map.Entry<Integer, int[]> entry : retention.descendingMap().entrySet()) {
+            if (cohorts.size() >= weeks) {
+                break;
+            }
+            int[] counts = entry.getValue();
+            JsonObject cohort = new JsonObject();
+            cohort.addProperty("week", dateOf(entry.getKey() * 7 - 3));
+            cohort.addProperty("size", counts[0]);
+            JsonArray rates = new JsonArray();
+            for (int count : counts) {
+                rates.add(counts[0] > 0 ? (double) count / counts[0] : 0);
+            }
+            cohort.add("retained", rates);
+            cohorts.add(cohort);
+        }
+        JsonObject result = new JsonObject();
+        result.addProperty("trackedSince", trackingStartDay >= 0 ? dateOf(trackingStartDay) : null);
+        result.add("cohorts", cohorts);
+        return result;
+    }
+
+    public synchronized List<UUID> onlinePlayers() {
+        return new ArrayList<>(online.keySet());
+    }
+
+    /**
+     * Appends a finished session to its month's partition. Does file I/O; call off the main thread.
+     */
+    public void append(Session session) throws IOException {
+        byte[] world = session.world != null ? session.world.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int worldLength = Math.min(world.length, 255);
+        ByteBuffer record = ByteBuffer.allocate(33 + worldLength);
+        record.putLong(session.uuid.getMostSignificantBits());
+        record.putLong(session.uuid.getLeastSignificantBits());
+        record.putLong(session.join);
+        record.putLong(session.quit);
+        record.put((byte) worldLength);
+        record.put(world, 0, worldLength);
+        record.flip();
+
+        synchronized (writeLock) {
+            YearMonth month = YearMonth.from(Instant.ofEpochMilli(session.quit).atZone(zone));
+            if (!month.equals(partitionMonth)) {
+                closePartition();
+                partition = openPartition(month);
+                partitionMonth = month;
+            }
+            long position = partition.size();
+            while (record.hasRemaining()) {
+                position += partition.write(record, position);
+            }
+        }
+    }
+
+    // Opens a partition for appending, cutting off a record torn by a crash
+    private FileChannel openPartition(YearMonth month) throws IOException {
+        File file = partitionFile(month);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putInt(PARTITION_MAGIC).putInt(VERSION).flip();
+            channel.write(header, 0);
+            return channel;
+        }
+        long valid = 8;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), 1 << 16))) {
+            in.readLong();
+            while (true) {
+                in.skipBytes(32);
+                int length = in.readUnsignedByte();
+                in.readFully(new byte[length]);
+                valid += 33 + length;
+            }
+        } catch (EOFException e) {
+            // Reached the end or a torn record
+        }
+        channel.truncate(valid);
+        return channel;
+    }
+
+    private File partitionFile(YearMonth month) {
+        return new File(directory, "sessions-" + month + ".dat");
+    }
+
+    /**
+     * Reads finished sessions that overlap the range, newest partitions first
+     * @param player Only sessions of this player, or null for everyone
+     */
+    public JsonObject sessions(long from, long to, UUID player, int limit) throws IOException {
+        JsonArray result = new JsonArray();
+        boolean truncated = false;
+        YearMonth first = YearMonth.from(Instant.ofEpochMilli(from).atZone(zone));
+        // A session is filed under the month it ended in, which can be after the end of the range
+        YearMonth last = YearMonth.from(Instant.ofEpochMilli(to).atZone(zone)).plusMonths(1);
+        for (YearMonth month = last; !month.isBefore(first) && !truncated; month = month.minusMonths(1)) {
+            File file = partitionFile(month);
+            if (!file.exists()) {
+                continue;
+            }
+            List<JsonObject> matches = new ArrayList<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), 1 << 16))) {
+                if (in.readInt() != PARTITION_MAGIC || in.readInt() != VERSION) {
+                    continue;
+                }
+                byte[] worldBuffer = new byte[255];
+                while (true) {
+                    long most;
+                    try {
+                        most = in.readLong();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    UUID uuid = new UUID(most, in.readLong());
+                    long join = in.readLong();
+                    long quit = in.readLong();
+                    int length = in.readUnsignedByte();
+                    in.readFully(worldBuffer, 0, length);
+                    if (quit < from || join > to || (player != null && !player.equals(uuid))) {
+                        continue;
+                    }
+                    JsonObject session = new JsonObject();
+                    session.addProperty("uuid", uuid.toString());
+                    session.addProperty("join", join);
+                    session.addProperty("quit", quit);
+                    session.addProperty("duration", (quit - join) / 1000);
+                    session.addProperty("world", new String(worldBuffer, 0, length, StandardCharsets.UTF_8));
+                    matches.add(session);
+                }
+            } catch (EOFException e) {
+                // Torn record at the end of the current partition
+            }
+            for (int i = matches.size() - 1; i >= 0; i--) {
+                if (result.size() >= limit) {
+                    truncated = true;
+                    break;
+                }
+                result.add(matches.get(i));
+            }
+        }
+
+        JsonObject wrapper = new JsonObject();
+        wrapper.add("sessions", result);
+        wrapper.addProperty("truncated", truncated);
+        return wrapper;
+    }
+
+    public void close() {
+        synchronized (writeLock) {
+            closePartition();
+        }
+    }
+
+    private void closePartition() {
+        if (partition != null) {
+            try {
+                partition.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+            partition = null;
+            partitionMonth = null;
+        }
+    }
+
+    /**
+     * A finished session
+     */
+    public static class Session {
+        final UUID uuid;
+        final long join;
+        final long quit;
+        final String world;
+
+        Session(UUID uuid, long join, long quit, String world) {
+            this.uuid = uuid;
+            this.join = join;
+            this.quit = quit;
+            this.world = world;
+        }
+    }
+
+    private static class OpenSession {
+        final long join;
+        final String world;
+
+        OpenSession(long join, String world) {
+            this.join = join;
+            this.world = world;
+        }
+    }
+
+    private static class Day {
+        final short[] peaks = new short[MINUTES_PER_DAY];
+        // Maxima of peaks, kept alongside so long ranges never touch the per-minute values
+        final short[] hourPeaks = new short[24];
+        short peak;
+        int active;
+        int newPlayers;
+
+        void setPeak(int minute, int count) {
+            short value = (short) Math.min(count, Short.MAX_VALUE);
+            if (value > peaks[minute]) {
+                peaks[minute] = value;
+                hourPeaks[minute / 60] = (short) Math.max(hourPeaks[minute / 60], value);
+                peak = (short) Math.max(peak, value);
+            }
+        }
+    }
+
+    private static class Activity {
+        final int firstDay;
+        int lastDay;
+        int lastWeek;
+
+        Activity(int firstDay, int lastDay, int lastWeek) {
+            this.firstDay = firstDay;
+            this.lastDay = lastDay;
+            this.lastWeek = lastWeek;
+        }
+    }
+}
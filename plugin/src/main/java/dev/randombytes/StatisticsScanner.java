@@ -0,0 +1,384 @@
+package dev.randombytes;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scans world/stats and world/advancements in parallel and keeps the top players per statistic.
+ * Parsed values are cached per file, so a rescan only parses files whose mtime or size changed.
+ * The server writes these files on save, so online players' values lag by up to one autosave.
+ */
+public class StatisticsScanner {
+    public static final int TOP_SIZE = 100;
+    // Files parsed per fork-join leaf
+    private static final int SPLIT_THRESHOLD = 32;
+
+    /**
+     * Statistics with a leaderboard
+     */
+    public enum Stat {
+        PLAY_TIME("playtime"),
+        BLOCKS_MINED("blocks_mined"),
+        DEATHS("deaths"),
+        MOB_KILLS("mob_kills"),
+        PLAYER_KILLS("player_kills"),
+        ADVANCEMENTS("advancements");
+
+        public final String key;
+
+        Stat(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * A leaderboard row
+     */
+    public static class Ranked {
+        public final UUID uuid;
+        public final long value;
+
+        Ranked(UUID uuid, long value) {
+            this.uuid = uuid;
+            this.value = value;
+        }
+    }
+
+    private final Plugin plugin;
+    private final File statsDir;
+    private final File advancementsDir;
+    private final ForkJoinPool pool;
+    private final Map<UUID, PlayerStats> players = new ConcurrentHashMap<>();
+    // Replaced as a whole after each scan that changed something; readers never see a partial board
+    private volatile Ranked[][] leaderboards = new Ranked[Stat.values().length][0];
+    private volatile long lastScan;
+    // Timer runs can overlap when a scan takes longer than the period; only one of them scans
+    private final AtomicBoolean scanning = new AtomicBoolean();
+
+    public StatisticsScanner(Plugin plugin, File worldFolder) {
+        this.plugin = plugin;
+        this.statsDir = new File(worldFolder, "stats");
+        this.advancementsDir = new File(worldFolder, "advancements");
+        // Leave cores for the server; parsing is cheap enough that a few threads saturate the disk
+        this.pool = new ForkJoinPool(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+    }
+
+    /**
+     * Parses new and changed files and rebuilds the leaderboards if any value changed. Call off the main thread.
+     */
+    public void scan() {
+        if (!scanning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            Set<UUID> present = new HashSet<>();
+            List<Job> jobs = new ArrayList<>();
+            collectJobs(statsDir, false, present, jobs);
+            collectJobs(advancementsDir, true, present, jobs);
+
+            AtomicInteger changed = new AtomicInteger();
+            if (!jobs.isEmpty()) {
+                pool.invoke(new ParseTask(jobs, 0, jobs.size(), changed));
+            }
+            // Players whose files were deleted drop off the boards
+            boolean removed = players.keySet().retainAll(present);
+
+            if (changed.get() > 0 || removed) {
+                rebuildLeaderboards();
+            }
+            lastScan = System.currentTimeMillis();
+            if (!jobs.isEmpty()) {
+                plugin.getLogger().fine("Statistics scan parsed " + jobs.size() + " files in "
+                        + (lastScan - start) + "ms");
+            }
+        } finally {
+            scanning.set(false);
+        }
+    }
+
+    // Queues every file whose mtime or size differs from what was parsed last time
+    private void collectJobs(File dir, boolean advancements, Set<UUID> present, List<Job> jobs) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".json"));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            UUID uuid;
+            try {
+                uuid = UUID.fromString(file.getName().substring(0, file.getName().length() - 5));
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            present.add(uuid);
+            long modified = file.lastModified();
+            long length = file.length();
+            PlayerStats stats = players.computeIfAbsent(uuid, PlayerStats::new);
+            FileVersion parsed = advancements ? stats.advancementsVersion : stats.statsVersion;
+            if (parsed == null || parsed.modified != modified || parsed.length != length) {
+                jobs.add(new Job(stats, file, advancements, new FileVersion(modified, length)));
+            }
+        }
+    }
+
+    private class ParseTask extends RecursiveAction {
+        private final List<Job> jobs;
+        private final int from;
+        private final int to;
+        private final AtomicInteger changed;
+
+        ParseTask(List<Job> jobs, int from, int to, AtomicInteger changed) {
+            this.jobs = jobs;
+            this.from = from;
+            this.to = to;
+            this.changed = changed;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ParseTask(jobs, from, mid, changed), new ParseTask(jobs, mid, to, changed));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                if (parse(jobs.get(i))) {
+                    changed.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    // Each player's stats and advancements files are separate jobs, so a PlayerStats is updated per field
+    private boolean parse(Job job) {
+        try {
+            if (job.advancements) {
+                long done = countAdvancements(job.file);
+                boolean changed = job.stats.values[Stat.ADVANCEMENTS.ordinal()] != done;
+                job.stats.values[Stat.ADVANCEMENTS.ordinal()] = done;
+                job.stats.advancementsVersion = job.version;
+                return changed;
+            }
+            long[] values = readStatistics(job.file);
+            boolean changed = false;
+            for (Stat stat : Stat.values()) {
+                if (stat != Stat.ADVANCEMENTS && job.stats.values[stat.ordinal()] != values[stat.ordinal()]) {
+                    job.stats.values[stat.ordinal()] = values[stat.ordinal()];
+                    changed = true;
+                }
+            }
+            job.stats.statsVersion = job.version;
+            return changed;
+        } catch (IOException | RuntimeException e) {
+            // Usually a file caught mid-write; the next scan retries since the version was not recorded
+            plugin.getLogger().fine("Could not parse " + job.file.getName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Streams the stats file, summing the counters the leaderboards need without building a tree
+    private static long[] readStatistics(File file) throws IOException {
+        long[] values = new long[Stat.values().length];
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("stats") || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String category = reader.nextName();
+                    if (category.equals("minecraft:mined")) {
+                        values[Stat.BLOCKS_MINED.ordinal()] = sumCounters(reader);
+                    } else if (category.equals("minecraft:custom")) {
+                        readCustom(reader, values);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        }
+        return values;
+    }
+
+    private static long sumCounters(JsonReader reader) throws IOException {
+        long sum = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            reader.nextName();
+            sum += reader.nextLong();
+        }
+        reader.endObject();
+        return sum;
+    }
+
+    private static void readCustom(JsonReader reader, long[] values) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                // play_one_minute was renamed to play_time in 1.17; both count ticks
+                case "minecraft:play_time":
+                case "minecraft:play_one_minute":
+                    values[Stat.PLAY_TIME.ordinal()] = reader.nextLong() / 20;
+                    break;
+                case "minecraft:deaths":
+                    values[Stat.DEATHS.ordinal()] = reader.nextLong();
+                    break;
+                case "minecraft:mob_kills":
+                    values[Stat.MOB_KILLS.ordinal()] = reader.nextLong();
+                    break;
+                case "minecraft:player_kills":
+                    values[Stat.PLAYER_KILLS.ordinal()] = reader.nextLong();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // Completed advancements, not counting recipe unlocks which the game tracks the same way
+    private static long countAdvancements(File file) throws IOException {
+        long done = 0;
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String id = reader.nextName();
+                if (id.startsWith("minecraft:recipes/") || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("done") && reader.peek() == JsonToken.BOOLEAN) {
+                        if (reader.nextBoolean()) {
+                            done++;
+                        }
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        }
+        return done;
+    }
+
+    // One pass per statistic with a bounded min-heap: O(players * log TOP_SIZE)
+    private void rebuildLeaderboards() {
+        Ranked[][] boards = new Ranked[Stat.values().length][];
+        for (Stat stat : Stat.values()) {
+            int column = stat.ordinal();
+            PriorityQueue<Ranked> top = new PriorityQueue<>(TOP_SIZE + 1, StatisticsScanner::compareRanked);
+            for (PlayerStats stats : players.values()) {
+                long value = stats.values[column];
+                if (value <= 0) {
+                    continue;
+                }
+                if (top.size() < TOP_SIZE) {
+                    top.add(new Ranked(stats.uuid, value));
+                } else if (value > top.peek().value) {
+                    top.poll();
+                    top.add(new Ranked(stats.uuid, value));
+                }
+            }
+            Ranked[] board = top.toArray(new Ranked[0]);
+            Arrays.sort(board, (a, b) -> compareRanked(b, a));
+            boards[column] = board;
+        }
+        leaderboards = boards;
+    }
+
+    // Lower values first; equal values order by UUID so ranks are stable between rebuilds
+    private static int compareRanked(Ranked a, Ranked b) {
+        int byValue = Long.compare(a.value, b.value);
+        return byValue != 0 ? byValue : b.uuid.compareTo(a.uuid);
+    }
+
+    /**
+     * @return Up to limit players with the highest value, highest first
+     */
+    public List<Ranked> top(Stat stat, int limit) {
+        Ranked[] board = leaderboards[stat.ordinal()];
+        return Arrays.asList(Arrays.copyOf(board, Math.min(limit, board.length)));
+    }
+
+    /**
+     * @return The player's value, or -1 if none of their files has been parsed
+     */
+    public long valueOf(UUID uuid, Stat stat) {
+        PlayerStats stats = players.get(uuid);
+        return stats != null ? stats.values[stat.ordinal()] : -1;
+    }
+
+    public long getLastScan() {
+        return lastScan;
+    }
+
+    public int getPlayerCount() {
+        return players.size();
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static class PlayerStats {
+        final UUID uuid;
+        // Indexed by Stat ordinal; written by one parse job at a time, read by rebuilds after the pool finished
+        final long[] values = new long[Stat.values().length];
+        volatile FileVersion statsVersion;
+        volatile FileVersion advancementsVersion;
+
+        PlayerStats(UUID uuid) {
+            this.uuid = uuid;
+        }
+    }
+
+    private static class FileVersion {
+        final long modified;
+        final long length;
+
+        FileVersion(long modified, long length) {
+            this.modified = modified;
+            this.length = length;
+        }
+    }
+
+    private static class Job {
+        final PlayerStats stats;
+        final File file;
+        final boolean advancements;
+        final FileVersion version;
+
+        Job(PlayerStats stats, File file, boolean advancements, FileVersion version) {
+            this.stats = stats;
+            this.file = file;
+            this.advancements = advancements;
+            this.version = version;
+        }
+    }
+}